@@ -0,0 +1,162 @@
+package btools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import btools.codec.DataBuffers;
+import btools.expressions.BExpressionContextWay;
+import btools.expressions.BExpressionMetaData;
+import btools.mapaccess.OsmFile;
+import btools.mapaccess.PhysicalFile;
+import btools.router.OsmNodeNamed;
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+
+/**
+ * Access to the data used by the benchmarks
+ * <p>
+ * By default the test segments created by the map-creator's tests
+ * are used, others can be given with -Dbenchmark.segments=&lt;dir&gt;
+ * and -Dbenchmark.profile=&lt;brf-file&gt;
+ */
+public final class BenchmarkData {
+  // routes within the test segments (lon/lat from, lon/lat to)
+  static final double[][] ROUTES = {
+    {8.720897, 50.002515, 8.723658, 49.997510},
+    {8.723037, 50.000491, 8.712737, 50.002899},
+    {8.705796, 50.003124, 8.729358, 49.997404}
+  };
+
+  /**
+   * A sub-tile of an rd5 file, the unit of decoding
+   */
+  static final class SubTile {
+    final OsmFile osmFile;
+    final int lonIdx;
+    final int latIdx;
+
+    SubTile(OsmFile osmFile, int lonIdx, int latIdx) {
+      this.osmFile = osmFile;
+      this.lonIdx = lonIdx;
+      this.latIdx = latIdx;
+    }
+  }
+
+  private BenchmarkData() {
+  }
+
+  public static File getSegmentDir() {
+    return new File(System.getProperty("benchmark.segments", "../brouter-map-creator/build/resources/test/tmp/segments"));
+  }
+
+  public static String getProfile() {
+    return new File(System.getProperty("benchmark.profile", "../misc/profiles2/trekking.brf")).getAbsolutePath();
+  }
+
+  /**
+   * @return the profile with the given name, next to the default profile
+   */
+  public static String getProfile(String name) {
+    return new File(new File(getProfile()).getParentFile(), name + ".brf").getAbsolutePath();
+  }
+
+  public static RoutingEngine createEngine(double[] route, Map<String, String> keyValues) {
+    return createEngine(route, getProfile(), keyValues);
+  }
+
+  public static RoutingEngine createEngine(double[] route, String profile, Map<String, String> keyValues) {
+    return createEngine(route, createContext(profile, keyValues));
+  }
+
+  public static RoutingEngine createEngine(double[] route, RoutingContext rctx) {
+    RoutingEngine re = new RoutingEngine(null, null, getSegmentDir(), createWaypoints(route), rctx);
+    re.quite = true;
+    return re;
+  }
+
+  public static List<OsmNodeNamed> createWaypoints(double[] route) {
+    List<OsmNodeNamed> wplist = new ArrayList<>();
+    wplist.add(createWaypoint("from", route[0], route[1]));
+    wplist.add(createWaypoint("to", route[2], route[3]));
+    return wplist;
+  }
+
+  public static RoutingContext createContext(String profile, Map<String, String> keyValues) {
+    RoutingContext rctx = new RoutingContext();
+    rctx.localFunction = profile;
+    rctx.keyValues = keyValues;
+    return rctx;
+  }
+
+  private static OsmNodeNamed createWaypoint(String name, double lon, double lat) {
+    OsmNodeNamed n = new OsmNodeNamed();
+    n.name = name;
+    n.ilon = 180000000 + (int) (lon * 1000000 + 0.5);
+    n.ilat = 90000000 + (int) (lat * 1000000 + 0.5);
+    return n;
+  }
+
+  /**
+   * @return the way context of a profile, parsed without a routing context
+   */
+  public static BExpressionContextWay createWayContext(String profile, int hashSize) {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    BExpressionContextWay expctxWay = new BExpressionContextWay(hashSize, meta);
+    File profileFile = new File(profile);
+    meta.readMetaData(new File(profileFile.getParentFile(), "lookups.dat"));
+    expctxWay.parseFile(profileFile, "global");
+    return expctxWay;
+  }
+
+  /**
+   * Open all rd5 files of the segment dir and list their sub-tiles
+   *
+   * @param openFiles receives the opened files, to be closed by the caller
+   */
+  static List<SubTile> openSubTiles(DataBuffers dataBuffers, List<PhysicalFile> openFiles) throws IOException {
+    File[] files = getSegmentDir().listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException("no segment dir: " + getSegmentDir());
+    }
+    List<SubTile> subTiles = new ArrayList<>();
+    for (File f : files) {
+      String name = f.getName();
+      if (!name.endsWith(".rd5")) {
+        continue;
+      }
+      int idx = name.indexOf('_');
+      int lon = Integer.parseInt(name.substring(1, idx));
+      int lat = Integer.parseInt(name.substring(idx + 2, name.length() - 4));
+      int lonDegreeBase = (name.charAt(0) == 'W' ? -lon : lon) + 180;
+      int latDegreeBase = (name.charAt(idx + 1) == 'S' ? -lat : lat) + 90;
+
+      PhysicalFile pf = new PhysicalFile(f, dataBuffers, -1, -1);
+      openFiles.add(pf);
+      int divisor = pf.divisor;
+      for (int lonDegree = lonDegreeBase; lonDegree < lonDegreeBase + 5; lonDegree++) {
+        for (int latDegree = latDegreeBase; latDegree < latDegreeBase + 5; latDegree++) {
+          OsmFile osmf = new OsmFile(pf, lonDegree, latDegree, dataBuffers);
+          if (!osmf.hasData()) {
+            continue;
+          }
+          for (int lonIdx = lonDegree * divisor; lonIdx < (lonDegree + 1) * divisor; lonIdx++) {
+            for (int latIdx = latDegree * divisor; latIdx < (latDegree + 1) * divisor; latIdx++) {
+              subTiles.add(new SubTile(osmf, lonIdx, latIdx));
+            }
+          }
+        }
+      }
+    }
+    return subTiles;
+  }
+
+  static void close(List<PhysicalFile> openFiles) {
+    for (PhysicalFile pf : openFiles) {
+      pf.close();
+    }
+    openFiles.clear();
+  }
+}
@@ -0,0 +1,77 @@
+package btools.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.expressions.BExpressionContextWay;
+
+/**
+ * Way-context evaluation of a profile for a set of random way descriptions
+ * <p>
+ * "cold" evaluates them with a fresh evaluator (empty result cache, as at
+ * the start of a request), "warm" with an evaluator that has seen them all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+  private static final int DESCRIPTIONS = 1000;
+
+  @Param({"trekking", "car-vario"})
+  public String profile;
+
+  @Param({"cold", "warm"})
+  public String cache;
+
+  private BExpressionContextWay compiled;
+  private BExpressionContextWay warmContext;
+  private byte[][] descriptions;
+
+  @Setup
+  public void createDescriptions() {
+    compiled = BenchmarkData.createWayContext(BenchmarkData.getProfile(profile), 4096);
+    Random rnd = new Random(17);
+    List<byte[]> list = new ArrayList<>();
+    while (list.size() < DESCRIPTIONS) {
+      byte[] ab = compiled.encode(compiled.generateRandomValues(rnd));
+      if (ab != null) {
+        list.add(ab);
+      }
+    }
+    descriptions = list.toArray(new byte[0][]);
+
+    warmContext = new BExpressionContextWay(compiled);
+    evaluateAll(warmContext);
+  }
+
+  private float evaluateAll(BExpressionContextWay ctx) {
+    float sum = 0.f;
+    for (byte[] ab : descriptions) {
+      ctx.evaluate(false, ab);
+      sum += ctx.getCostfactor();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float evaluate() {
+    return evaluateAll("cold".equals(cache) ? new BExpressionContextWay(compiled) : warmContext);
+  }
+}
@@ -0,0 +1,77 @@
+package btools.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.router.FormatCsv;
+import btools.router.FormatGpx;
+import btools.router.FormatJson;
+import btools.router.FormatKml;
+import btools.router.Formatter;
+import btools.router.OsmTrack;
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+
+/**
+ * Output formatting of the longest benchmark route
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+  @Param({"gpx", "geojson", "kml", "csv"})
+  public String format;
+
+  @Param({"0", "1"})
+  public int turnInstructionMode;
+
+  private OsmTrack track;
+  private Formatter formatter;
+
+  @Setup
+  public void calcRoute() {
+    RoutingContext rc = BenchmarkData.createContext(BenchmarkData.getProfile(), null);
+    rc.turnInstructionMode = turnInstructionMode;
+    RoutingEngine re = BenchmarkData.createEngine(BenchmarkData.ROUTES[2], rc);
+    re.doRun(0);
+    if (re.getErrorMessage() != null) {
+      throw new IllegalArgumentException(re.getErrorMessage());
+    }
+    track = re.getFoundTrack();
+    formatter = createFormatter(rc);
+  }
+
+  private Formatter createFormatter(RoutingContext rc) {
+    switch (format) {
+      case "gpx":
+        return new FormatGpx(rc);
+      case "geojson":
+        return new FormatJson(rc);
+      case "kml":
+        return new FormatKml(rc);
+      case "csv":
+        return new FormatCsv(rc);
+      default:
+        throw new IllegalArgumentException("unknown format: " + format);
+    }
+  }
+
+  @Benchmark
+  public String format() {
+    return formatter.format(track);
+  }
+}
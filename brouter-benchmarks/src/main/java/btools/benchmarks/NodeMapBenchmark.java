@@ -0,0 +1,138 @@
+package btools.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.codec.DataBuffers;
+import btools.codec.MicroCache;
+import btools.expressions.BExpressionContextWay;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.PhysicalFile;
+import btools.util.LongList;
+import btools.util.OpenLongMap;
+
+/**
+ * Compares the node index of OsmNodesMap (OpenLongMap) with the
+ * HashMap&lt;OsmNode,OsmNode&gt; it replaced.
+ * <p>
+ * Both replay the node-map operations of decoding all tiles of the
+ * benchmark segments, as done by DirectWeaver in a search: look up
+ * each decoded node (and remove it from the hollow nodes) and look
+ * up or insert the hollow target nodes of links leaving the tile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeMapBenchmark {
+  private long[] traceIds;
+  private boolean[] traceInsert;
+  private OsmNode[] traceNodes;
+
+  @Setup
+  public void createTrace() throws Exception {
+    BExpressionContextWay expctxWay = BenchmarkData.createWayContext(BenchmarkData.getProfile(), 4096);
+
+    LongList ids = new LongList(1024);
+    LongList inserts = new LongList(1024);
+    DataBuffers dataBuffers = new DataBuffers();
+    List<PhysicalFile> openFiles = new ArrayList<>();
+    try {
+      for (BenchmarkData.SubTile t : BenchmarkData.openSubTiles(dataBuffers, openFiles)) {
+        MicroCache mc = t.osmFile.createMicroCache(t.lonIdx, t.latIdx, dataBuffers, expctxWay, null, true, null);
+        traceMicroCache(mc, expctxWay, ids, inserts);
+      }
+    } finally {
+      BenchmarkData.close(openFiles);
+    }
+    int size = ids.size();
+    traceIds = new long[size];
+    traceInsert = new boolean[size];
+    traceNodes = new OsmNode[size];
+    for (int i = 0; i < size; i++) {
+      traceIds[i] = ids.get(i);
+      traceInsert[i] = inserts.get(i) != 0;
+      traceNodes[i] = new OsmNode(traceIds[i]);
+    }
+  }
+
+  private void traceMicroCache(MicroCache mc, BExpressionContextWay expctxWay, LongList ids, LongList inserts) {
+    int size = mc.getSize();
+    long[] nodeIds = new long[size];
+    for (int i = 0; i < size; i++) {
+      nodeIds[i] = mc.getIdForIndex(i);
+      ids.add(nodeIds[i]);
+      inserts.add(0);
+    }
+    OsmNodesMap hollowNodes = new OsmNodesMap();
+    for (long id : nodeIds) {
+      if (!mc.getAndClear(id)) {
+        continue;
+      }
+      OsmNode n = new OsmNode(id);
+      n.parseNodeBody(mc, hollowNodes, expctxWay);
+      for (OsmLink l = n.firstlink; l != null; l = l.getNext(n)) {
+        long targetId = l.getTarget(n).getIdFromPos();
+        if (!mc.isInternal((int) (targetId >> 32), (int) targetId)) {
+          ids.add(targetId);
+          inserts.add(1);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public int openLongMap() {
+    OpenLongMap<OsmNode> map = new OpenLongMap<>(4096);
+    for (int i = 0; i < traceIds.length; i++) {
+      long id = traceIds[i];
+      OsmNode n = map.get(id);
+      if (traceInsert[i]) {
+        if (n == null) {
+          map.put(id, traceNodes[i]);
+        }
+      } else if (n != null) {
+        map.remove(id);
+      }
+    }
+    return map.size();
+  }
+
+  @Benchmark
+  public int hashMap() {
+    Map<OsmNode, OsmNode> map = new HashMap<>(4096);
+    OsmNode testKey = new OsmNode();
+    for (int i = 0; i < traceIds.length; i++) {
+      OsmNode node = traceNodes[i];
+      testKey.ilon = node.ilon;
+      testKey.ilat = node.ilat;
+      OsmNode n = map.get(testKey);
+      if (traceInsert[i]) {
+        if (n == null) {
+          map.put(node, node);
+        }
+      } else if (n != null) {
+        map.remove(n);
+      }
+    }
+    return map.size();
+  }
+}
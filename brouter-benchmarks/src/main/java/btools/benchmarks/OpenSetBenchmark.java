@@ -0,0 +1,106 @@
+package btools.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.router.RoutingEngine;
+import btools.util.IntPriorityQueue;
+import btools.util.RadixHeap;
+import btools.util.SortedHeap;
+
+/**
+ * Compares the open set implementations by replaying the add/pop
+ * traces recorded from real searches with the given profile
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenSetBenchmark {
+  private static final Object VALUE = new Object();
+
+  @Param({"trekking", "car-vario"})
+  public String profile;
+
+  @Param({"SortedHeap", "RadixHeap"})
+  public String queue;
+
+  private final List<TracingQueue<?>> recorders = new ArrayList<>();
+  private int[][] traces;
+
+  private final class TracingEngine extends RoutingEngine {
+    TracingEngine(double[] route) {
+      super(null, null, BenchmarkData.getSegmentDir(), BenchmarkData.createWaypoints(route),
+        BenchmarkData.createContext(BenchmarkData.getProfile(profile), null));
+      quite = true;
+    }
+
+    @Override
+    protected <V> IntPriorityQueue<V> createOpenSet() {
+      TracingQueue<V> q = new TracingQueue<>(new SortedHeap<>());
+      recorders.add(q);
+      return q;
+    }
+  }
+
+  @Setup
+  public void recordTraces() {
+    recorders.clear();
+    for (double[] route : BenchmarkData.ROUTES) {
+      RoutingEngine re = new TracingEngine(route);
+      re.doRun(0);
+      if (re.getErrorMessage() != null) {
+        throw new IllegalArgumentException(re.getErrorMessage());
+      }
+    }
+    traces = new int[recorders.size()][];
+    for (int i = 0; i < traces.length; i++) {
+      traces[i] = recorders.get(i).getTrace();
+    }
+  }
+
+  private IntPriorityQueue<Object> createQueue() {
+    if ("SortedHeap".equals(queue)) {
+      return new SortedHeap<>();
+    }
+    if ("RadixHeap".equals(queue)) {
+      return new RadixHeap<>();
+    }
+    throw new IllegalArgumentException("unknown queue: " + queue);
+  }
+
+  @Benchmark
+  public int replay() {
+    int popped = 0;
+    for (int[] trace : traces) {
+      IntPriorityQueue<Object> q = createQueue();
+      for (int op : trace) {
+        if (op >= 0) {
+          q.add(op, VALUE);
+        } else if (op == TracingQueue.POP) {
+          if (q.popLowestKeyValue() != null) {
+            popped++;
+          }
+        } else {
+          q.clear();
+        }
+      }
+    }
+    return popped;
+  }
+}
@@ -0,0 +1,51 @@
+package btools.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.router.OsmTrack;
+import btools.router.RoutingEngine;
+
+/**
+ * End-to-end route calculation on the benchmark segments with several profiles
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+  @Param({"trekking", "fastbike", "car-vario", "shortest"})
+  public String profile;
+
+  @Param({"0", "1", "2"})
+  public int route;
+
+  @Param({"0", "1"})
+  public String pathPooling;
+
+  @Benchmark
+  public OsmTrack calcRoute() {
+    Map<String, String> keyValues = new HashMap<>();
+    keyValues.put("pathPooling", pathPooling);
+    RoutingEngine re = BenchmarkData.createEngine(BenchmarkData.ROUTES[route], BenchmarkData.getProfile(profile), keyValues);
+    re.doRun(0);
+    if (re.getErrorMessage() != null) {
+      throw new IllegalArgumentException(re.getErrorMessage());
+    }
+    return re.getFoundTrack();
+  }
+}
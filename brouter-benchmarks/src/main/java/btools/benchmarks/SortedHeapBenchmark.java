@@ -0,0 +1,109 @@
+package btools.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.util.IntPriorityQueue;
+import btools.util.RadixHeap;
+import btools.util.SortedHeap;
+
+/**
+ * Synthetic push/pop workloads of the open set implementations,
+ * complementing the recorded search traces of OpenSetBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedHeapBenchmark {
+  private static final Object VALUE = new Object();
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"SortedHeap", "RadixHeap"})
+  public String queue;
+
+  private int[] keys;
+  private int[] increments;
+  private int[][] holders; // the keys of the monotone workload
+
+  @Setup
+  public void createKeys() {
+    Random rnd = new Random(17);
+    keys = new int[size];
+    increments = new int[size];
+    holders = new int[size][1];
+    for (int i = 0; i < size; i++) {
+      keys[i] = rnd.nextInt(1000000);
+      increments[i] = rnd.nextInt(500);
+    }
+  }
+
+  private <V> IntPriorityQueue<V> createQueue() {
+    if ("SortedHeap".equals(queue)) {
+      return new SortedHeap<>();
+    }
+    if ("RadixHeap".equals(queue)) {
+      return new RadixHeap<>();
+    }
+    throw new IllegalArgumentException("unknown queue: " + queue);
+  }
+
+  /**
+   * Push all keys, then pop them all
+   */
+  @Benchmark
+  public int pushAllPopAll() {
+    IntPriorityQueue<Object> q = createQueue();
+    for (int key : keys) {
+      q.add(key, VALUE);
+    }
+    int popped = 0;
+    while (q.popLowestKeyValue() != null) {
+      popped++;
+    }
+    return popped;
+  }
+
+  /**
+   * Dijkstra-like: each pop pushes two keys above the popped one,
+   * until all keys are pushed
+   */
+  @Benchmark
+  public int monotone() {
+    IntPriorityQueue<int[]> q = createQueue();
+    holders[0][0] = 0;
+    q.add(0, holders[0]);
+    int pushed = 1;
+    int popped = 0;
+    for (; ; ) {
+      int[] holder = q.popLowestKeyValue();
+      if (holder == null) {
+        break;
+      }
+      popped++;
+      for (int k = 0; k < 2 && pushed < size; k++) {
+        int key = holder[0] + increments[pushed];
+        holders[pushed][0] = key;
+        q.add(key, holders[pushed]);
+        pushed++;
+      }
+    }
+    return popped;
+  }
+}
@@ -0,0 +1,70 @@
+package btools.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import btools.codec.DataBuffers;
+import btools.codec.MicroCache;
+import btools.expressions.BExpressionContextWay;
+import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.PhysicalFile;
+
+/**
+ * Decoding of all sub-tiles of the benchmark segments, either into
+ * a MicroCache (as used for waypoint matching) or woven directly into
+ * the node graph by DirectWeaver (as used by the search)
+ * <p>
+ * The tile data are read from the files on each decoding, as without
+ * the tile data cache, so this includes the (os-cached) file access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileDecodingBenchmark {
+  @Param({"MicroCache", "DirectWeaver"})
+  public String decoder;
+
+  private final List<PhysicalFile> openFiles = new ArrayList<>();
+  private final DataBuffers dataBuffers = new DataBuffers();
+  private List<BenchmarkData.SubTile> subTiles;
+  private BExpressionContextWay expctxWay;
+
+  @Setup
+  public void openFiles() throws Exception {
+    expctxWay = BenchmarkData.createWayContext(BenchmarkData.getProfile(), 4096);
+    subTiles = BenchmarkData.openSubTiles(dataBuffers, openFiles);
+  }
+
+  @TearDown
+  public void closeFiles() {
+    BenchmarkData.close(openFiles);
+  }
+
+  @Benchmark
+  public void decode(Blackhole bh) throws Exception {
+    boolean weave = "DirectWeaver".equals(decoder);
+    for (BenchmarkData.SubTile t : subTiles) {
+      OsmNodesMap hollowNodes = weave ? new OsmNodesMap() : null;
+      MicroCache mc = t.osmFile.createMicroCache(t.lonIdx, t.latIdx, dataBuffers, expctxWay, null, true, hollowNodes);
+      bh.consume(weave ? hollowNodes : mc);
+    }
+  }
+}
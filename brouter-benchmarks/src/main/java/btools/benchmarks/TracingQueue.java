@@ -0,0 +1,61 @@
+package btools.benchmarks;
+
+import btools.util.IntPriorityQueue;
+import btools.util.LongList;
+
+/**
+ * Priority queue that records its operations for a later replay:
+ * the key for add, -1 for pop and -2 for clear
+ */
+final class TracingQueue<V> implements IntPriorityQueue<V> {
+  static final int POP = -1;
+  static final int CLEAR = -2;
+
+  private final IntPriorityQueue<V> delegate;
+  private final LongList ops = new LongList(1024);
+
+  TracingQueue(IntPriorityQueue<V> delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void add(int key, V value) {
+    ops.add(key);
+    delegate.add(key, value);
+  }
+
+  @Override
+  public V popLowestKeyValue() {
+    ops.add(POP);
+    return delegate.popLowestKeyValue();
+  }
+
+  @Override
+  public void clear() {
+    ops.add(CLEAR);
+    delegate.clear();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public int getPeakSize() {
+    return delegate.getPeakSize();
+  }
+
+  @Override
+  public int getExtract(Object[] targetArray) {
+    return delegate.getExtract(targetArray);
+  }
+
+  int[] getTrace() {
+    int[] trace = new int[ops.size()];
+    for (int i = 0; i < trace.length; i++) {
+      trace[i] = (int) ops.get(i);
+    }
+    return trace;
+  }
+}
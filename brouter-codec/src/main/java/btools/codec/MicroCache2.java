@@ -11,6 +11,11 @@ import btools.util.IByteArrayUnifier;
  * is able to do access filtering and waypoint matching during encoding
  */
 public final class MicroCache2 extends MicroCache {
+  // types of the extra data entries at the start of a node body
+  public static final int EXTRA_END = 0;
+  public static final int EXTRA_RESTRICTION = 1;
+  public static final int EXTRA_ISLAND = 2;
+
   private int lonBase;
   private int latBase;
   private int cellsize;
@@ -82,6 +87,7 @@ public final class MicroCache2 extends MicroCache {
 
       // future escapes (turn restrictions?)
       short trExceptions = 0;
+      long islandId = 0L;
       int featureId = bc.decodeVarBits();
       if (featureId == 13) {
         fapos[n] = aboffset;
@@ -91,10 +97,17 @@ public final class MicroCache2 extends MicroCache {
       while (featureId != 0) {
         int bitsize = bc.decodeNoisyNumber(5);
 
-        if (featureId == 2) { // exceptions to turn-restriction
+        if (featureId == 3) { // island component, identified by its anchor node
+          int anchorLon = ilon + bc.decodeNoisyDiff(10);
+          int anchorLat = ilat + bc.decodeNoisyDiff(10);
+          islandId = ((long) anchorLon) << 32 | anchorLat;
+          writeByte(EXTRA_ISLAND);
+          writeInt(anchorLon);
+          writeInt(anchorLat);
+        } else if (featureId == 2) { // exceptions to turn-restriction
           trExceptions = (short) bc.decodeBounded(1023);
         } else if (featureId == 1) { // turn-restriction
-          writeBoolean(true);
+          writeByte(EXTRA_RESTRICTION);
           writeShort(trExceptions); // exceptions from previous feature
           trExceptions = 0;
 
@@ -108,7 +121,7 @@ public final class MicroCache2 extends MicroCache {
         }
         featureId = bc.decodeVarBits();
       }
-      writeBoolean(false);
+      writeByte(EXTRA_END);
 
       selev += nodeEleDiff.decodeSignedValue();
       writeShort((short) selev);
@@ -162,7 +175,7 @@ public final class MicroCache2 extends MicroCache {
           int ilattarget = ilat + dlat_remaining;
           if (matcher != null) {
             boolean useAsStartWay = wayValidator.checkStartWay(wayTags.data);
-            if (!matcher.start(ilon, ilat, ilontarget, ilattarget, useAsStartWay)) {
+            if (!matcher.start(ilon, ilat, ilontarget, ilattarget, useAsStartWay, islandId)) {
               matcher = null;
             }
           }
@@ -297,6 +310,7 @@ public final class MicroCache2 extends MicroCache {
     IntegerFifo3Pass linkCounts = new IntegerFifo3Pass(256);
     IntegerFifo3Pass transCounts = new IntegerFifo3Pass(256);
     IntegerFifo3Pass restrictionBits = new IntegerFifo3Pass(16);
+    IntegerFifo3Pass islandBits = new IntegerFifo3Pass(16);
 
     TagValueCoder wayTagCoder = new TagValueCoder();
     TagValueCoder nodeTagCoder = new TagValueCoder();
@@ -319,6 +333,7 @@ public final class MicroCache2 extends MicroCache {
       linkCounts.init();
       transCounts.init();
       restrictionBits.init();
+      islandBits.init();
 
       wayTagCoder.encodeDictionary(bc);
       if (dostats) bc.assignBits("wayTagDictionary");
@@ -354,8 +369,17 @@ public final class MicroCache2 extends MicroCache {
           continue;
         }
 
-        // write turn restrictions
-        while (readBoolean()) {
+        // write turn restrictions and island info
+        for (int extraType = readByte(); extraType != EXTRA_END; extraType = readByte()) {
+          if (extraType == EXTRA_ISLAND) {
+            bc.encodeVarBits(3); // 3 = island component
+            bc.encodeNoisyNumber(islandBits.getNext(), 5); // bit-count using look-ahead fifo
+            long b0 = bc.getWritingBitPosition();
+            bc.encodeNoisyDiff(readInt() - ilon, 10); // anchorLon
+            bc.encodeNoisyDiff(readInt() - ilat, 10); // anchorLat
+            islandBits.add((int) (bc.getWritingBitPosition() - b0));
+            continue;
+          }
           short exceptions = readShort(); // except bikes, psv, ...
           if (exceptions != 0) {
             bc.encodeVarBits(2); // 2 = tr exceptions
@@ -1,7 +1,9 @@
 package btools.router;
 
 import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 
 public class FormatCsv extends Formatter {
 
@@ -14,24 +16,28 @@ public class FormatCsv extends Formatter {
   public String format(OsmTrack t) {
     try {
       StringWriter sw = new StringWriter();
-      BufferedWriter bw = new BufferedWriter(sw);
-      writeMessages(bw, t);
+      format(t, sw);
       return sw.toString();
     } catch (Exception ex) {
       return "Error: " + ex.getMessage();
     }
   }
 
-  public void writeMessages(BufferedWriter bw, OsmTrack t) throws Exception {
-    dumpLine(bw, MESSAGES_HEADER);
+  @Override
+  public void format(OsmTrack t, Writer w) throws IOException {
+    dumpLine(w, MESSAGES_HEADER);
     for (String m : t.aggregateMessages()) {
-      dumpLine(bw, m);
+      dumpLine(w, m);
     }
+  }
+
+  public void writeMessages(BufferedWriter bw, OsmTrack t) throws Exception {
+    format(t, bw);
     if (bw != null)
       bw.close();
   }
 
-  private void dumpLine(BufferedWriter bw, String s) throws Exception {
+  private void dumpLine(Writer bw, String s) throws IOException {
     if (bw == null) {
       System.out.println(s);
     } else {
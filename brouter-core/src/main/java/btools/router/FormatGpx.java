@@ -7,6 +7,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Map;
 
 import btools.mapaccess.MatchedWaypoint;
@@ -18,19 +19,11 @@ public class FormatGpx extends Formatter {
   }
 
   @Override
-  public String format(OsmTrack t) {
-    try {
-      StringWriter sw = new StringWriter(8192);
-      BufferedWriter bw = new BufferedWriter(sw);
-      formatAsGpx(bw, t);
-      bw.close();
-      return sw.toString();
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
+  public void format(OsmTrack t, Writer w) throws IOException {
+    formatAsGpx(w, t);
   }
 
-  public String formatAsGpx(BufferedWriter sb, OsmTrack t) throws IOException {
+  public void formatAsGpx(Writer sb, OsmTrack t) throws IOException {
     int turnInstructionMode = t.voiceHints != null ? t.voiceHints.turnInstructionMode : 0;
 
     sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
@@ -469,8 +462,6 @@ public class FormatGpx extends Formatter {
     sb.append("  </trkseg>\n");
     sb.append(" </trk>\n");
     sb.append("</gpx>\n");
-
-    return sb.toString();
   }
 
   public String formatAsWaypoint(OsmNodeNamed n) {
@@ -488,7 +479,7 @@ public class FormatGpx extends Formatter {
     }
   }
 
-  public void formatGpxHeader(BufferedWriter sb) throws IOException {
+  public void formatGpxHeader(Writer sb) throws IOException {
     sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
     sb.append("<gpx \n");
     sb.append(" xmlns=\"http://www.topografix.com/GPX/1/1\" \n");
@@ -497,11 +488,11 @@ public class FormatGpx extends Formatter {
     sb.append(" creator=\"BRouter-" + OsmTrack.version + "\" version=\"1.1\">\n");
   }
 
-  public void formatGpxFooter(BufferedWriter sb) throws IOException {
+  public void formatGpxFooter(Writer sb) throws IOException {
     sb.append("</gpx>\n");
   }
 
-  public void formatWaypointGpx(BufferedWriter sb, OsmNodeNamed n, String type) throws IOException {
+  public void formatWaypointGpx(Writer sb, OsmNodeNamed n, String type) throws IOException {
     sb.append(" <wpt lon=\"").append(formatILon(n.ilon)).append("\" lat=\"")
       .append(formatILat(n.ilat)).append("\">");
     if (n.getSElev() != Short.MIN_VALUE) {
@@ -519,7 +510,7 @@ public class FormatGpx extends Formatter {
     sb.append("</wpt>\n");
   }
 
-  public void formatWaypointGpx(BufferedWriter sb, MatchedWaypoint wp, String type) throws IOException {
+  public void formatWaypointGpx(Writer sb, MatchedWaypoint wp, String type) throws IOException {
     sb.append(" <wpt lon=\"").append(formatILon(wp.waypoint.ilon)).append("\" lat=\"")
       .append(formatILat(wp.waypoint.ilat)).append("\">");
     if (wp.waypoint.getSElev() != Short.MIN_VALUE) {
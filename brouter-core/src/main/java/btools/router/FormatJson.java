@@ -1,13 +1,16 @@
 package btools.router;
 
 import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.List;
 import java.util.Locale;
 
 import btools.mapaccess.MatchedWaypoint;
+import btools.mapaccess.OsmNode;
 import btools.util.StringUtils;
 
 public class FormatJson extends Formatter {
@@ -17,11 +20,9 @@ public class FormatJson extends Formatter {
   }
 
   @Override
-  public String format(OsmTrack t) {
+  public void format(OsmTrack t, Writer sb) throws IOException {
     int turnInstructionMode = t.voiceHints != null ? t.voiceHints.turnInstructionMode : 0;
 
-    StringBuilder sb = new StringBuilder(8192);
-
     sb.append("{\n");
     sb.append("  \"type\": \"FeatureCollection\",\n");
     sb.append("  \"features\": [\n");
@@ -30,31 +31,31 @@ public class FormatJson extends Formatter {
     sb.append("      \"properties\": {\n");
     sb.append("        \"creator\": \"BRouter-" + t.version + "\",\n");
     sb.append("        \"name\": \"").append(t.name).append("\",\n");
-    sb.append("        \"track-length\": \"").append(t.distance).append("\",\n");
-    sb.append("        \"filtered ascend\": \"").append(t.ascend).append("\",\n");
-    sb.append("        \"plain-ascend\": \"").append(t.plainAscend).append("\",\n");
-    sb.append("        \"total-time\": \"").append(t.getTotalSeconds()).append("\",\n");
-    sb.append("        \"total-energy\": \"").append(t.energy).append("\",\n");
-    sb.append("        \"cost\": \"").append(t.cost).append("\",\n");
+    sb.append("        \"track-length\": \"").append(String.valueOf(t.distance)).append("\",\n");
+    sb.append("        \"filtered ascend\": \"").append(String.valueOf(t.ascend)).append("\",\n");
+    sb.append("        \"plain-ascend\": \"").append(String.valueOf(t.plainAscend)).append("\",\n");
+    sb.append("        \"total-time\": \"").append(String.valueOf(t.getTotalSeconds())).append("\",\n");
+    sb.append("        \"total-energy\": \"").append(String.valueOf(t.energy)).append("\",\n");
+    sb.append("        \"cost\": \"").append(String.valueOf(t.cost)).append("\",\n");
     if (t.voiceHints != null && !t.voiceHints.list.isEmpty()) {
       sb.append("        \"voicehints\": [\n");
-      for (VoiceHint hint : t.voiceHints.list) {
-        sb.append("          [");
-        sb.append(hint.indexInTrack);
-        sb.append(',').append(getJsonCommandIndex(hint.cmd, turnInstructionMode));
-        sb.append(',').append(hint.getExitNumber());
-        sb.append(',').append(hint.distanceToNext);
-        sb.append(',').append((int) hint.angle);
+      for (int i = 0; i < t.voiceHints.list.size(); i++) {
+        VoiceHint hint = t.voiceHints.list.get(i);
+        sb.append(i > 0 ? ",\n          [" : "          [");
+        sb.append(String.valueOf(hint.indexInTrack));
+        sb.append(',').append(String.valueOf(getJsonCommandIndex(hint.cmd, turnInstructionMode)));
+        sb.append(',').append(String.valueOf(hint.getExitNumber()));
+        sb.append(',').append(String.valueOf(hint.distanceToNext));
+        sb.append(',').append(String.valueOf((int) hint.angle));
 
         // not always include geometry because longer and only needed for comment style
         if (turnInstructionMode == 4 || turnInstructionMode == 9) { // comment style
           sb.append(",\"").append(hint.formatGeometry()).append("\"");
         }
 
-        sb.append("],\n");
+        sb.append("]");
       }
-      sb.deleteCharAt(sb.lastIndexOf(","));
-      sb.append("        ],\n");
+      sb.append("\n        ],\n");
     }
     if (t.showSpeedProfile) { // set in profile
       List<String> sp = t.aggregateSpeedProfile();
@@ -69,35 +70,32 @@ public class FormatJson extends Formatter {
     //  ... traditional message list
     {
       sb.append("        \"messages\": [\n");
-      sb.append("          [\"").append(MESSAGES_HEADER.replaceAll("\t", "\", \"")).append("\"],\n");
+      sb.append("          [\"").append(MESSAGES_HEADER.replaceAll("\t", "\", \"")).append("\"]");
       for (String m : t.aggregateMessages()) {
-        sb.append("          [\"").append(m.replaceAll("\t", "\", \"")).append("\"],\n");
+        sb.append(",\n          [\"").append(m.replaceAll("\t", "\", \"")).append("\"]");
       }
-      sb.deleteCharAt(sb.lastIndexOf(","));
-      sb.append("        ],\n");
+      sb.append("\n        ]");
     }
 
     if (t.getTotalSeconds() > 0) {
-      sb.append("        \"times\": [");
+      sb.append(",\n        \"times\": [");
       DecimalFormat decimalFormat = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
       decimalFormat.applyPattern("0.###");
-      for (OsmPathElement n : t.nodes) {
-        sb.append(decimalFormat.format(n.getTime())).append(",");
+      for (int i = 0; i < t.nodes.size(); i++) {
+        sb.append(i > 0 ? "," : "").append(decimalFormat.format(t.nodes.get(i).getTime()));
       }
-      sb.deleteCharAt(sb.lastIndexOf(","));
       sb.append("]\n");
     } else {
-      sb.deleteCharAt(sb.lastIndexOf(","));
+      sb.append("\n");
     }
 
     sb.append("      },\n");
 
     if (t.iternity != null) {
       sb.append("      \"iternity\": [\n");
-      for (String s : t.iternity) {
-        sb.append("        \"").append(s).append("\",\n");
+      for (int i = 0; i < t.iternity.size(); i++) {
+        sb.append("        \"").append(t.iternity.get(i)).append(i < t.iternity.size() - 1 ? "\",\n" : "\"\n");
       }
-      sb.deleteCharAt(sb.lastIndexOf(","));
       sb.append("        ],\n");
     }
     sb.append("      \"geometry\": {\n");
@@ -118,13 +116,12 @@ public class FormatJson extends Formatter {
         }
         sele = ", " + (((int) (speed * 10)) / 10.f);
       }
-      sb.append("          [").append(formatILon(n.getILon())).append(", ").append(formatILat(n.getILat()))
-        .append(sele).append("],\n");
+      sb.append(nn == null ? "          [" : ",\n          [").append(formatILon(n.getILon())).append(", ").append(formatILat(n.getILat()))
+        .append(sele).append("]");
       nn = n;
     }
-    sb.deleteCharAt(sb.lastIndexOf(","));
 
-    sb.append("        ]\n");
+    sb.append("\n        ]\n");
     sb.append("      }\n");
     if (t.exportWaypoints || t.exportCorrectedWaypoints || !t.pois.isEmpty()) {
       sb.append("    },\n");
@@ -175,11 +172,9 @@ public class FormatJson extends Formatter {
     }
     sb.append("  ]\n");
     sb.append("}\n");
-
-    return sb.toString();
   }
 
-  private void addFeature(StringBuilder sb, String type, String name, int ilat, int ilon, short selev) {
+  private void addFeature(Writer sb, String type, String name, int ilat, int ilon, short selev) throws IOException {
     sb.append("    {\n");
     sb.append("      \"type\": \"Feature\",\n");
     sb.append("      \"properties\": {\n");
@@ -196,6 +191,171 @@ public class FormatJson extends Formatter {
     sb.append("    }");
   }
 
+  public String formatAsMatrix(RouteMatrix m) {
+    StringBuilder sb = new StringBuilder(8192);
+    sb.append("{\n");
+    sb.append("  \"type\": \"Matrix\",\n");
+    sb.append("  \"creator\": \"BRouter-" + OsmTrack.version + "\",\n");
+    addMatrixPositions(sb, "sources", m.sources);
+    addMatrixPositions(sb, "targets", m.targets);
+    addMatrixValues(sb, "cost", m.cost);
+    sb.append(",\n");
+    addMatrixValues(sb, "distance", m.distance);
+    sb.append(",\n");
+    addMatrixValues(sb, "time", m.time);
+    sb.append("\n}\n");
+    return sb.toString();
+  }
+
+  private void addMatrixPositions(StringBuilder sb, String name, List<OsmNodeNamed> positions) {
+    sb.append("  \"").append(name).append("\": [");
+    for (int i = 0; i < positions.size(); i++) {
+      OsmNodeNamed n = positions.get(i);
+      sb.append(i > 0 ? ", [" : "[").append(formatILon(n.ilon)).append(", ").append(formatILat(n.ilat)).append(']');
+    }
+    sb.append("],\n");
+  }
+
+  private void addMatrixValues(StringBuilder sb, String name, int[][] values) {
+    sb.append("  \"").append(name).append("\": [\n");
+    for (int i = 0; i < values.length; i++) {
+      sb.append("    [");
+      for (int j = 0; j < values[i].length; j++) {
+        if (j > 0) {
+          sb.append(", ");
+        }
+        sb.append(values[i][j]);
+      }
+      sb.append(i < values.length - 1 ? "],\n" : "]\n");
+    }
+    sb.append("  ]");
+  }
+
+  /**
+   * Snap result: the input points, the snapped positions (null if no way
+   * in range) and the snap distances in meters (-1 if not snapped)
+   */
+  public String formatAsSnap(List<MatchedWaypoint> mwps) {
+    StringBuilder sb = new StringBuilder(64 * mwps.size() + 256);
+    sb.append("{\n");
+    sb.append("  \"type\": \"Snap\",\n");
+    sb.append("  \"creator\": \"BRouter-" + OsmTrack.version + "\",\n");
+    sb.append("  \"points\": [");
+    for (int i = 0; i < mwps.size(); i++) {
+      OsmNode n = mwps.get(i).waypoint;
+      sb.append(i > 0 ? ", [" : "[").append(formatILon(n.ilon)).append(", ").append(formatILat(n.ilat)).append(']');
+    }
+    sb.append("],\n");
+    sb.append("  \"snapped\": [");
+    for (int i = 0; i < mwps.size(); i++) {
+      OsmNode n = mwps.get(i).crosspoint;
+      sb.append(i > 0 ? ", " : "");
+      if (n == null) {
+        sb.append("null");
+      } else {
+        sb.append('[').append(formatILon(n.ilon)).append(", ").append(formatILat(n.ilat)).append(']');
+      }
+    }
+    sb.append("],\n");
+    sb.append("  \"distance\": [");
+    for (int i = 0; i < mwps.size(); i++) {
+      MatchedWaypoint mwp = mwps.get(i);
+      sb.append(i > 0 ? ", " : "").append(mwp.crosspoint == null ? "-1" : String.valueOf(Math.round(mwp.radius * 10.) / 10.));
+    }
+    sb.append("]\n}\n");
+    return sb.toString();
+  }
+
+  /**
+   * Format the reached area of an isochrone search, as one
+   * MultiPolygon per limit or as a single grid feature
+   */
+  public String formatAsIsochrone(IsochroneGrid grid, int[] limits, String type, boolean asGrid) {
+    String unit = "time".equals(type) ? "s" : ("distance".equals(type) ? "m" : "cost");
+    StringBuilder sb = new StringBuilder(8192);
+    sb.append("{\n");
+    sb.append("  \"type\": \"FeatureCollection\",\n");
+    sb.append("  \"features\": [\n");
+    if (asGrid) {
+      addIsochroneGrid(sb, grid, unit);
+    } else {
+      for (int i = 0; i < limits.length; i++) {
+        addIsochronePolygons(sb, grid.getPolygons(limits[i]), limits[i], unit);
+        sb.append(i < limits.length - 1 ? ",\n" : "\n");
+      }
+    }
+    sb.append("  ]\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private void addIsochronePolygons(StringBuilder sb, List<List<int[]>> polygons, int limit, String unit) {
+    sb.append("    {\n");
+    sb.append("      \"type\": \"Feature\",\n");
+    sb.append("      \"properties\": {\n");
+    sb.append("        \"creator\": \"BRouter-" + OsmTrack.version + "\",\n");
+    sb.append("        \"type\": \"isochrone\",\n");
+    sb.append("        \"limit\": ").append(limit).append(",\n");
+    sb.append("        \"unit\": \"").append(unit).append("\"\n");
+    sb.append("      },\n");
+    sb.append("      \"geometry\": {\n");
+    sb.append("        \"type\": \"MultiPolygon\",\n");
+    sb.append("        \"coordinates\": [");
+    for (int p = 0; p < polygons.size(); p++) {
+      sb.append(p > 0 ? ",\n          [" : "\n          [");
+      List<int[]> rings = polygons.get(p);
+      for (int r = 0; r < rings.size(); r++) {
+        int[] ring = rings.get(r);
+        sb.append(r > 0 ? ", [" : "[");
+        for (int i = 0; i < ring.length; i += 2) {
+          sb.append(i > 0 ? ", [" : "[").append(formatILon(ring[i])).append(", ").append(formatILat(ring[i + 1])).append(']');
+        }
+        sb.append(']');
+      }
+      sb.append(']');
+    }
+    sb.append(polygons.isEmpty() ? "]\n" : "\n        ]\n");
+    sb.append("      }\n");
+    sb.append("    }");
+  }
+
+  private void addIsochroneGrid(StringBuilder sb, IsochroneGrid grid, String unit) {
+    int w = grid.getWidth();
+    int h = grid.getHeight();
+    String west = formatILon(grid.getILon(0));
+    String east = formatILon(grid.getILon(w));
+    String south = formatILat(grid.getILat(0));
+    String north = formatILat(grid.getILat(h));
+    sb.append("    {\n");
+    sb.append("      \"type\": \"Feature\",\n");
+    sb.append("      \"properties\": {\n");
+    sb.append("        \"creator\": \"BRouter-" + OsmTrack.version + "\",\n");
+    sb.append("        \"type\": \"isochrone-grid\",\n");
+    sb.append("        \"unit\": \"").append(unit).append("\",\n");
+    sb.append("        \"cellSize\": ").append(grid.cellSize).append(",\n");
+    sb.append("        \"columns\": ").append(w).append(",\n");
+    sb.append("        \"rows\": ").append(h).append(",\n");
+    sb.append("        \"values\": [");
+    for (int row = 0; row < h; row++) { // from south to north
+      sb.append(row > 0 ? ",\n          [" : "\n          [");
+      for (int col = 0; col < w; col++) {
+        if (col > 0) {
+          sb.append(',');
+        }
+        sb.append(grid.getValue(col, row));
+      }
+      sb.append(']');
+    }
+    sb.append(h > 0 ? "\n        ]\n" : "]\n");
+    sb.append("      },\n");
+    sb.append("      \"geometry\": {\n");
+    sb.append("        \"type\": \"Polygon\",\n");
+    sb.append("        \"coordinates\": [[[" + west + ", " + south + "], [" + east + ", " + south + "], ["
+      + east + ", " + north + "], [" + west + ", " + north + "], [" + west + ", " + south + "]]]\n");
+    sb.append("      }\n");
+    sb.append("    }\n");
+  }
+
   public String formatAsWaypoint(OsmNodeNamed n) {
     try {
       StringWriter sw = new StringWriter(8192);
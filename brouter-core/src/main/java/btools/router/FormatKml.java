@@ -1,5 +1,7 @@
 package btools.router;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,9 +14,7 @@ public class FormatKml extends Formatter {
   }
 
   @Override
-  public String format(OsmTrack t) {
-    StringBuilder sb = new StringBuilder(8192);
-
+  public void format(OsmTrack t, Writer sb) throws IOException {
     sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
 
     sb.append("<kml xmlns=\"http://earth.google.com/kml/2.0\">\n");
@@ -79,11 +79,9 @@ public class FormatKml extends Formatter {
     }
     sb.append("  </Document>\n");
     sb.append("</kml>\n");
-
-    return sb.toString();
   }
 
-  private void createFolder(StringBuilder sb, String type, List<MatchedWaypoint> waypoints) {
+  private void createFolder(Writer sb, String type, List<MatchedWaypoint> waypoints) throws IOException {
     sb.append("    <Folder>\n");
     sb.append("      <name>" + type + "</name>\n");
     for (int i = 0; i < waypoints.size(); i++) {
@@ -93,7 +91,7 @@ public class FormatKml extends Formatter {
     sb.append("    </Folder>\n");
   }
 
-  private void createViaFolder(StringBuilder sb, String type, List<OsmNodeNamed> waypoints) {
+  private void createViaFolder(Writer sb, String type, List<OsmNodeNamed> waypoints) throws IOException {
     if (waypoints.isEmpty()) return;
     sb.append("    <Folder>\n");
     sb.append("      <name>" + type + "</name>\n");
@@ -104,7 +102,7 @@ public class FormatKml extends Formatter {
     sb.append("    </Folder>\n");
   }
 
-  private void createPlaceMark(StringBuilder sb, String name, int ilat, int ilon) {
+  private void createPlaceMark(Writer sb, String name, int ilat, int ilon) throws IOException {
     sb.append("      <Placemark>\n");
     sb.append("        <name>" + StringUtils.escapeXml10(name) + "</name>\n");
     sb.append("        <Point>\n");
@@ -2,6 +2,9 @@ package btools.router;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -48,7 +51,7 @@ public abstract class Formatter {
    */
   public void write(String filename, OsmTrack t) throws Exception {
     BufferedWriter bw = new BufferedWriter(new FileWriter(filename));
-    bw.write(format(t));
+    format(t, bw);
     bw.close();
   }
 
@@ -62,7 +65,25 @@ public abstract class Formatter {
    * @param t the track to format
    * @return the formatted string
    */
-  public abstract String format(OsmTrack t);
+  public String format(OsmTrack t) {
+    try {
+      StringWriter sw = new StringWriter(8192);
+      format(t, sw);
+      return sw.toString();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * writes the track in a selected output format to a writer, without
+   * building the whole document in memory. The output is the same as
+   * from format(OsmTrack).
+   *
+   * @param t the track to format
+   * @param w the writer, not flushed or closed here
+   */
+  public abstract void format(OsmTrack t, Writer w) throws IOException;
 
 
   static String formatILon(int ilon) {
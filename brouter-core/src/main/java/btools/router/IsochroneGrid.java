@@ -0,0 +1,342 @@
+package btools.router;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import btools.util.CheapRuler;
+
+/**
+ * Raster of the values (time, distance or cost) reached by an isochrone search
+ * <p>
+ * The cells are squares of the given size in meters (at least MIN_CELL_SIZE),
+ * aligned to the start position, and the grid grows as needed up to MAX_CELLS.
+ * Each cell holds the minimum value reached within it, -1 if not reached.
+ */
+public final class IsochroneGrid {
+  private static final int[] DX = {1, 0, -1, 0}; // directions east, north, west, south
+  private static final int[] DY = {0, 1, 0, -1};
+
+  public static final int MIN_CELL_SIZE = 10; // meters
+  public static final int MAX_CELLS = 4 * 1024 * 1024;
+
+  private final int ilon0;
+  private final int ilat0;
+  public final int cellSize;
+  public final int cellLon; // cell width in micro-degrees
+  public final int cellLat; // cell height in micro-degrees
+
+  private int minX = -32;
+  private int minY = -32;
+  private int width = 64;
+  private int height = 64;
+  private int[] values;
+
+  // the bounds of the reached cells
+  private int usedMinX = Integer.MAX_VALUE;
+  private int usedMinY = Integer.MAX_VALUE;
+  private int usedMaxX = Integer.MIN_VALUE;
+  private int usedMaxY = Integer.MIN_VALUE;
+
+  public IsochroneGrid(int ilon, int ilat, int cellSize) {
+    this.ilon0 = ilon;
+    this.ilat0 = ilat;
+    this.cellSize = Math.max(MIN_CELL_SIZE, cellSize);
+    double[] scales = CheapRuler.getLonLatToMeterScales(ilat);
+    cellLon = Math.max(1, (int) (this.cellSize / scales[0] + 0.5));
+    cellLat = Math.max(1, (int) (this.cellSize / scales[1] + 0.5));
+    values = new int[width * height];
+    Arrays.fill(values, -1);
+  }
+
+  /**
+   * Mark the cell containing the given position as reached with the given value,
+   * if that is below the value already stored
+   */
+  public void set(int ilon, int ilat, int value) {
+    int x = Math.floorDiv(ilon - ilon0, cellLon);
+    int y = Math.floorDiv(ilat - ilat0, cellLat);
+    if (x < minX || y < minY || x >= minX + width || y >= minY + height) {
+      grow(x, y);
+    }
+    int idx = (y - minY) * width + x - minX;
+    if (values[idx] < 0 || value < values[idx]) {
+      values[idx] = value;
+    }
+    usedMinX = Math.min(usedMinX, x);
+    usedMinY = Math.min(usedMinY, y);
+    usedMaxX = Math.max(usedMaxX, x);
+    usedMaxY = Math.max(usedMaxY, y);
+  }
+
+  private void grow(int x, int y) {
+    int newMinX = minX;
+    int newMinY = minY;
+    int newWidth = width;
+    int newHeight = height;
+    while (x < newMinX) {
+      checkSize(2L * newWidth, newHeight);
+      newMinX -= newWidth;
+      newWidth *= 2;
+    }
+    while (x >= newMinX + newWidth) {
+      checkSize(2L * newWidth, newHeight);
+      newWidth *= 2;
+    }
+    while (y < newMinY) {
+      checkSize(newWidth, 2L * newHeight);
+      newMinY -= newHeight;
+      newHeight *= 2;
+    }
+    while (y >= newMinY + newHeight) {
+      checkSize(newWidth, 2L * newHeight);
+      newHeight *= 2;
+    }
+    int[] newValues = new int[newWidth * newHeight];
+    Arrays.fill(newValues, -1);
+    for (int row = 0; row < height; row++) {
+      System.arraycopy(values, row * width, newValues, (row + minY - newMinY) * newWidth + minX - newMinX, width);
+    }
+    values = newValues;
+    minX = newMinX;
+    minY = newMinY;
+    width = newWidth;
+    height = newHeight;
+  }
+
+  private void checkSize(long newWidth, long newHeight) {
+    if (newWidth * newHeight > MAX_CELLS) {
+      throw new IllegalArgumentException("isochrone area exceeds " + MAX_CELLS + " cells of " + cellSize + "m, use a larger isochroneCellSize");
+    }
+  }
+
+  public boolean isEmpty() {
+    return usedMinX > usedMaxX;
+  }
+
+  /**
+   * @return the number of columns of the reached area
+   */
+  public int getWidth() {
+    return isEmpty() ? 0 : usedMaxX - usedMinX + 1;
+  }
+
+  /**
+   * @return the number of rows of the reached area
+   */
+  public int getHeight() {
+    return isEmpty() ? 0 : usedMaxY - usedMinY + 1;
+  }
+
+  /**
+   * @return the value of a cell of the reached area, counted from the south-west corner, or -1
+   */
+  public int getValue(int col, int row) {
+    if (col < 0 || row < 0 || col >= getWidth() || row >= getHeight()) {
+      return -1;
+    }
+    return values[(row + usedMinY - minY) * width + col + usedMinX - minX];
+  }
+
+  /**
+   * @return the value of the cell containing the given position, or -1
+   */
+  public int getValueAt(int ilon, int ilat) {
+    if (isEmpty()) {
+      return -1;
+    }
+    return getValue(Math.floorDiv(ilon - ilon0, cellLon) - usedMinX, Math.floorDiv(ilat - ilat0, cellLat) - usedMinY);
+  }
+
+  /**
+   * @return the longitude of the western edge of a column of the reached area
+   */
+  public int getILon(int col) {
+    return ilon0 + (usedMinX + col) * cellLon;
+  }
+
+  /**
+   * @return the latitude of the southern edge of a row of the reached area
+   */
+  public int getILat(int row) {
+    return ilat0 + (usedMinY + row) * cellLat;
+  }
+
+  private boolean isWithin(int col, int row, int limit) {
+    int v = getValue(col, row);
+    return v >= 0 && v <= limit;
+  }
+
+  /**
+   * Trace the outlines of the cells with a value up to the given limit.
+   * <p>
+   * Cells touching only at a corner belong to different polygons.
+   *
+   * @return the polygons, each a list of rings (the outer ring first, then the holes)
+   * with alternating lon/lat values, outer rings counter-clockwise, holes clockwise
+   */
+  public List<List<int[]>> getPolygons(int limit) {
+    int w = getWidth();
+    int h = getHeight();
+    int[] component = labelComponents(limit);
+
+    // the boundary edges, with the cell within the limit on the left,
+    // at most two outgoing edges per corner
+    int cw = w + 1;
+    int[] edges = new int[cw * (h + 1) * 2];
+    Arrays.fill(edges, -1);
+    for (int row = 0; row < h; row++) {
+      for (int col = 0; col < w; col++) {
+        if (isWithin(col, row, limit)) {
+          if (!isWithin(col, row - 1, limit)) addEdge(edges, row * cw + col, 0);
+          if (!isWithin(col + 1, row, limit)) addEdge(edges, row * cw + col + 1, 1);
+          if (!isWithin(col, row + 1, limit)) addEdge(edges, (row + 1) * cw + col + 1, 2);
+          if (!isWithin(col - 1, row, limit)) addEdge(edges, (row + 1) * cw + col, 3);
+        }
+      }
+    }
+
+    List<List<int[]>> polygons = new ArrayList<>();
+    int[] polygonOfComponent = new int[w * h + 1];
+    Arrays.fill(polygonOfComponent, -1);
+    List<int[]> holes = new ArrayList<>();
+    List<Integer> holeComponents = new ArrayList<>();
+    boolean[] used = new boolean[edges.length];
+    for (int e = 0; e < edges.length; e++) {
+      if (edges[e] < 0 || used[e]) {
+        continue;
+      }
+      // the component of the cell left of the first edge
+      int corner = e >> 1;
+      int dir = edges[e];
+      int leftCol = corner % cw - (dir == 1 || dir == 2 ? 1 : 0);
+      int leftRow = corner / cw - (dir == 2 || dir == 3 ? 1 : 0);
+      int label = component[leftRow * w + leftCol];
+
+      int[] ring = traceRing(edges, used, e, cw);
+      if (ringArea(ring) > 0) {
+        List<int[]> polygon = new ArrayList<>();
+        polygon.add(toLonLat(ring));
+        polygons.add(polygon);
+        if (polygonOfComponent[label] < 0) {
+          polygonOfComponent[label] = polygons.size() - 1;
+        }
+      } else {
+        holes.add(toLonLat(ring));
+        holeComponents.add(label);
+      }
+    }
+    for (int i = 0; i < holes.size(); i++) {
+      int polygon = polygonOfComponent[holeComponents.get(i)];
+      if (polygon >= 0) {
+        polygons.get(polygon).add(holes.get(i));
+      }
+    }
+    return polygons;
+  }
+
+  private static void addEdge(int[] edges, int corner, int dir) {
+    edges[edges[2 * corner] < 0 ? 2 * corner : 2 * corner + 1] = dir;
+  }
+
+  /**
+   * Follow the edges from the given one until the ring is closed, turning
+   * left where two edges leave a corner
+   *
+   * @return the corners of the ring where the direction changes, as x/y pairs
+   */
+  private static int[] traceRing(int[] edges, boolean[] used, int startEdge, int cw) {
+    List<Integer> corners = new ArrayList<>();
+    int edge = startEdge;
+    int lastDir = -1;
+    for (; ; ) {
+      used[edge] = true;
+      int corner = edge >> 1;
+      int dir = edges[edge];
+      if (dir != lastDir) {
+        corners.add(corner);
+      }
+      lastDir = dir;
+      int next = corner + DX[dir] + DY[dir] * cw;
+      edge = -1;
+      for (int turn : new int[]{1, 0, 3}) {
+        int d = (dir + turn) & 3;
+        if (edges[2 * next] == d) {
+          edge = 2 * next;
+          break;
+        }
+        if (edges[2 * next + 1] == d) {
+          edge = 2 * next + 1;
+          break;
+        }
+      }
+      if (used[edge]) {
+        if (edges[edge] == lastDir) { // the start is not a vertex
+          corners.remove(0);
+        }
+        break;
+      }
+    }
+    int[] ring = new int[2 * corners.size()];
+    for (int i = 0; i < corners.size(); i++) {
+      ring[2 * i] = corners.get(i) % cw;
+      ring[2 * i + 1] = corners.get(i) / cw;
+    }
+    return ring;
+  }
+
+  private static long ringArea(int[] ring) {
+    long area = 0;
+    int n = ring.length / 2;
+    for (int i = 0; i < n; i++) {
+      int j = (i + 1) % n;
+      area += (long) ring[2 * i] * ring[2 * j + 1] - (long) ring[2 * j] * ring[2 * i + 1];
+    }
+    return area;
+  }
+
+  private int[] toLonLat(int[] ring) {
+    int[] lonLat = new int[ring.length + 2];
+    for (int i = 0; i < ring.length; i += 2) {
+      lonLat[i] = getILon(ring[i]);
+      lonLat[i + 1] = getILat(ring[i + 1]);
+    }
+    lonLat[ring.length] = lonLat[0]; // closed
+    lonLat[ring.length + 1] = lonLat[1];
+    return lonLat;
+  }
+
+  /**
+   * Label the 4-connected components of the cells within the limit
+   */
+  private int[] labelComponents(int limit) {
+    int w = getWidth();
+    int h = getHeight();
+    int[] component = new int[w * h];
+    int[] stack = new int[w * h];
+    int label = 0;
+    for (int start = 0; start < component.length; start++) {
+      if (component[start] != 0 || !isWithin(start % w, start / w, limit)) {
+        continue;
+      }
+      label++;
+      int sp = 0;
+      stack[sp++] = start;
+      component[start] = label;
+      while (sp > 0) {
+        int cell = stack[--sp];
+        int col = cell % w;
+        int row = cell / w;
+        for (int dir = 0; dir < 4; dir++) {
+          int c = col + DX[dir];
+          int r = row + DY[dir];
+          if (isWithin(c, r, limit) && component[r * w + c] == 0) {
+            component[r * w + c] = label;
+            stack[sp++] = r * w + c;
+          }
+        }
+      }
+    }
+    return component;
+  }
+}
@@ -24,6 +24,8 @@ abstract class OsmPath implements OsmLinkHolder {
 
   public int airdistance = 0; // distance to endpos
 
+  public int distance = 0; // length of the path in meters
+
   protected OsmNode sourceNode;
   protected OsmNode targetNode;
 
@@ -68,6 +70,35 @@ abstract class OsmPath implements OsmLinkHolder {
 
   public MessageData message;
 
+  // set when this path can no longer be reached from its link
+  boolean detached;
+
+  /**
+   * Reset to the state of a new instance, for re-use by the OsmPathPool
+   */
+  void reset() {
+    cost = 0;
+    selev = 0;
+    airdistance = 0;
+    distance = 0;
+    sourceNode = null;
+    targetNode = null;
+    link = null;
+    originElement = null;
+    myElement = null;
+    nextForLink = null;
+    treedepth = 0;
+    originLon = 0;
+    originLat = 0;
+    lastClassifier = 0.f;
+    lastInitialCost = 0.f;
+    priorityclassifier = 0;
+    bitfield = PATH_START_BIT;
+    message = null;
+    detached = false;
+    resetState();
+  }
+
   public void init(OsmLink link) {
     this.link = link;
     targetNode = link.getTarget(null);
@@ -86,6 +117,7 @@ abstract class OsmPath implements OsmLinkHolder {
     this.sourceNode = origin.targetNode;
     this.targetNode = link.getTarget(sourceNode);
     this.cost = origin.cost;
+    this.distance = origin.distance;
     this.lastClassifier = origin.lastClassifier;
     this.lastInitialCost = origin.lastInitialCost;
     this.bitfield = origin.bitfield;
@@ -245,6 +277,7 @@ abstract class OsmPath implements OsmLinkHolder {
         } else {
           // we just start here, reset everything
           cost = 0;
+          distance = 0;
           resetState();
           lon0 = -1; // reset turncost-pipe
           lat0 = -1;
@@ -313,6 +346,7 @@ abstract class OsmPath implements OsmLinkHolder {
       }
 
       cost += (int) sectionCost;
+      distance += dist;
 
       // compute kinematic
       computeKinematic(rc, dist, delta_h, detailMode);
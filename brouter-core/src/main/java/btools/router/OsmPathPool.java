@@ -0,0 +1,50 @@
+/**
+ * Pool of path instances, to re-use the paths that a search
+ * has dropped instead of allocating a new one for each link
+ */
+package btools.router;
+
+final class OsmPathPool {
+  private static final int MAX_SIZE = 32768;
+
+  private final RoutingContext rc;
+  private OsmPath[] free = new OsmPath[256];
+  private int size;
+
+  long allocated;
+  long reused;
+
+  OsmPathPool(RoutingContext rc) {
+    this.rc = rc;
+  }
+
+  OsmPath get() {
+    if (size > 0) {
+      OsmPath p = free[--size];
+      free[size] = null;
+      reused++;
+      return p;
+    }
+    allocated++;
+    return rc.pm.createPath();
+  }
+
+  /**
+   * Return a path that is no longer referenced by the search
+   *
+   * @return false if the pool is full
+   */
+  boolean recycle(OsmPath p) {
+    if (size == MAX_SIZE) {
+      return false;
+    }
+    p.reset();
+    if (size == free.length) {
+      OsmPath[] a = new OsmPath[2 * size];
+      System.arraycopy(free, 0, a, 0, size);
+      free = a;
+    }
+    free[size++] = p;
+    return true;
+  }
+}
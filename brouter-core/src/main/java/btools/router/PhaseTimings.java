@@ -0,0 +1,90 @@
+package btools.router;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Wall time, call count and links processed of the phases of a request
+ * (profile, match, island checks, search passes, voicehints, format, ...)
+ * <p>
+ * Phases entered more than once add up. The phases of parallel legs are
+ * merged, so their sum can exceed the wall time of the request.
+ */
+public final class PhaseTimings {
+  private static final class Phase {
+    long nanos;
+    int count;
+    int links;
+  }
+
+  private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+  public void add(String name, long nanos) {
+    add(name, nanos, 1, 0);
+  }
+
+  public void add(String name, long nanos, int count, int links) {
+    Phase p = phases.computeIfAbsent(name, k -> new Phase());
+    p.nanos += nanos;
+    p.count += count;
+    p.links += links;
+  }
+
+  public void merge(PhaseTimings other) {
+    for (Map.Entry<String, Phase> e : other.phases.entrySet()) {
+      Phase p = e.getValue();
+      add(e.getKey(), p.nanos, p.count, p.links);
+    }
+  }
+
+  public Set<String> getPhases() {
+    return phases.keySet();
+  }
+
+  public long getNanos(String name) {
+    Phase p = phases.get(name);
+    return p == null ? 0L : p.nanos;
+  }
+
+  public int getCount(String name) {
+    Phase p = phases.get(name);
+    return p == null ? 0 : p.count;
+  }
+
+  public int getLinks(String name) {
+    Phase p = phases.get(name);
+    return p == null ? 0 : p.links;
+  }
+
+  /**
+   * @return the value of a Server-Timing http header, e.g. "profile;dur=0.85, pass0;dur=12.3"
+   */
+  public String formatServerTiming() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Phase> e : phases.entrySet()) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(e.getKey()).append(";dur=").append(toMillis(e.getValue().nanos));
+    }
+    return sb.toString();
+  }
+
+  private static double toMillis(long nanos) {
+    return Math.round(nanos / 10000.) / 100.;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Phase> e : phases.entrySet()) {
+      Phase p = e.getValue();
+      sb.append(sb.length() == 0 ? "" : " ").append(e.getKey()).append('=').append(toMillis(p.nanos)).append("ms/").append(p.count);
+      if (p.links > 0) {
+        sb.append('/').append(p.links).append("links");
+      }
+    }
+    return sb.toString();
+  }
+}
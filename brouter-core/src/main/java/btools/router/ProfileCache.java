@@ -1,11 +1,22 @@
 /**
  * Container for routig configs
+ * <p>
+ * Parsed profiles are cached per (profile-file, timestamp/keyvalue-checksum).
+ * Each entry holds the parsed (compiled) way/node-contexts, which are shared
+ * read-only by all threads, and a pool of idle evaluators created from them.
+ * Lookup and release do not need a global lock, and parsing is done outside
+ * any lock.
  *
  * @author ab
  */
 package btools.router;
 
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import btools.expressions.BExpressionContextNode;
 import btools.expressions.BExpressionContextWay;
@@ -13,130 +24,234 @@ import btools.expressions.BExpressionMetaData;
 
 public final class ProfileCache {
 
-  private static File lastLookupFile;
-  private static long lastLookupTimestamp;
+  private static volatile File lastLookupFile;
+  private static volatile long lastLookupTimestamp;
 
-  private BExpressionContextWay expctxWay;
-  private BExpressionContextNode expctxNode;
-  private File lastProfileFile;
-  private long lastProfileTimestamp;
-  private boolean profilesBusy;
-  private long lastUseTime;
+  private static final class ContextPair {
+    final BExpressionContextWay expctxWay;
+    final BExpressionContextNode expctxNode;
+
+    ContextPair(BExpressionContextWay expctxWay, BExpressionContextNode expctxNode) {
+      this.expctxWay = expctxWay;
+      this.expctxNode = expctxNode;
+    }
+  }
+
+  private static final class Key {
+    final String profilePath;
+    final long profileTimestamp;
+
+    Key(File profileFile, long profileTimestamp) {
+      this.profilePath = profileFile.getAbsolutePath();
+      this.profileTimestamp = profileTimestamp;
+    }
+
+    @Override
+    public int hashCode() {
+      return profilePath.hashCode() ^ (int) (profileTimestamp ^ (profileTimestamp >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return profileTimestamp == k.profileTimestamp && profilePath.equals(k.profilePath);
+    }
+  }
+
+  private final Key key;
+  private final ContextPair compiled;
+  private final ConcurrentLinkedQueue<ContextPair> idleContexts = new ConcurrentLinkedQueue<>();
+  private volatile long lastUseTime;
+
+  private static final Map<Key, ProfileCache> templates = new ConcurrentHashMap<>();
+  private static final AtomicInteger idleCount = new AtomicInteger();
+  private static volatile int maxIdle = 1;
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
 
-  private static ProfileCache[] apc = new ProfileCache[1];
   private static boolean debug = Boolean.getBoolean("debugProfileCache");
 
-  public static synchronized void setSize(int size) {
-    apc = new ProfileCache[size];
+  private ProfileCache(Key key, ContextPair compiled) {
+    this.key = key;
+    this.compiled = compiled;
+  }
+
+  /**
+   * @param size the max. number of idle evaluators and of parsed profiles kept
+   */
+  public static void setSize(int size) {
+    maxIdle = size;
+    clear();
   }
 
-  public static synchronized boolean parseProfile(RoutingContext rc) {
+  private static File getProfileDir(String localFunction) {
     String profileBaseDir = System.getProperty("profileBaseDir");
-    File profileDir;
-    File profileFile;
-    if (profileBaseDir == null) {
-      profileDir = new File(rc.localFunction).getParentFile();
-      profileFile = new File(rc.localFunction);
-    } else {
-      profileDir = new File(profileBaseDir);
-      profileFile = new File(profileDir, rc.localFunction + ".brf");
-    }
+    return profileBaseDir == null ? new File(localFunction).getParentFile() : new File(profileBaseDir);
+  }
+
+  private static File getProfileFile(String localFunction) {
+    String profileBaseDir = System.getProperty("profileBaseDir");
+    return profileBaseDir == null ? new File(localFunction) : new File(getProfileDir(localFunction), localFunction + ".brf");
+  }
+
+  /**
+   * @return the modification times of the profile file and the lookup table
+   * a routing context with that localFunction is parsed from, they change if
+   * any of these files changes
+   */
+  public static String getFileTimestamps(String localFunction) {
+    return getProfileFile(localFunction).lastModified() + "/" + new File(getProfileDir(localFunction), "lookups.dat").lastModified();
+  }
+
+  public static boolean parseProfile(RoutingContext rc) {
+    File profileDir = getProfileDir(rc.localFunction);
+    File profileFile = getProfileFile(rc.localFunction);
 
     rc.profileTimestamp = profileFile.lastModified() + rc.getKeyValueChecksum() << 24;
     File lookupFile = new File(profileDir, "lookups.dat");
 
     // invalidate cache at lookup-table update
-    if (!(lookupFile.equals(lastLookupFile) && lookupFile.lastModified() == lastLookupTimestamp)) {
-      if (lastLookupFile != null) {
-        System.out.println("******** invalidating profile-cache after lookup-file update ******** ");
+    checkLookupFile(lookupFile);
+
+    Key key = new Key(profileFile, rc.profileTimestamp);
+    ProfileCache pc = templates.get(key);
+    boolean cached = pc != null;
+    if (cached) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      pc = new ProfileCache(key, compileProfile(profileFile, lookupFile, rc));
+      ProfileCache existing = templates.putIfAbsent(key, pc);
+      if (existing != null) {
+        pc = existing; // parsed concurrently by another thread
+      } else {
+        if (debug)
+          System.out.println("******* adding new profile for " + profileFile);
+        evictTemplates();
       }
-      apc = new ProfileCache[apc.length];
-      lastLookupFile = lookupFile;
-      lastLookupTimestamp = lookupFile.lastModified();
     }
+    pc.lastUseTime = System.currentTimeMillis();
 
-    ProfileCache lru = null;
-    int unusedSlot = -1;
-
-    // check for re-use
-    for (int i = 0; i < apc.length; i++) {
-      ProfileCache pc = apc[i];
-
-      if (pc != null) {
-        if ((!pc.profilesBusy) && profileFile.equals(pc.lastProfileFile)) {
-          if (rc.profileTimestamp == pc.lastProfileTimestamp) {
-            rc.expctxWay = pc.expctxWay;
-            rc.expctxNode = pc.expctxNode;
-            rc.readGlobalConfig();
-            pc.profilesBusy = true;
-            return true;
-          }
-          lru = pc; // name-match but timestamp-mismatch -> we overide this one
-          unusedSlot = -1;
-          break;
-        }
-        if (lru == null || lru.lastUseTime > pc.lastUseTime) {
-          lru = pc;
-        }
-      } else if (unusedSlot < 0) {
-        unusedSlot = i;
-      }
+    ContextPair cp = pc.idleContexts.poll();
+    if (cp != null) {
+      idleCount.decrementAndGet();
+    } else {
+      cp = pc.createEvaluators();
     }
+    rc.expctxWay = cp.expctxWay;
+    rc.expctxNode = cp.expctxNode;
+    rc.profileCache = pc;
+    rc.readGlobalConfig();
+    return cached;
+  }
 
+  private static ContextPair compileProfile(File profileFile, File lookupFile, RoutingContext rc) {
     BExpressionMetaData meta = new BExpressionMetaData();
 
-    rc.expctxWay = new BExpressionContextWay(rc.memoryclass * 512, meta);
-    rc.expctxNode = new BExpressionContextNode(0, meta);
-    rc.expctxNode.setForeignContext(rc.expctxWay);
+    BExpressionContextWay expctxWay = new BExpressionContextWay(rc.memoryclass * 512, meta);
+    BExpressionContextNode expctxNode = new BExpressionContextNode(0, meta);
+    expctxNode.setForeignContext(expctxWay);
 
-    meta.readMetaData(new File(profileDir, "lookups.dat"));
+    meta.readMetaData(lookupFile);
 
-    rc.expctxWay.parseFile(profileFile, "global", rc.keyValues);
-    rc.expctxNode.parseFile(profileFile, "global", rc.keyValues);
-
-    rc.readGlobalConfig();
+    expctxWay.parseFile(profileFile, "global", rc.keyValues);
+    expctxNode.parseFile(profileFile, "global", rc.keyValues);
 
-    if (rc.processUnusedTags) {
-      rc.expctxWay.setAllTagsUsed();
+    // process tags not used in the profile (to have them in the data-tab)
+    if (0.f != expctxWay.getVariableValue("processUnusedTags", 0.f)) {
+      expctxWay.setAllTagsUsed();
     }
+    return new ContextPair(expctxWay, expctxNode);
+  }
 
-    if (lru == null || unusedSlot >= 0) {
-      lru = new ProfileCache();
-      if (unusedSlot >= 0) {
-        apc[unusedSlot] = lru;
-        if (debug)
-          System.out.println("******* adding new profile at idx=" + unusedSlot + " for " + profileFile);
+  private ContextPair createEvaluators() {
+    BExpressionContextWay expctxWay = new BExpressionContextWay(compiled.expctxWay);
+    BExpressionContextNode expctxNode = new BExpressionContextNode(compiled.expctxNode);
+    expctxNode.setForeignContext(expctxWay);
+    return new ContextPair(expctxWay, expctxNode);
+  }
+
+  public static void releaseProfile(RoutingContext rc) {
+    ProfileCache pc = rc.profileCache;
+    if (pc != null && rc.expctxWay != null && templates.get(pc.key) == pc) {
+      if (idleCount.incrementAndGet() <= maxIdle) {
+        ContextPair cp = new ContextPair(rc.expctxWay, rc.expctxNode);
+        pc.idleContexts.offer(cp);
+        if (templates.get(pc.key) != pc && pc.idleContexts.remove(cp)) {
+          idleCount.decrementAndGet(); // template was removed meanwhile
+        }
+      } else {
+        idleCount.decrementAndGet();
       }
     }
+    rc.profileCache = null;
+    rc.expctxWay = null;
+    rc.expctxNode = null;
+  }
 
-    if (lru.lastProfileFile != null) {
-      if (debug)
-        System.out.println("******* replacing profile of age " + ((System.currentTimeMillis() - lru.lastUseTime) / 1000L) + " sec " + lru.lastProfileFile + "->" + profileFile);
+  private static void checkLookupFile(File lookupFile) {
+    long lookupTimestamp = lookupFile.lastModified();
+    if (lookupFile.equals(lastLookupFile) && lookupTimestamp == lastLookupTimestamp) {
+      return;
     }
+    synchronized (templates) {
+      if (lookupFile.equals(lastLookupFile) && lookupTimestamp == lastLookupTimestamp) {
+        return;
+      }
+      if (lastLookupFile != null) {
+        System.out.println("******** invalidating profile-cache after lookup-file update ******** ");
+      }
+      clear();
+      lastLookupFile = lookupFile;
+      lastLookupTimestamp = lookupTimestamp;
+    }
+  }
 
-    lru.lastProfileTimestamp = rc.profileTimestamp;
-    lru.lastProfileFile = profileFile;
-    lru.expctxWay = rc.expctxWay;
-    lru.expctxNode = rc.expctxNode;
-    lru.profilesBusy = true;
-    lru.lastUseTime = System.currentTimeMillis();
-    return false;
+  private static void clear() {
+    for (ProfileCache pc : templates.values()) {
+      removeTemplate(pc);
+    }
   }
 
-  public static synchronized void releaseProfile(RoutingContext rc) {
-    for (int i = 0; i < apc.length; i++) {
-      ProfileCache pc = apc[i];
+  private static void removeTemplate(ProfileCache pc) {
+    if (templates.remove(pc.key, pc)) {
+      while (pc.idleContexts.poll() != null) {
+        idleCount.decrementAndGet();
+      }
+    }
+  }
 
-      if (pc != null) {
-        // only the thread that holds the cached instance can release it
-        if (rc.expctxWay == pc.expctxWay && rc.expctxNode == pc.expctxNode) {
-          pc.profilesBusy = false;
-          break;
+  // keep at most maxIdle templates, dropping the least recently used ones
+  private static void evictTemplates() {
+    while (templates.size() > Math.max(maxIdle, 1)) {
+      ProfileCache lru = null;
+      for (ProfileCache pc : templates.values()) {
+        if (lru == null || pc.lastUseTime < lru.lastUseTime) {
+          lru = pc;
         }
       }
+      if (lru == null) {
+        break;
+      }
+      if (debug)
+        System.out.println("******* dropping profile of age " + ((System.currentTimeMillis() - lru.lastUseTime) / 1000L) + " sec " + lru.key.profilePath);
+      removeTemplate(lru);
     }
-    rc.expctxWay = null;
-    rc.expctxNode = null;
   }
 
+  public static long getHits() {
+    return hits.get();
+  }
+
+  public static long getMisses() {
+    return misses.get();
+  }
+
+  public static String formatStatus() {
+    return "profiles=" + templates.size() + " idle=" + idleCount.get() + " hits=" + hits.get() + " misses=" + misses.get();
+  }
 }
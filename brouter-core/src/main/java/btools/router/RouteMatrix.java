@@ -0,0 +1,39 @@
+package btools.router;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Result of a matrix request: cost, distance (meters) and time (seconds)
+ * from each source (row) to each target (column)
+ * <p>
+ * Unreachable targets have the value -1.
+ */
+public final class RouteMatrix {
+  public final List<OsmNodeNamed> sources;
+  public final List<OsmNodeNamed> targets;
+
+  public final int[][] cost;
+  public final int[][] distance;
+  public final int[][] time;
+
+  public RouteMatrix(List<OsmNodeNamed> sources, List<OsmNodeNamed> targets) {
+    this.sources = sources;
+    this.targets = targets;
+    cost = newMatrix(sources.size(), targets.size());
+    distance = newMatrix(sources.size(), targets.size());
+    time = newMatrix(sources.size(), targets.size());
+  }
+
+  private static int[][] newMatrix(int rows, int cols) {
+    int[][] m = new int[rows][cols];
+    for (int[] row : m) {
+      Arrays.fill(row, -1);
+    }
+    return m;
+  }
+
+  public boolean isReachable(int row, int col) {
+    return cost[row][col] >= 0;
+  }
+}
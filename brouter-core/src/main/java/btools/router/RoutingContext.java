@@ -32,6 +32,7 @@ public final class RoutingContext {
   public int alternativeIdx = 0;
   public String localFunction;
   public long profileTimestamp;
+  ProfileCache profileCache; // the cache entry the expression contexts are released to
 
   public Map<String, String> keyValues;
 
@@ -61,6 +62,13 @@ public final class RoutingContext {
   public boolean forceSecondaryData;
   public double pass1coefficient;
   public double pass2coefficient;
+  public boolean bidirectionalSearch;
+  public boolean useOverlay;
+  public int overlayMinDistance;
+  public boolean pathPooling;
+  final OsmPathPool pathPool = new OsmPathPool(this);
+  public int openSetType;
+  public boolean parallelLegs;
   public int elevationpenaltybuffer;
   public int elevationmaxbuffer;
   public int elevationbufferreduce;
@@ -156,6 +164,12 @@ public final class RoutingContext {
     forceSecondaryData = 0.f != expctxGlobal.getVariableValue("forceSecondaryData", 0.f);
     pass1coefficient = expctxGlobal.getVariableValue("pass1coefficient", 1.5f);
     pass2coefficient = expctxGlobal.getVariableValue("pass2coefficient", 0.f);
+    bidirectionalSearch = 0.f != expctxGlobal.getVariableValue("bidirectionalSearch", 0.f);
+    useOverlay = 0.f != expctxGlobal.getVariableValue("useOverlay", 0.f);
+    overlayMinDistance = (int) expctxGlobal.getVariableValue("overlayMinDistance", 20000.f);
+    pathPooling = 0.f != expctxGlobal.getVariableValue("pathPooling", 0.f);
+    openSetType = (int) expctxGlobal.getVariableValue("openSetType", 0.f);
+    parallelLegs = 0.f != expctxGlobal.getVariableValue("parallelLegs", 0.f);
     elevationpenaltybuffer = (int) (expctxGlobal.getVariableValue("elevationpenaltybuffer", 5.f) * 1000000);
     elevationmaxbuffer = (int) (expctxGlobal.getVariableValue("elevationmaxbuffer", 10.f) * 1000000);
     elevationbufferreduce = (int) (expctxGlobal.getVariableValue("elevationbufferreduce", 0.f) * 10000);
@@ -212,6 +226,15 @@ public final class RoutingContext {
 
   public List<OsmNodeNamed> poipoints;
 
+  public List<OsmNodeNamed> matrixTargets; // targets of a matrix request, null for the waypoints
+
+  public int[] isochroneLimits; // budgets of an isochrone request, in the unit of isochroneType
+  public String isochroneType = "time"; // time (seconds), distance (meters) or cost
+  public int isochroneCellSize = 100; // grid resolution in meters
+  public boolean isochroneGrid; // return the grid instead of polygons
+
+  public boolean computeTimeInSearch; // compute the travel time also outside of detail mode
+
   public List<OsmNodeNamed> nogopoints = null;
   private List<OsmNodeNamed> nogopoints_all = null; // full list not filtered for wayoints-in-nogos
   private List<OsmNodeNamed> keepnogopoints = null;
@@ -308,6 +331,20 @@ public final class RoutingContext {
     nogopoints = nogopoints_all;
   }
 
+  /**
+   * Copy the request settings that are not taken from the profile
+   * to the context of a leg routed by another engine
+   */
+  void copyRequestSettings(RoutingContext rc) {
+    rc.nogopoints = nogopoints == null ? null : new ArrayList<>(nogopoints);
+    rc.poipoints = poipoints;
+    rc.startDirection = startDirection;
+    rc.forceUseStartDirection = forceUseStartDirection;
+    rc.allowSamewayback = allowSamewayback;
+    rc.turnInstructionMode = turnInstructionMode;
+    rc.hasDirectRouting = hasDirectRouting;
+  }
+
   /**
    * clean the nogolist (previoulsy saved by saveFullNogolist())
    * by removing nogos with waypoints within
@@ -565,13 +602,13 @@ public final class RoutingContext {
   }
 
   public OsmPath createPath(OsmLink link) {
-    OsmPath p = pm.createPath();
+    OsmPath p = pathPool.get();
     p.init(link);
     return p;
   }
 
   public OsmPath createPath(OsmPath origin, OsmLink link, OsmTrack refTrack, boolean detailMode) {
-    OsmPath p = pm.createPath();
+    OsmPath p = pathPool.get();
     p.init(origin, link, refTrack, detailMode, this);
     return p;
   }
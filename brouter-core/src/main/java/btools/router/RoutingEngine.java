@@ -7,14 +7,21 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import btools.mapaccess.MatchedWaypoint;
 import btools.mapaccess.NodesCache;
@@ -23,9 +30,13 @@ import btools.mapaccess.OsmLinkHolder;
 import btools.mapaccess.OsmNode;
 import btools.mapaccess.OsmNodePairSet;
 import btools.mapaccess.OsmPos;
+import btools.mapaccess.OverlayGraph;
 import btools.util.CheapAngleMeter;
 import btools.util.CheapRuler;
 import btools.util.CompactLongMap;
+import btools.util.IntPriorityQueue;
+import btools.util.OpenLongMap;
+import btools.util.RadixHeap;
 import btools.util.SortedHeap;
 import btools.util.StackSampler;
 
@@ -36,15 +47,21 @@ public class RoutingEngine extends Thread {
   public final static int BROUTER_ENGINEMODE_GETELEV = 2;
   public final static int BROUTER_ENGINEMODE_GETINFO = 3;
   public final static int BROUTER_ENGINEMODE_ROUNDTRIP = 4;
+  public final static int BROUTER_ENGINEMODE_MATRIX = 5;
+  public final static int BROUTER_ENGINEMODE_ISOCHRONE = 6;
+  public final static int BROUTER_ENGINEMODE_SNAP = 7;
 
   private NodesCache nodesCache;
-  private SortedHeap<OsmPath> openSet = new SortedHeap<>();
+  private IntPriorityQueue<OsmPath> openSet;
   private boolean finished = false;
 
   protected List<OsmNodeNamed> waypoints = null;
   List<OsmNodeNamed> extraWaypoints = null;
   protected List<MatchedWaypoint> matchedWaypoints;
   private int linksProcessed = 0;
+  private int memoryPanics = 0;
+  private Map<String, Integer> linksProcessedPerPass = new LinkedHashMap<>();
+  private final PhaseTimings phaseTimings = new PhaseTimings();
 
   private int nodeLimit; // used for target island search
   private int MAXNODES_ISLAND_CHECK = 500;
@@ -59,14 +76,20 @@ public class RoutingEngine extends Thread {
 
   private int MAX_DYNAMIC_RANGE = 60000;
 
+  private int MAX_OVERLAY_ACCESS_NODES = 8;
+  private int MAX_OVERLAY_ACCESS_VISITS = 200000;
+
   protected OsmTrack foundTrack = new OsmTrack();
   private OsmTrack foundRawTrack = null;
+  private RouteMatrix foundMatrix = null;
+  private IsochroneGrid foundIsochrone = null;
   private int alternativeIndex = 0;
 
   protected String outputMessage = null;
   protected String errorMessage = null;
 
   private volatile boolean terminated;
+  private boolean timedOut; // a search exceeded maxRunningTime
 
   protected File segmentDir;
   private String outfileBase;
@@ -92,6 +115,10 @@ public class RoutingEngine extends Thread {
   private Object[] extract;
 
   private boolean directWeaving = !Boolean.getBoolean("disableDirectWeaving");
+
+  // worker pool for the legs (or matrix rows) routed in parallel, size configured via -DlegThreads=<n>
+  private static ExecutorService legExecutor;
+  private volatile RoutingEngine[] legEngines;
   private String outfile;
 
   public RoutingEngine(String outfileBase, String logfileBase, File segmentDir,
@@ -130,11 +157,23 @@ public class RoutingEngine extends Thread {
         logInfo("********** started stacksampling");
       }
     }
+    long profileStart = System.nanoTime();
     boolean cachedProfile = ProfileCache.parseProfile(rc);
+    phaseTimings.add(cachedProfile ? "profile-cached" : "profile", System.nanoTime() - profileStart);
     if (hasInfo()) {
       logInfo("parsed profile " + rc.localFunction + " cached=" + cachedProfile);
     }
+    openSet = createOpenSet();
+
+  }
 
+  /**
+   * Create the open set of a search, as selected by the profile's openSetType
+   * <p>
+   * Called from the constructor, after the profile is parsed
+   */
+  protected <V> IntPriorityQueue<V> createOpenSet() {
+    return routingContext.openSetType == 1 ? new RadixHeap<>() : new SortedHeap<>();
   }
 
   private boolean hasInfo() {
@@ -190,6 +229,21 @@ public class RoutingEngine extends Thread {
           throw new IllegalArgumentException("we need one lat/lon point at least!");
         doRoundTrip();
         break;
+      case BROUTER_ENGINEMODE_MATRIX:
+        if (waypoints.size() < 1)
+          throw new IllegalArgumentException("we need one lat/lon point at least!");
+        doMatrix(maxRunningTime);
+        break;
+      case BROUTER_ENGINEMODE_ISOCHRONE:
+        if (waypoints.size() < 1)
+          throw new IllegalArgumentException("we need one lat/lon point at least!");
+        doIsochrone(maxRunningTime);
+        break;
+      case BROUTER_ENGINEMODE_SNAP:
+        if (waypoints.size() < 1)
+          throw new IllegalArgumentException("we need one lat/lon point at least!");
+        doSnap();
+        break;
       default:
         throw new IllegalArgumentException("not a valid engine mode");
     }
@@ -265,6 +319,7 @@ public class RoutingEngine extends Thread {
           track.exportWaypoints = routingContext.exportWaypoints;
           track.exportCorrectedWaypoints = routingContext.exportCorrectedWaypoints;
           filename = outfileBase + i + "." + routingContext.outputFormat;
+          long formatStart = System.nanoTime();
           switch (routingContext.outputFormat) {
             case "gpx":
               outputMessage = new FormatGpx(routingContext).format(track);
@@ -281,6 +336,7 @@ public class RoutingEngine extends Thread {
               outputMessage = null;
               break;
           }
+          phaseTimings.add("format", System.nanoTime() - formatStart);
           if (outputMessage != null) {
             File out = new File(filename);
             FileWriter fw = new FileWriter(filename);
@@ -315,6 +371,8 @@ public class RoutingEngine extends Thread {
       }
       long endTime = System.currentTimeMillis();
       logInfo("execution time = " + (endTime - startTime0) / 1000. + " seconds");
+      logInfo("links processed per pass = " + linksProcessedPerPass);
+      logInfo("phase timings = " + phaseTimings);
     } catch (IllegalArgumentException e) {
       logException(e);
     } catch (Exception e) {
@@ -520,186 +578,914 @@ public class RoutingEngine extends Thread {
 
   }
 
-  void buildPointsFromCircle(List<OsmNodeNamed> waypoints, double startAngle, double searchRadius, int points) {
-    //startAngle -= 90;
-    for (int i = 1; i < points; i++) {
-      double anAngle = 90 - (180.0 * i / points);
-      int[] pos = CheapRuler.destination(waypoints.get(0).ilon, waypoints.get(0).ilat, searchRadius, startAngle - anAngle);
-      OsmNodeNamed onn = new OsmNodeNamed(new OsmNode(pos[0], pos[1]));
-      onn.name = "rt" + i;
-      waypoints.add(onn);
-    }
+  /**
+   * Compute the cost, distance and time from each waypoint (the sources)
+   * to each of the matrix targets, or to each waypoint if no targets are given.
+   * <p>
+   * All points are matched once. Each row is a single search from its source
+   * that runs until all targets are settled, the rows are distributed over
+   * the worker pool. Points that cannot be matched are just unreachable.
+   */
+  public void doMatrix(long maxRunningTime) {
+    try {
+      startTime = System.currentTimeMillis();
+      this.maxRunningTime = maxRunningTime;
 
-    OsmNodeNamed onn = new OsmNodeNamed(waypoints.get(0));
-    onn.name = "to_rt";
-    waypoints.add(onn);
-  }
+      List<OsmNodeNamed> targets = routingContext.matrixTargets != null ? routingContext.matrixTargets : waypoints;
+      List<MatchedWaypoint> sourceWps = createMatchedWaypoints(waypoints);
+      List<MatchedWaypoint> targetWps = createMatchedWaypoints(targets);
+      List<MatchedWaypoint> allWps = new ArrayList<>(sourceWps);
+      allWps.addAll(targetWps);
+      long matchStart = System.nanoTime();
+      resetCache(false);
+      nodesCache.matchWaypointsToNodes(allWps, routingContext.waypointCatchingRange, islandNodePairs);
+      phaseTimings.add("match", System.nanoTime() - matchStart);
+      for (MatchedWaypoint mwp : allWps) {
+        if (mwp.crosspoint == null) {
+          logInfo(mwp.name + "-position not mapped in existing datafile");
+        }
+      }
 
-  int getRandomDirectionFromData(OsmNodeNamed wp, double searchRadius) {
+      RouteMatrix matrix = new RouteMatrix(waypoints, targets);
+      searchMatrix(sourceWps, targetWps, matrix);
+      foundMatrix = matrix;
 
-    long start = System.currentTimeMillis();
+      long formatStart = System.nanoTime();
+      outputMessage = new FormatJson(routingContext).formatAsMatrix(matrix);
+      phaseTimings.add("format", System.nanoTime() - formatStart);
+      if (outfileBase != null) {
+        String filename = outfileBase + ".json";
+        FileWriter fw = new FileWriter(filename);
+        fw.write(outputMessage);
+        fw.close();
+        outputMessage = null;
+      } else if (!quite) {
+        System.out.println(outputMessage);
+      }
 
-    int preferredRandomType = 0;
-    boolean consider_elevation = routingContext.expctxWay.getVariableValue("consider_elevation", 0f) == 1f;
-    boolean consider_forest = routingContext.expctxWay.getVariableValue("consider_forest", 0f) == 1f;
-    boolean consider_river = routingContext.expctxWay.getVariableValue("consider_river", 0f) == 1f;
-    if (consider_elevation) {
-      preferredRandomType = AreaInfo.RESULT_TYPE_ELEV50;
-    } else if (consider_forest) {
-      preferredRandomType = AreaInfo.RESULT_TYPE_GREEN;
-    } else if (consider_river) {
-      preferredRandomType = AreaInfo.RESULT_TYPE_RIVER;
-    } else {
-      return (int) (Math.random()*360);
+      long endTime = System.currentTimeMillis();
+      logInfo("matrix " + sourceWps.size() + "x" + targetWps.size() + " execution time = " + (endTime - startTime) / 1000. + " seconds");
+      logInfo("links processed per pass = " + linksProcessedPerPass);
+      logInfo("phase timings = " + phaseTimings);
+    } catch (IllegalArgumentException e) {
+      logException(e);
+    } catch (Exception e) {
+      logException(e);
+      logThrowable(e);
+    } finally {
+      releaseResources();
+      finished = true;
     }
+  }
 
-    MatchedWaypoint wpt1 = new MatchedWaypoint();
-    wpt1.waypoint = wp;
-    wpt1.name = "info";
-    wpt1.radius = searchRadius * 1.5;
+  /**
+   * Snap each waypoint to the nearest way allowed by the profile within the
+   * waypoint catching range, e.g. to clean up a gps trace.
+   * <p>
+   * All points are matched together, so each tile is decoded once per request
+   * and each way segment is checked only against the points near to it.
+   * Points without a way in range are not snapped.
+   */
+  public void doSnap() {
+    try {
+      startTime = System.currentTimeMillis();
 
-    List<AreaInfo> ais = new ArrayList<>();
-    AreaReader areareader = new AreaReader();
-    if (routingContext.rawAreaPath != null) {
-      File fai = new File(routingContext.rawAreaPath);
-      if (fai.exists()) {
-        areareader.readAreaInfo(fai, wpt1, ais);
+      List<MatchedWaypoint> mwps = createMatchedWaypoints(waypoints);
+      long matchStart = System.nanoTime();
+      resetCache(false);
+      nodesCache.matchWaypointsToNodes(mwps, routingContext.waypointCatchingRange, islandNodePairs);
+      phaseTimings.add("match", System.nanoTime() - matchStart);
+      matchedWaypoints = mwps;
+
+      long formatStart = System.nanoTime();
+      outputMessage = new FormatJson(routingContext).formatAsSnap(mwps);
+      phaseTimings.add("format", System.nanoTime() - formatStart);
+      if (outfileBase != null) {
+        String filename = outfileBase + ".json";
+        FileWriter fw = new FileWriter(filename);
+        fw.write(outputMessage);
+        fw.close();
+        outputMessage = null;
+      } else if (!quite) {
+        System.out.println(outputMessage);
+      }
+
+      int snapped = 0;
+      for (MatchedWaypoint mwp : mwps) {
+        if (mwp.crosspoint != null) {
+          snapped++;
+        }
       }
+      long endTime = System.currentTimeMillis();
+      logInfo("snapped " + snapped + " of " + mwps.size() + " points, execution time = " + (endTime - startTime) / 1000. + " seconds");
+      logInfo("phase timings = " + phaseTimings);
+    } catch (IllegalArgumentException e) {
+      logException(e);
+    } catch (Exception e) {
+      logException(e);
+      logThrowable(e);
+    } finally {
+      releaseResources();
+      finished = true;
     }
+  }
 
-    if (ais.isEmpty()) {
-      List<MatchedWaypoint> listStart = new ArrayList<>();
-      listStart.add(wpt1);
+  private List<MatchedWaypoint> createMatchedWaypoints(List<OsmNodeNamed> points) {
+    List<MatchedWaypoint> mwps = new ArrayList<>(points.size());
+    for (OsmNodeNamed wp : points) {
+      MatchedWaypoint mwp = new MatchedWaypoint();
+      mwp.waypoint = wp;
+      mwp.name = wp.name;
+      mwps.add(mwp);
+    }
+    return mwps;
+  }
 
-      List<OsmNodeNamed> wpliststart = new ArrayList<>();
-      wpliststart.add(wp);
+  private void searchMatrix(List<MatchedWaypoint> sourceWps, List<MatchedWaypoint> targetWps, RouteMatrix matrix) {
+    int nEngines = Math.min(getLegThreads(), sourceWps.size());
+    if (nEngines < 2) {
+      searchMatrixRows(0, 1, sourceWps, targetWps, matrix);
+      return;
+    }
+    logInfo("searching " + sourceWps.size() + " matrix rows in parallel");
+    RoutingEngine[] engines = new RoutingEngine[nEngines];
+    List<Future<?>> futures = new ArrayList<>(nEngines);
+    legEngines = engines;
+    try {
+      for (int i = 0; i < nEngines; i++) {
+        int firstRow = i;
+        RoutingEngine re = createLegEngine();
+        engines[i] = re;
+        futures.add(getLegExecutor().submit(() -> {
+          try {
+            re.searchMatrixRows(firstRow, nEngines, sourceWps, targetWps, matrix);
+          } finally {
+            re.releaseResources();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalArgumentException("interrupted while searching the matrix");
+    } catch (ExecutionException e) {
+      for (RoutingEngine re : engines) {
+        if (re != null) {
+          timedOut |= re.timedOut;
+          re.terminate();
+        }
+      }
+      if (e.getCause() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      legEngines = null;
+    }
+    for (RoutingEngine re : engines) {
+      linksProcessed += re.linksProcessed;
+      memoryPanics += re.memoryPanics;
+      re.linksProcessedPerPass.forEach((pass, links) -> linksProcessedPerPass.merge(pass, links, Integer::sum));
+      phaseTimings.merge(re.phaseTimings);
+    }
+  }
 
-      List<OsmNodeNamed> listOne = new ArrayList<>();
+  private void searchMatrixRows(int firstRow, int rowStep, List<MatchedWaypoint> sourceWps, List<MatchedWaypoint> targetWps, RouteMatrix matrix) {
+    for (int row = firstRow; row < sourceWps.size(); row += rowStep) {
+      searchMatrixRow(row, sourceWps.get(row), targetWps, matrix);
+    }
+  }
 
-      for (int a = 45; a < 360; a += 90) {
-        int[] pos = CheapRuler.destination(wp.ilon, wp.ilat, searchRadius * 1.5, a);
-        OsmNodeNamed onn = new OsmNodeNamed(new OsmNode(pos[0], pos[1]));
-        onn.name = "via" + a;
-        listOne.add(onn);
+  /**
+   * Fill one row of the matrix: a single search settles all targets, then
+   * the found tracks are re-tracked in detail mode like a route, to get
+   * the exact distance and time (if that fails, the search values are kept)
+   */
+  private void searchMatrixRow(int row, MatchedWaypoint source, List<MatchedWaypoint> targetWps, RouteMatrix matrix) {
+    if (source.crosspoint == null) {
+      return;
+    }
+    OsmTrack[] tracks = new OsmTrack[targetWps.size()];
+    List<OsmNode> wpts = new ArrayList<>();
+    wpts.add(source.waypoint);
+    for (MatchedWaypoint target : targetWps) {
+      wpts.add(target.waypoint);
+    }
+    routingContext.cleanNogoList(wpts);
+    routingContext.inverseDirection = false;
+    airDistanceCostFactor = 0.;
+    lastAirDistanceCostFactor = 0.;
+    int linksBefore = linksProcessed;
+    long phaseStart = System.nanoTime();
+    try {
+      resetCache(false);
+      nodesCache.nodesMap.cleanupMode = 0; // keep dead ends, they may hold targets
+      searchMatrixTargets(source, targetWps, tracks);
+    } finally {
+      routingContext.restoreNogoList();
+      nodesCache.clean(false);
+      recordPhase("matrix-search", phaseStart, linksBefore);
+    }
 
-        MatchedWaypoint wpt = new MatchedWaypoint();
-        wpt.waypoint = onn;
-        wpt.name = onn.name;
-        listStart.add(wpt);
+    for (int col = 0; col < tracks.length; col++) {
+      OsmTrack track = tracks[col];
+      if (track == null) {
+        continue;
       }
+      if (track.nodes.size() > 1) {
+        OsmTrack t = retrackGuide("matrix-re-tracking", source, targetWps.get(col), track, null);
+        if (t != null) {
+          track = t;
+        }
+      }
+      matrix.cost[row][col] = track.cost;
+      matrix.distance[row][col] = track.distance;
+      matrix.time[row][col] = track.getTotalSeconds();
+    }
+  }
 
-      RoutingEngine re = null;
-      RoutingContext rc = new RoutingContext();
-      String name = routingContext.localFunction;
-      int idx = name.lastIndexOf(File.separator);
-      rc.localFunction = idx == -1 ? "dummy" : name.substring(0, idx + 1) + "dummy.brf";
-
-      re = new RoutingEngine(null, null, segmentDir, wpliststart, rc, BROUTER_ENGINEMODE_ROUNDTRIP);
-      rc.useDynamicDistance = true;
-      re.matchWaypointsToNodes(listStart);
-      re.resetCache(true);
+  /**
+   * Dijkstra search from the source until all targets are settled
+   * <p>
+   * A target is reached via the link of its matched segment, the path
+   * cut at the target is put into the open set as a terminal path,
+   * the regular path on that link is still expanded.
+   */
+  private void searchMatrixTargets(MatchedWaypoint source, List<MatchedWaypoint> targetWps, OsmTrack[] tracks) {
+    // the targets by the ids of both nodes of their segment
+    OpenLongMap<List<Integer>> targetsByNode = new OpenLongMap<>();
+    OsmNodeNamed[] endPositions = new OsmNodeNamed[targetWps.size()];
+    int remaining = 0;
+    for (int col = 0; col < targetWps.size(); col++) {
+      MatchedWaypoint target = targetWps.get(col);
+      if (target.crosspoint == null || target.islandId != source.islandId) {
+        continue; // not mapped, or on another precomputed island
+      }
+      if (target.crosspoint.getIdFromPos() == source.crosspoint.getIdFromPos()) {
+        tracks[col] = new OsmTrack(); // zero cost, distance and time
+        continue;
+      }
+      endPositions[col] = new OsmNodeNamed(target.crosspoint);
+      addMatrixTarget(targetsByNode, target.node1.getIdFromPos(), col);
+      addMatrixTarget(targetsByNode, target.node2.getIdFromPos(), col);
+      remaining++;
+    }
+    if (remaining == 0) {
+      return;
+    }
 
-      int numForest = rc.expctxWay.getLookupKey("estimated_forest_class");
-      int numRiver = rc.expctxWay.getLookupKey("estimated_river_class");
+    OsmNode start1 = nodesCache.getGraphNode(source.node1);
+    OsmNode start2 = nodesCache.getGraphNode(source.node2);
+    if (!nodesCache.obtainNonHollowNode(start1)) {
+      return;
+    }
+    nodesCache.expandHollowLinkTargets(start1);
+    if (!nodesCache.obtainNonHollowNode(start2)) {
+      return;
+    }
+    nodesCache.expandHollowLinkTargets(start2);
 
-      OsmNode start1 = re.nodesCache.getStartNode(listStart.get(0).node1.getIdFromPos());
+    routingContext.startDirectionValid = false;
+    Map<OsmPath, Integer> targetPaths = new IdentityHashMap<>();
+    openSet.clear();
 
-      double elev = (start1 == null ? 0 : start1.getElev()); // listOne.get(0).crosspoint.getElev();
+    OsmPath startPath1 = getStartPath(start1, start2, source, null, false);
+    OsmPath startPath2 = getStartPath(start2, start1, source, null, false);
+    if (startPath1 != null) {
+      addToOpenset(startPath1);
+    }
+    if (startPath2 != null) {
+      addToOpenset(startPath2);
+    }
 
-      int maxlon = Integer.MIN_VALUE;
-      int minlon = Integer.MAX_VALUE;
-      int maxlat = Integer.MIN_VALUE;
-      int minlat = Integer.MAX_VALUE;
-      for (OsmNodeNamed on : listOne) {
-        maxlon = Math.max(on.ilon, maxlon);
-        minlon = Math.min(on.ilon, minlon);
-        maxlat = Math.max(on.ilat, maxlat);
-        minlat = Math.min(on.ilat, minlat);
-      }
-      OsmNogoPolygon searchRect = new OsmNogoPolygon(true);
-      searchRect.addVertex(maxlon, maxlat);
-      searchRect.addVertex(maxlon, minlat);
-      searchRect.addVertex(minlon, minlat);
-      searchRect.addVertex(minlon, maxlat);
+    // targets on the start segment are also reached without leaving it
+    for (int col : getMatrixTargets(targetsByNode, targetWps, start1.getIdFromPos(), start2.getIdFromPos())) {
+      addMatrixTargetPath(targetPaths, getSameSegmentPath(start1, start2, source, endPositions[col]), col);
+      addMatrixTargetPath(targetPaths, getSameSegmentPath(start2, start1, source, endPositions[col]), col);
+    }
 
-      for (int a = 0; a < 4; a++) {
-        rc.ai = new AreaInfo(a * 90 + 90);
-        rc.ai.elevStart = elev;
-        rc.ai.numForest = numForest;
-        rc.ai.numRiver = numRiver;
+    while (remaining > 0) {
+      checkTermination("matrix", maxRunningTime);
 
-        rc.ai.polygon = new OsmNogoPolygon(true);
-        rc.ai.polygon.addVertex(wp.ilon, wp.ilat);
-        rc.ai.polygon.addVertex(listOne.get(a).ilon, listOne.get(a).ilat);
-        if (a == 3)
-          rc.ai.polygon.addVertex(listOne.get(0).ilon, listOne.get(0).ilat);
-        else
-          rc.ai.polygon.addVertex(listOne.get(a + 1).ilon, listOne.get(a + 1).ilat);
+      OsmPath path = openSet.popLowestKeyValue();
+      if (path == null) {
+        break;
+      }
 
-        ais.add(rc.ai);
+      Integer target = targetPaths.remove(path);
+      if (target != null) {
+        if (tracks[target] == null) {
+          tracks[target] = compileTrack(path, false);
+          remaining--;
+        }
+        continue;
+      }
+      if (path.airdistance == -1) {
+        continue;
+      }
+      if (directWeaving && nodesCache.hasHollowLinkTargets(path.getTargetNode())
+        && !nodesCache.nodesMap.isInMemoryBounds(openSet.getSize(), true)) {
+        logInfo("matrix search: memory limit reached, " + remaining + " targets not reached");
+        break;
       }
 
-      int maxscale = Math.abs(searchRect.points.get(2).x - searchRect.points.get(0).x);
-      maxscale = Math.max(1, Math.round(maxscale / 31250f / 2) + 1);
+      linksProcessed++;
 
-      areareader.getDirectAllData(segmentDir, rc, wp, maxscale, rc.expctxWay, searchRect, ais);
+      OsmLink currentLink = path.getLink();
+      OsmNode sourceNode = path.getSourceNode();
+      OsmNode currentNode = path.getTargetNode();
 
-      if (routingContext.rawAreaPath != null) {
-        try {
-          wpt1.radius = searchRadius * 1.5;
-          areareader.writeAreaInfo(routingContext.rawAreaPath, wpt1, ais);
-        } catch (Exception e) {
-        }
+      if (currentLink.isLinkUnused()) {
+        continue;
       }
-      rc.ai = null;
 
-    }
+      long currentNodeId = currentNode.getIdFromPos();
 
-    logInfo("round trip execution time = " + (System.currentTimeMillis() - start) / 1000. + " seconds");
+      OsmLinkHolder firstLinkHolder = settleLink(path);
+      addPrePaths(nodesCache, path);
 
-    // for (AreaInfo ai: ais) {
-    //  System.out.println("\n" + ai.toString());
-    //}
+      for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
+        OsmNode nextNode = link.getTarget(currentNode);
+        if (!isExpandable(nodesCache, nextNode, sourceNode)) {
+          continue;
+        }
 
-    switch (preferredRandomType) {
-      case AreaInfo.RESULT_TYPE_ELEV50:
-        Collections.sort(ais, new Comparator<>() {
-          public int compare(AreaInfo o1, AreaInfo o2) {
-            return o2.getElev50Weight() - o1.getElev50Weight();
-          }
-        });
-        break;
-      case AreaInfo.RESULT_TYPE_GREEN:
-        Collections.sort(ais, new Comparator<>() {
-          public int compare(AreaInfo o1, AreaInfo o2) {
-            return o2.getGreen() - o1.getGreen();
+        OsmPath bestPath = getBestPath(firstLinkHolder, link, null, null);
+        if (bestPath != null) {
+          bestPath.airdistance = 0;
+          if (addIfNotDominated(path, bestPath, link)) {
+            addToOpenset(bestPath);
           }
-        });
-        break;
-      case AreaInfo.RESULT_TYPE_RIVER:
-        Collections.sort(ais, new Comparator<>() {
-          public int compare(AreaInfo o1, AreaInfo o2) {
-            return o2.getRiver() - o1.getRiver();
+        }
+
+        for (int col : getMatrixTargets(targetsByNode, targetWps, currentNodeId, nextNode.getIdFromPos())) {
+          if (tracks[col] == null) {
+            addMatrixTargetPath(targetPaths, getBestPath(firstLinkHolder, link, null, endPositions[col]), col);
           }
-        });
-        break;
-      default:
-        return (int) (Math.random()*360);
+        }
+      }
+      recyclePath(path);
     }
-
-    int angle = ais.get(0).direction;
-    return angle - 30 + (int) (Math.random() * 60);
   }
 
+  /**
+   * Compute the area reachable from the first waypoint within the isochrone
+   * limits (time in seconds, distance in meters or cost).
+   * <p>
+   * A single search expands all paths up to the largest limit, each link
+   * passed is rasterized into a grid holding the minimum value per cell,
+   * the output is a polygon per limit traced from that grid, or the grid itself.
+   */
+  public void doIsochrone(long maxRunningTime) {
+    try {
+      startTime = System.currentTimeMillis();
+      this.maxRunningTime = maxRunningTime;
 
+      if (routingContext.isochroneLimits == null || routingContext.isochroneLimits.length == 0) {
+        throw new IllegalArgumentException("no isochroneLimits given");
+      }
+      int[] limits = routingContext.isochroneLimits.clone();
+      Arrays.sort(limits);
+      String type = routingContext.isochroneType;
+      if (!"time".equals(type) && !"distance".equals(type) && !"cost".equals(type)) {
+        throw new IllegalArgumentException("unknown isochroneType: " + type);
+      }
 
-  private void postElevationCheck(OsmTrack track) {
-    OsmPathElement lastPt = null;
-    OsmPathElement startPt = null;
-    short lastElev = Short.MIN_VALUE;
-    short startElev = Short.MIN_VALUE;
-    short endElev = Short.MIN_VALUE;
-    int startIdx = 0;
+      List<MatchedWaypoint> startWps = createMatchedWaypoints(waypoints.subList(0, 1));
+      MatchedWaypoint startWp = startWps.get(0);
+      long matchStart = System.nanoTime();
+      resetCache(false);
+      nodesCache.matchWaypointsToNodes(startWps, routingContext.waypointCatchingRange, islandNodePairs);
+      phaseTimings.add("match", System.nanoTime() - matchStart);
+      if (startWp.crosspoint == null) {
+        throw new IllegalArgumentException(startWp.name + "-position not mapped in existing datafile");
+      }
+
+      IsochroneGrid grid = new IsochroneGrid(startWp.crosspoint.ilon, startWp.crosspoint.ilat, routingContext.isochroneCellSize);
+      List<OsmNode> wpts = new ArrayList<>();
+      wpts.add(startWp.waypoint);
+      routingContext.cleanNogoList(wpts);
+      routingContext.inverseDirection = false;
+      routingContext.computeTimeInSearch = "time".equals(type);
+      airDistanceCostFactor = 0.;
+      int linksBefore = linksProcessed;
+      long phaseStart = System.nanoTime();
+      try {
+        resetCache(false);
+        nodesCache.nodesMap.cleanupMode = 0; // dead ends are part of the area
+        searchIsochrone(startWp, grid, type, limits[limits.length - 1]);
+      } finally {
+        routingContext.restoreNogoList();
+        routingContext.computeTimeInSearch = false;
+        recordPhase("isochrone", phaseStart, linksBefore);
+      }
+      foundIsochrone = grid;
+
+      long formatStart = System.nanoTime();
+      outputMessage = new FormatJson(routingContext).formatAsIsochrone(grid, limits, type, routingContext.isochroneGrid);
+      phaseTimings.add("format", System.nanoTime() - formatStart);
+      if (outfileBase != null) {
+        String filename = outfileBase + ".geojson";
+        FileWriter fw = new FileWriter(filename);
+        fw.write(outputMessage);
+        fw.close();
+        outputMessage = null;
+      } else if (!quite) {
+        System.out.println(outputMessage);
+      }
+
+      long endTime = System.currentTimeMillis();
+      logInfo("isochrone execution time = " + (endTime - startTime) / 1000. + " seconds");
+      logInfo("links processed per pass = " + linksProcessedPerPass);
+      logInfo("phase timings = " + phaseTimings);
+    } catch (IllegalArgumentException e) {
+      logException(e);
+    } catch (Exception e) {
+      logException(e);
+      logThrowable(e);
+    } finally {
+      releaseResources();
+      finished = true;
+    }
+  }
+
+  /**
+   * Dijkstra search from the start that does not expand paths beyond the
+   * limit, the value along each link passed is written to the grid
+   */
+  private void searchIsochrone(MatchedWaypoint startWp, IsochroneGrid grid, String type, int maxLimit) {
+    OsmNode start1 = nodesCache.getGraphNode(startWp.node1);
+    OsmNode start2 = nodesCache.getGraphNode(startWp.node2);
+    if (!nodesCache.obtainNonHollowNode(start1)) {
+      return;
+    }
+    nodesCache.expandHollowLinkTargets(start1);
+    if (!nodesCache.obtainNonHollowNode(start2)) {
+      return;
+    }
+    nodesCache.expandHollowLinkTargets(start2);
+
+    routingContext.startDirectionValid = false;
+    openSet.clear();
+
+    OsmNode crosspoint = startWp.crosspoint;
+    grid.set(crosspoint.ilon, crosspoint.ilat, 0);
+    for (OsmPath startPath : new OsmPath[]{getStartPath(start1, start2, startWp, null, false), getStartPath(start2, start1, startWp, null, false)}) {
+      if (startPath == null) {
+        continue;
+      }
+      int value = getIsochroneValue(startPath, type);
+      OsmNode n = startPath.getTargetNode();
+      addIsochroneLink(grid, crosspoint.ilon, crosspoint.ilat, 0, n.ilon, n.ilat, value, maxLimit);
+      if (value <= maxLimit) {
+        addToOpenset(startPath);
+      }
+    }
+
+    for (; ; ) {
+      checkTermination("isochrone", maxRunningTime);
+
+      OsmPath path = openSet.popLowestKeyValue();
+      if (path == null) {
+        break;
+      }
+      if (path.airdistance == -1) {
+        continue;
+      }
+      if (directWeaving && nodesCache.hasHollowLinkTargets(path.getTargetNode())
+        && !nodesCache.nodesMap.isInMemoryBounds(openSet.getSize(), true)) {
+        logInfo("isochrone search: memory limit reached, area truncated");
+        break;
+      }
+
+      linksProcessed++;
+
+      OsmNode sourceNode = path.getSourceNode();
+      OsmNode currentNode = path.getTargetNode();
+
+      if (path.getLink().isLinkUnused()) {
+        continue;
+      }
+
+      OsmLinkHolder firstLinkHolder = settleLink(path);
+      addPrePaths(nodesCache, path);
+      int value = getIsochroneValue(path, type);
+
+      for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
+        OsmNode nextNode = link.getTarget(currentNode);
+        if (!isExpandable(nodesCache, nextNode, sourceNode)) {
+          continue;
+        }
+
+        OsmPath bestPath = getBestPath(firstLinkHolder, link, null, null);
+        if (bestPath == null) {
+          continue;
+        }
+        int nextValue = getIsochroneValue(bestPath, type);
+        addIsochroneLink(grid, currentNode.ilon, currentNode.ilat, value, nextNode.ilon, nextNode.ilat, nextValue, maxLimit);
+        bestPath.airdistance = 0;
+        if (nextValue > maxLimit) {
+          recycleUnusedPath(bestPath);
+        } else if (addIfNotDominated(path, bestPath, link)) {
+          addToOpenset(bestPath);
+        }
+      }
+      recyclePath(path);
+    }
+  }
+
+  private static int getIsochroneValue(OsmPath path, String type) {
+    if ("time".equals(type)) {
+      return (int) path.getTotalTime();
+    }
+    return "distance".equals(type) ? path.distance : path.cost;
+  }
+
+  /**
+   * Write the values along a link to the grid, interpolated in steps of
+   * half a cell and cut where the limit is exceeded
+   */
+  private static void addIsochroneLink(IsochroneGrid grid, int ilon1, int ilat1, int value1, int ilon2, int ilat2, int value2, int maxLimit) {
+    double dist = CheapRuler.distance(ilon1, ilat1, ilon2, ilat2);
+    int steps = Math.max(1, (int) Math.ceil(2. * dist / grid.cellSize));
+    for (int i = 0; i <= steps; i++) {
+      double f = i / (double) steps;
+      int value = value1 + (int) (f * (value2 - value1));
+      if (value > maxLimit) {
+        break;
+      }
+      grid.set(ilon1 + (int) (f * (ilon2 - ilon1)), ilat1 + (int) (f * (ilat2 - ilat1)), value);
+    }
+  }
+
+  /**
+   * @param timeout the maximum running time in ms, 0 = no timeout
+   */
+  private void checkTermination(String operationName, long timeout) {
+    if (terminated) {
+      throw new IllegalArgumentException("operation killed by thread-priority-watchdog after " + (System.currentTimeMillis() - startTime) / 1000 + " seconds");
+    }
+    if (timeout > 0 && System.currentTimeMillis() - startTime > timeout) {
+      timedOut = true;
+      throw new IllegalArgumentException(operationName + " timeout after " + (timeout / 1000) + " seconds");
+    }
+  }
+
+  /**
+   * Invalidate the open set entries of the paths on the link of a path taken
+   * from the open set and unlink that link if it is no longer needed
+   *
+   * @return the first path on that link
+   */
+  private OsmLinkHolder settleLink(OsmPath path) {
+    OsmLink currentLink = path.getLink();
+    OsmNode sourceNode = path.getSourceNode();
+    OsmNode currentNode = path.getTargetNode();
+
+    // unlinkLink below also clears the link's holder list for sourceNode
+    // (OsmLink.clear), so the holders can be recycled
+    boolean detached = path.treedepth > 1;
+    OsmLinkHolder firstLinkHolder = currentLink.getFirstLinkHolder(sourceNode);
+    for (OsmLinkHolder linkHolder = firstLinkHolder; linkHolder != null; linkHolder = linkHolder.getNextForLink()) {
+      ((OsmPath) linkHolder).airdistance = -1; // invalidate the entry in the open set;
+      ((OsmPath) linkHolder).detached = detached;
+    }
+
+    if (detached) {
+      boolean isBidir = currentLink.isBidirectional();
+      sourceNode.unlinkLink(currentLink);
+
+      // if the counterlink is alive and does not yet have a path, remove it
+      if (isBidir && currentLink.getFirstLinkHolder(currentNode) == null && !routingContext.considerTurnRestrictions) {
+        currentNode.unlinkLink(currentLink);
+      }
+    }
+    return firstLinkHolder;
+  }
+
+  /**
+   * @return false for links to border nodes, to dead ends and back to the source node
+   */
+  private static boolean isExpandable(NodesCache cache, OsmNode nextNode, OsmNode sourceNode) {
+    return cache.obtainNonHollowNode(nextNode) && nextNode.firstlink != null && nextNode != sourceNode;
+  }
+
+  /**
+   * Collect the pre-paths of the links leaving the target node of a path
+   */
+  private void addPrePaths(NodesCache cache, OsmPath path) {
+    OsmNode sourceNode = path.getSourceNode();
+    OsmNode currentNode = path.getTargetNode();
+    routingContext.firstPrePath = null;
+
+    for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
+      if (!isExpandable(cache, link.getTarget(currentNode), sourceNode)) {
+        continue;
+      }
+      OsmPrePath prePath = routingContext.createPrePath(path, link);
+      if (prePath != null) {
+        prePath.next = routingContext.firstPrePath;
+        routingContext.firstPrePath = prePath;
+      }
+    }
+  }
+
+  /**
+   * Add a continuation of a path to its link, unless it is definitely
+   * worse than a path already on that link
+   *
+   * @return true if added, the caller puts it into its open set
+   */
+  private boolean addIfNotDominated(OsmPath path, OsmPath bestPath, OsmLink link) {
+    OsmNode currentNode = path.getTargetNode();
+
+    OsmLinkHolder dominator = link.getFirstLinkHolder(currentNode);
+    while (dominator != null) {
+      OsmPath dp = (OsmPath) dominator;
+      if (dp.airdistance != -1 && bestPath.definitlyWorseThan(dp)) {
+        break;
+      }
+      dominator = dominator.getNextForLink();
+    }
+
+    if (dominator == null) {
+      bestPath.treedepth = path.treedepth + 1;
+      link.addLinkHolder(bestPath, currentNode);
+      return true;
+    }
+    recycleUnusedPath(bestPath);
+    return false;
+  }
+
+  /**
+   * @return the cheapest continuation of the paths on a link, cut at the given endpoint if not null
+   */
+  private OsmPath getBestPath(OsmLinkHolder firstLinkHolder, OsmLink link, OsmTrack refTrack, OsmNodeNamed endPos) {
+    OsmPath bestPath = null;
+    for (OsmLinkHolder linkHolder = firstLinkHolder; linkHolder != null; linkHolder = linkHolder.getNextForLink()) {
+      OsmPath otherPath = (OsmPath) linkHolder;
+      try {
+        if (endPos != null) {
+          endPos.radius = 1.5; // 1.5 meters is the upper limit that will not change the unit-test result..
+          routingContext.setWaypoint(endPos, true);
+        }
+        OsmPath testPath = routingContext.createPath(otherPath, link, refTrack, guideTrack != null);
+        if (testPath.cost >= 0 && (bestPath == null || testPath.cost < bestPath.cost) &&
+          (testPath.sourceNode.getIdFromPos() != testPath.targetNode.getIdFromPos())) {
+          recycleUnusedPath(bestPath);
+          bestPath = testPath;
+        } else {
+          recycleUnusedPath(testPath);
+        }
+      } finally {
+        if (endPos != null) {
+          routingContext.unsetWaypoint();
+        }
+      }
+    }
+    return bestPath;
+  }
+
+  /**
+   * @return the path from the source to a target on the same segment in the direction n1-n2, or null
+   */
+  private OsmPath getSameSegmentPath(OsmNode n1, OsmNode n2, MatchedWaypoint source, OsmNodeNamed endPos) {
+    OsmNodeNamed wp = new OsmNodeNamed(source.crosspoint);
+    try {
+      routingContext.setWaypoint(wp, endPos, false);
+      OsmPath startPath = routingContext.createPath(new OsmLink(null, n1));
+      for (OsmLink link = n1.firstlink; link != null; link = link.getNext(n1)) {
+        if (link.getTarget(n1) == n2) {
+          wp.radius = 1.5;
+          endPos.radius = 1.5;
+          OsmPath testPath = routingContext.createPath(startPath, link, null, false);
+          return testPath.cost >= 0 && endPos.radius < 1.5 ? testPath : null;
+        }
+      }
+      return null;
+    } finally {
+      routingContext.unsetWaypoint();
+    }
+  }
+
+  private void addMatrixTargetPath(Map<OsmPath, Integer> targetPaths, OsmPath path, int col) {
+    if (path != null) {
+      path.airdistance = 0;
+      targetPaths.put(path, col);
+      addToOpenset(path);
+    }
+  }
+
+  private static void addMatrixTarget(OpenLongMap<List<Integer>> targetsByNode, long nodeId, int col) {
+    List<Integer> cols = targetsByNode.get(nodeId);
+    if (cols == null) {
+      cols = new ArrayList<>(1);
+      targetsByNode.put(nodeId, cols);
+    }
+    cols.add(col);
+  }
+
+  /**
+   * @return the targets matched to the segment between the given nodes
+   */
+  private static List<Integer> getMatrixTargets(OpenLongMap<List<Integer>> targetsByNode, List<MatchedWaypoint> targetWps, long nodeId, long otherNodeId) {
+    List<Integer> cols = targetsByNode.get(nodeId);
+    if (cols == null) {
+      return Collections.emptyList();
+    }
+    List<Integer> result = new ArrayList<>(cols.size());
+    for (int col : cols) {
+      MatchedWaypoint target = targetWps.get(col);
+      long id1 = target.node1.getIdFromPos();
+      if ((id1 == nodeId ? target.node2.getIdFromPos() : id1) == otherNodeId) {
+        result.add(col);
+      }
+    }
+    return result;
+  }
+
+  void buildPointsFromCircle(List<OsmNodeNamed> waypoints, double startAngle, double searchRadius, int points) {
+    //startAngle -= 90;
+    for (int i = 1; i < points; i++) {
+      double anAngle = 90 - (180.0 * i / points);
+      int[] pos = CheapRuler.destination(waypoints.get(0).ilon, waypoints.get(0).ilat, searchRadius, startAngle - anAngle);
+      OsmNodeNamed onn = new OsmNodeNamed(new OsmNode(pos[0], pos[1]));
+      onn.name = "rt" + i;
+      waypoints.add(onn);
+    }
+
+    OsmNodeNamed onn = new OsmNodeNamed(waypoints.get(0));
+    onn.name = "to_rt";
+    waypoints.add(onn);
+  }
+
+  int getRandomDirectionFromData(OsmNodeNamed wp, double searchRadius) {
+
+    long start = System.currentTimeMillis();
+
+    int preferredRandomType = 0;
+    boolean consider_elevation = routingContext.expctxWay.getVariableValue("consider_elevation", 0f) == 1f;
+    boolean consider_forest = routingContext.expctxWay.getVariableValue("consider_forest", 0f) == 1f;
+    boolean consider_river = routingContext.expctxWay.getVariableValue("consider_river", 0f) == 1f;
+    if (consider_elevation) {
+      preferredRandomType = AreaInfo.RESULT_TYPE_ELEV50;
+    } else if (consider_forest) {
+      preferredRandomType = AreaInfo.RESULT_TYPE_GREEN;
+    } else if (consider_river) {
+      preferredRandomType = AreaInfo.RESULT_TYPE_RIVER;
+    } else {
+      return (int) (Math.random()*360);
+    }
+
+    MatchedWaypoint wpt1 = new MatchedWaypoint();
+    wpt1.waypoint = wp;
+    wpt1.name = "info";
+    wpt1.radius = searchRadius * 1.5;
+
+    List<AreaInfo> ais = new ArrayList<>();
+    AreaReader areareader = new AreaReader();
+    if (routingContext.rawAreaPath != null) {
+      File fai = new File(routingContext.rawAreaPath);
+      if (fai.exists()) {
+        areareader.readAreaInfo(fai, wpt1, ais);
+      }
+    }
+
+    if (ais.isEmpty()) {
+      List<MatchedWaypoint> listStart = new ArrayList<>();
+      listStart.add(wpt1);
+
+      List<OsmNodeNamed> wpliststart = new ArrayList<>();
+      wpliststart.add(wp);
+
+      List<OsmNodeNamed> listOne = new ArrayList<>();
+
+      for (int a = 45; a < 360; a += 90) {
+        int[] pos = CheapRuler.destination(wp.ilon, wp.ilat, searchRadius * 1.5, a);
+        OsmNodeNamed onn = new OsmNodeNamed(new OsmNode(pos[0], pos[1]));
+        onn.name = "via" + a;
+        listOne.add(onn);
+
+        MatchedWaypoint wpt = new MatchedWaypoint();
+        wpt.waypoint = onn;
+        wpt.name = onn.name;
+        listStart.add(wpt);
+      }
+
+      RoutingEngine re = null;
+      RoutingContext rc = new RoutingContext();
+      String name = routingContext.localFunction;
+      int idx = name.lastIndexOf(File.separator);
+      rc.localFunction = idx == -1 ? "dummy" : name.substring(0, idx + 1) + "dummy.brf";
+
+      re = new RoutingEngine(null, null, segmentDir, wpliststart, rc, BROUTER_ENGINEMODE_ROUNDTRIP);
+      rc.useDynamicDistance = true;
+      re.matchWaypointsToNodes(listStart);
+      re.resetCache(true);
+
+      int numForest = rc.expctxWay.getLookupKey("estimated_forest_class");
+      int numRiver = rc.expctxWay.getLookupKey("estimated_river_class");
+
+      OsmNode start1 = re.nodesCache.getStartNode(listStart.get(0).node1.getIdFromPos());
+
+      double elev = (start1 == null ? 0 : start1.getElev()); // listOne.get(0).crosspoint.getElev();
+
+      int maxlon = Integer.MIN_VALUE;
+      int minlon = Integer.MAX_VALUE;
+      int maxlat = Integer.MIN_VALUE;
+      int minlat = Integer.MAX_VALUE;
+      for (OsmNodeNamed on : listOne) {
+        maxlon = Math.max(on.ilon, maxlon);
+        minlon = Math.min(on.ilon, minlon);
+        maxlat = Math.max(on.ilat, maxlat);
+        minlat = Math.min(on.ilat, minlat);
+      }
+      OsmNogoPolygon searchRect = new OsmNogoPolygon(true);
+      searchRect.addVertex(maxlon, maxlat);
+      searchRect.addVertex(maxlon, minlat);
+      searchRect.addVertex(minlon, minlat);
+      searchRect.addVertex(minlon, maxlat);
+
+      for (int a = 0; a < 4; a++) {
+        rc.ai = new AreaInfo(a * 90 + 90);
+        rc.ai.elevStart = elev;
+        rc.ai.numForest = numForest;
+        rc.ai.numRiver = numRiver;
+
+        rc.ai.polygon = new OsmNogoPolygon(true);
+        rc.ai.polygon.addVertex(wp.ilon, wp.ilat);
+        rc.ai.polygon.addVertex(listOne.get(a).ilon, listOne.get(a).ilat);
+        if (a == 3)
+          rc.ai.polygon.addVertex(listOne.get(0).ilon, listOne.get(0).ilat);
+        else
+          rc.ai.polygon.addVertex(listOne.get(a + 1).ilon, listOne.get(a + 1).ilat);
+
+        ais.add(rc.ai);
+      }
+
+      int maxscale = Math.abs(searchRect.points.get(2).x - searchRect.points.get(0).x);
+      maxscale = Math.max(1, Math.round(maxscale / 31250f / 2) + 1);
+
+      areareader.getDirectAllData(segmentDir, rc, wp, maxscale, rc.expctxWay, searchRect, ais);
+
+      if (routingContext.rawAreaPath != null) {
+        try {
+          wpt1.radius = searchRadius * 1.5;
+          areareader.writeAreaInfo(routingContext.rawAreaPath, wpt1, ais);
+        } catch (Exception e) {
+        }
+      }
+      rc.ai = null;
+
+    }
+
+    logInfo("round trip execution time = " + (System.currentTimeMillis() - start) / 1000. + " seconds");
+
+    // for (AreaInfo ai: ais) {
+    //  System.out.println("\n" + ai.toString());
+    //}
+
+    switch (preferredRandomType) {
+      case AreaInfo.RESULT_TYPE_ELEV50:
+        Collections.sort(ais, new Comparator<>() {
+          public int compare(AreaInfo o1, AreaInfo o2) {
+            return o2.getElev50Weight() - o1.getElev50Weight();
+          }
+        });
+        break;
+      case AreaInfo.RESULT_TYPE_GREEN:
+        Collections.sort(ais, new Comparator<>() {
+          public int compare(AreaInfo o1, AreaInfo o2) {
+            return o2.getGreen() - o1.getGreen();
+          }
+        });
+        break;
+      case AreaInfo.RESULT_TYPE_RIVER:
+        Collections.sort(ais, new Comparator<>() {
+          public int compare(AreaInfo o1, AreaInfo o2) {
+            return o2.getRiver() - o1.getRiver();
+          }
+        });
+        break;
+      default:
+        return (int) (Math.random()*360);
+    }
+
+    int angle = ais.get(0).direction;
+    return angle - 30 + (int) (Math.random() * 60);
+  }
+
+
+
+  private void postElevationCheck(OsmTrack track) {
+    OsmPathElement lastPt = null;
+    OsmPathElement startPt = null;
+    short lastElev = Short.MIN_VALUE;
+    short startElev = Short.MIN_VALUE;
+    short endElev = Short.MIN_VALUE;
+    int startIdx = 0;
     int endIdx = -1;
     int dist = 0;
     int ourSize = track.nodes.size();
@@ -876,6 +1662,36 @@ public class RoutingEngine extends Thread {
     }
   }
 
+  // waypoints matched to different precomputed islands (or to an island
+  // and the main network) cannot be connected by any profile, so the island
+  // is rejected for re-matching without an exploratory search
+  private boolean rejectPrecomputedIslands(MatchedWaypoint mwp1, MatchedWaypoint mwp2) {
+    if (mwp1.islandId == mwp2.islandId || islandNodePairs.getFreezeCount() >= 5) {
+      return false;
+    }
+    if (mwp1.islandId != 0L) {
+      islandNodePairs.addIsland(mwp1.islandId);
+    }
+    if (mwp2.islandId != 0L) {
+      islandNodePairs.addIsland(mwp2.islandId);
+    }
+    // the pairs of the previous (successful) island checks are not
+    // island pairs, they must not be frozen by the retry
+    islandNodePairs.clearTempPairs();
+    if (hasInfo()) {
+      logInfo("precomputed island detected: " + mwp1.name + "->" + mwp2.name);
+    }
+    return true;
+  }
+
+  // waypoints on the same precomputed island are connected in the network
+  // of the map creation profile (the union of all access modes). A profile
+  // that cannot connect them within the island exhausts the main search
+  // on the island, which then re-matches as the island check would.
+  private boolean onSamePrecomputedIsland(MatchedWaypoint mwp1, MatchedWaypoint mwp2) {
+    return mwp1.islandId != 0L && mwp1.islandId == mwp2.islandId;
+  }
+
   private OsmTrack tryFindTrack(OsmTrack[] refTracks, OsmTrack[] lastTracks) {
     OsmTrack totaltrack = new OsmTrack();
     int nUnmatched = waypoints.size();
@@ -952,6 +1768,12 @@ public class RoutingEngine extends Thread {
       for (int i = 0; i < matchedWaypoints.size() - 1; i++) {
         nodeLimit = MAXNODES_ISLAND_CHECK;
         if (matchedWaypoints.get(i).wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT) continue;
+        if (rejectPrecomputedIslands(matchedWaypoints.get(i), matchedWaypoints.get(i + 1))) {
+          throw new RoutingIslandException();
+        }
+        if (onSamePrecomputedIsland(matchedWaypoints.get(i), matchedWaypoints.get(i + 1))) {
+          continue;
+        }
         if (routingContext.inverseRouting) {
           OsmTrack seg = findTrack("start-island-check", matchedWaypoints.get(i), matchedWaypoints.get(i + 1), null, null, false);
           if (seg == null && nodeLimit > 0) {
@@ -990,10 +1812,16 @@ public class RoutingEngine extends Thread {
         if (refTracks[i] == null) refTracks[i] = new OsmTrack();
         refTracks[i].addNodes(lastTracks[i]);
       }
+    }
+    OsmTrack[] legTracks = useParallelLegs() ? searchLegsInParallel(nearbyTrack, refTracks) : null;
 
+    for (int i = 0; i < matchedWaypoints.size() - 1; i++) {
       OsmTrack seg;
       int wptIndex;
-      if (routingContext.inverseRouting) {
+      if (legTracks != null && legTracks[i] != null) {
+        seg = legTracks[i];
+        wptIndex = routingContext.inverseRouting ? i + 1 : i;
+      } else if (routingContext.inverseRouting) {
         routingContext.inverseDirection = true;
         seg = searchTrack(matchedWaypoints.get(i + 1), matchedWaypoints.get(i), null, refTracks[i]);
         routingContext.inverseDirection = false;
@@ -1039,7 +1867,9 @@ public class RoutingEngine extends Thread {
 
     matchedWaypoints.get(matchedWaypoints.size() - 1).indexInTrack = totaltrack.nodes.size() - 1;
     totaltrack.matchedWaypoints = matchedWaypoints;
+    long voiceHintStart = System.nanoTime();
     totaltrack.processVoiceHints(routingContext);
+    phaseTimings.add("voicehints", System.nanoTime() - voiceHintStart);
     totaltrack.prepareSpeedProfile(routingContext);
 
     totaltrack.showTime = routingContext.showTime;
@@ -1051,6 +1881,141 @@ public class RoutingEngine extends Thread {
     return totaltrack;
   }
 
+  private boolean useParallelLegs() {
+    // continueStraight places a nogo depending on the previous leg
+    return routingContext.parallelLegs && matchedWaypoints.size() > 2
+      && !routingContext.continueStraight && routingContext.ai == null;
+  }
+
+  private static synchronized ExecutorService getLegExecutor() {
+    if (legExecutor == null) {
+      legExecutor = Executors.newFixedThreadPool(getLegThreads(), r -> {
+        Thread t = new Thread(r, "brouter-leg");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return legExecutor;
+  }
+
+  private static int getLegThreads() {
+    return Integer.getInteger("legThreads", Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Route the legs between the matched waypoints in parallel, each by an
+   * engine with its own context and nodes cache (the raw tile data are
+   * shared via the TileDataCache). Beeline legs are left to the caller,
+   * to keep their numbering.
+   *
+   * @return the tracks per leg, or null to fall back to sequential routing
+   * if any leg failed (so errors are the same as in sequential mode)
+   */
+  private OsmTrack[] searchLegsInParallel(OsmTrack nearbyTrack, OsmTrack[] refTracks) {
+    int nLegs = matchedWaypoints.size() - 1;
+    OsmTrack[] legTracks = new OsmTrack[nLegs];
+    RoutingEngine[] engines = new RoutingEngine[nLegs];
+    List<Future<OsmTrack>> futures = new ArrayList<>(nLegs);
+    boolean inverse = routingContext.inverseRouting;
+    logInfo("routing " + nLegs + " legs in parallel");
+    legEngines = engines;
+    try {
+      for (int i = 0; i < nLegs; i++) {
+        MatchedWaypoint startWp = matchedWaypoints.get(inverse ? i + 1 : i);
+        MatchedWaypoint endWp = matchedWaypoints.get(inverse ? i : i + 1);
+        if (startWp.wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT) {
+          futures.add(null);
+          continue;
+        }
+        OsmTrack legNearbyTrack = !inverse && i == nLegs - 1 ? nearbyTrack : null;
+        OsmTrack refTrack = refTracks[i];
+        RoutingEngine re = createLegEngine();
+        engines[i] = re;
+        futures.add(getLegExecutor().submit(() -> re.searchLeg(startWp, endWp, legNearbyTrack, refTrack, inverse)));
+      }
+      for (int i = 0; i < nLegs; i++) {
+        if (futures.get(i) != null) {
+          legTracks[i] = futures.get(i).get();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalArgumentException("interrupted while routing legs");
+    } catch (ExecutionException e) {
+      for (RoutingEngine re : engines) {
+        if (re != null) {
+          re.terminate();
+        }
+      }
+      if (terminated && e.getCause() instanceof IllegalArgumentException) {
+        throw (IllegalArgumentException) e.getCause();
+      }
+      logInfo("parallel routing failed: " + e.getCause() + ", routing the legs sequentially");
+      return null;
+    } finally {
+      legEngines = null;
+    }
+
+    // as in sequential mode, the last leg that supplies a reference track wins
+    for (RoutingEngine re : engines) {
+      if (re != null && re.foundRawTrack != null) {
+        foundRawTrack = re.foundRawTrack;
+      }
+      if (re != null) {
+        linksProcessed += re.linksProcessed;
+        memoryPanics += re.memoryPanics;
+        re.linksProcessedPerPass.forEach((pass, links) -> linksProcessedPerPass.merge(pass, links, Integer::sum));
+        phaseTimings.merge(re.phaseTimings);
+      }
+    }
+    return legTracks;
+  }
+
+  private RoutingEngine createLegEngine() {
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = routingContext.localFunction;
+    rc.keyValues = routingContext.keyValues;
+    rc.memoryclass = routingContext.memoryclass;
+    RoutingEngine re = new RoutingEngine(null, null, segmentDir, waypoints, rc);
+    routingContext.copyRequestSettings(rc);
+    re.quite = true;
+    re.startTime = startTime;
+    re.maxRunningTime = maxRunningTime;
+    return re;
+  }
+
+  private OsmTrack searchLeg(MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack nearbyTrack, OsmTrack refTrack, boolean inverse) {
+    try {
+      routingContext.inverseDirection = inverse;
+      return searchTrack(startWp, endWp, nearbyTrack, refTrack);
+    } finally {
+      releaseResources();
+    }
+  }
+
+  private void releaseResources() {
+    ProfileCache.releaseProfile(routingContext);
+    if (nodesCache != null) {
+      nodesCache.close();
+      nodesCache = null;
+    }
+    openSet.clear();
+    if (infoLogWriter != null) {
+      try {
+        infoLogWriter.close();
+      } catch (Exception e) {
+      }
+      infoLogWriter = null;
+    }
+    if (stackSampler != null) {
+      try {
+        stackSampler.close();
+      } catch (Exception e) {
+      }
+      stackSampler = null;
+    }
+  }
+
   OsmTrack getExtraSegment(OsmPathElement start, OsmPathElement end) {
 
     if (start == null || end == null) return null;
@@ -1607,6 +2572,15 @@ public class RoutingEngine extends Thread {
 
   // geometric position matching finding the nearest routable way-section
   private void matchWaypointsToNodes(List<MatchedWaypoint> unmatchedWaypoints) {
+    long matchStart = System.nanoTime();
+    try {
+      doMatchWaypointsToNodes(unmatchedWaypoints);
+    } finally {
+      phaseTimings.add("match", System.nanoTime() - matchStart);
+    }
+  }
+
+  private void doMatchWaypointsToNodes(List<MatchedWaypoint> unmatchedWaypoints) {
     resetCache(false);
     boolean useDynamicDistance = routingContext.useDynamicDistance;
     boolean bAddBeeline = routingContext.buildBeelineOnRange;
@@ -1735,6 +2709,12 @@ public class RoutingEngine extends Thread {
       }
     }
 
+    boolean isOverlayTrack = false;
+    if (track == null && useOverlay(startWp, endWp)) {
+      track = findOverlayTrack(startWp, endWp, refTrack);
+      isOverlayTrack = track != null;
+    }
+
     if (track == null) {
       for (int cfi = 0; cfi < airDistanceCostFactors.length; cfi++) {
         if (cfi > 0) lastAirDistanceCostFactor = airDistanceCostFactors[cfi - 1];
@@ -1744,9 +2724,14 @@ public class RoutingEngine extends Thread {
           continue;
         }
 
-        OsmTrack t;
+        OsmTrack t = null;
         try {
-          t = findTrack(cfi == 0 ? "pass0" : "pass1", startWp, endWp, track, refTrack, false);
+          if (cfi == 0 && useBidirectionalSearch(startWp, endWp)) {
+            t = findBidirectionalTrack(startWp, endWp, refTrack);
+          }
+          if (t == null) {
+            t = findTrack(cfi == 0 ? "pass0" : "pass1", startWp, endWp, track, refTrack, false);
+          }
           if (routingContext.ai != null) return t;
         } catch (IllegalArgumentException iae) {
           if (!terminated && matchPath != null) { // timeout, but eventually prepare a dirty ref track
@@ -1777,7 +2762,7 @@ public class RoutingEngine extends Thread {
     OsmPathElement lastElement = null;
 
     boolean wasClean = nearbyTrack != null && !nearbyTrack.isDirty;
-    if (refTrack == null && !(wasClean && isDirty)) { // do not overwrite a clean with a dirty track
+    if (refTrack == null && !(wasClean && isDirty) && !isOverlayTrack) { // do not overwrite a clean with a dirty track, overlay tracks are no reference
       logInfo("supplying new reference track, dirty=" + isDirty);
       track.endPoint = endWp;
       track.nogoChecksums = routingContext.getNogoChecksums();
@@ -1870,6 +2855,12 @@ public class RoutingEngine extends Thread {
   }
 
   private OsmTrack findTrack(String operationName, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack costCuttingTrack, OsmTrack refTrack, boolean fastPartialRecalc) {
+    OsmPathPool pathPool = routingContext.pathPool;
+    long allocatedBefore = pathPool.allocated;
+    long reusedBefore = pathPool.reused;
+    long searchStart = System.currentTimeMillis();
+    long phaseStart = System.nanoTime();
+    int linksBefore = linksProcessed;
     try {
       List<OsmNode> wpts2 = new ArrayList<>();
       if (startWp != null) wpts2.add(startWp.waypoint);
@@ -1879,18 +2870,26 @@ public class RoutingEngine extends Thread {
       boolean detailed = guideTrack != null;
       resetCache(detailed);
       nodesCache.nodesMap.cleanupMode = detailed ? 0 : (routingContext.considerTurnRestrictions ? 2 : 1);
+      if (detailed) {
+        return walkGuideTrack(operationName, startWp, endWp, refTrack);
+      }
       return _findTrack(operationName, startWp, endWp, costCuttingTrack, refTrack, fastPartialRecalc);
     } finally {
       routingContext.restoreNogoList();
       nodesCache.clean(false); // clean only non-virgin caches
+      recordPhase(operationName, phaseStart, linksBefore);
+      if (hasInfo()) {
+        long allocated = pathPool.allocated - allocatedBefore;
+        long searchTime = Math.max(1L, System.currentTimeMillis() - searchStart);
+        logInfo(operationName + ": paths allocated=" + allocated + " reused=" + (pathPool.reused - reusedBefore)
+          + " (" + (allocated * 1000L / searchTime) + " allocations/s)");
+      }
     }
   }
 
 
   private OsmTrack _findTrack(String operationName, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack costCuttingTrack, OsmTrack refTrack, boolean fastPartialRecalc) {
-    boolean verbose = guideTrack != null;
-
-    int maxTotalCost = guideTrack != null ? guideTrack.cost + 5000 : 1000000000;
+    int maxTotalCost = 1000000000;
     int firstMatchCost = 1000000000;
 
     logInfo("findtrack with airDistanceCostFactor=" + airDistanceCostFactor);
@@ -1963,6 +2962,14 @@ public class RoutingEngine extends Thread {
     if (startPath2 == null) return null;
 
     synchronized (openSet) {
+      if (routingContext.pathPooling) {
+        // the paths left from the previous search are unreachable after resetCache
+        for (OsmPath p = openSet.popLowestKeyValue(); p != null; p = openSet.popLowestKeyValue()) {
+          if (!routingContext.pathPool.recycle(p)) {
+            break;
+          }
+        }
+      }
       openSet.clear();
       addToOpenset(startPath1);
       addToOpenset(startPath2);
@@ -1972,16 +2979,7 @@ public class RoutingEngine extends Thread {
     boolean needNonPanicProcessing = false;
 
     for (; ; ) {
-      if (terminated) {
-        throw new IllegalArgumentException("operation killed by thread-priority-watchdog after " + (System.currentTimeMillis() - startTime) / 1000 + " seconds");
-      }
-
-      if (maxRunningTime > 0) {
-        long timeout = (matchPath == null && fastPartialRecalc) ? maxRunningTime / 3 : maxRunningTime;
-        if (System.currentTimeMillis() - startTime > timeout) {
-          throw new IllegalArgumentException(operationName + " timeout after " + (timeout / 1000) + " seconds");
-        }
-      }
+      checkTermination(operationName, (matchPath == null && fastPartialRecalc) ? maxRunningTime / 3 : maxRunningTime);
 
       synchronized (openSet) {
 
@@ -2000,6 +2998,7 @@ public class RoutingEngine extends Thread {
         }
 
         if (path.airdistance == -1) {
+          recyclePath(path);
           continue;
         }
 
@@ -2028,6 +3027,7 @@ public class RoutingEngine extends Thread {
                   throw new IllegalArgumentException("memory limit reached");
                 }
                 memoryPanicMode = true;
+                memoryPanics++;
                 logInfo("************************ memory limit reached, enabled memory panic mode *************************");
               }
             }
@@ -2065,78 +3065,220 @@ public class RoutingEngine extends Thread {
         OsmLink currentLink = path.getLink();
         OsmNode sourceNode = path.getSourceNode();
         OsmNode currentNode = path.getTargetNode();
-
+
+        if (currentLink.isLinkUnused()) {
+          continue;
+        }
+
+        long currentNodeId = currentNode.getIdFromPos();
+        long sourceNodeId = sourceNode.getIdFromPos();
+
+        if (!path.didEnterDestinationArea()) {
+          islandNodePairs.addTempPair(sourceNodeId, currentNodeId);
+        }
+
+        if (path.treedepth != 1) {
+          if (path.treedepth == 0) { // hack: sameSegment Paths marked treedepth=0 to pass above check
+            path.treedepth = 1;
+          }
+
+          if ((sourceNodeId == endNodeId1 && currentNodeId == endNodeId2)
+            || (sourceNodeId == endNodeId2 && currentNodeId == endNodeId1)) {
+            // track found, compile
+            logInfo("found track at cost " + path.cost + " nodesVisited = " + nodesVisited);
+            OsmTrack t = compileTrack(path, false);
+            t.showspeed = routingContext.showspeed;
+            t.showSpeedProfile = routingContext.showSpeedProfile;
+            return t;
+          }
+
+          // check for a match with the cost-cutting-track
+          if (costCuttingTrack != null) {
+            OsmPathElement pe = costCuttingTrack.getLink(sourceNodeId, currentNodeId);
+            if (pe != null) {
+              // remember first match cost for fast termination of partial recalcs
+              int parentcost = path.originElement == null ? 0 : path.originElement.cost;
+
+              // hitting start-element of costCuttingTrack?
+              int c = path.cost - parentcost - pe.cost;
+              if (c > 0) parentcost += c;
+
+              if (parentcost < firstMatchCost) firstMatchCost = parentcost;
+
+              int costEstimate = path.cost
+                + path.elevationCorrection()
+                + (costCuttingTrack.cost - pe.cost);
+              if (costEstimate <= maxTotalCost) {
+                matchPath = OsmPathElement.create(path);
+              }
+              if (costEstimate < maxTotalCost) {
+                logInfo("maxcost " + maxTotalCost + " -> " + costEstimate);
+                maxTotalCost = costEstimate;
+              }
+            }
+          }
+        }
+
+        OsmLinkHolder firstLinkHolder = settleLink(path);
+
+        // recheck cutoff before doing expensive stuff
+        int addDiff = 100;
+        if (path.cost + path.airdistance > maxTotalCost + addDiff) {
+          recyclePath(path);
+          continue;
+        }
+
+        nodesCache.nodesMap.currentMaxCost = maxTotalCost;
+        nodesCache.nodesMap.currentPathCost = path.cost;
+        nodesCache.nodesMap.destination = endPos;
+
+        addPrePaths(nodesCache, path);
+
+        for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
+          OsmNode nextNode = link.getTarget(currentNode);
+          if (!isExpandable(nodesCache, nextNode, sourceNode)) {
+            continue;
+          }
+
+          boolean isFinalLink = false;
+          long targetNodeId = nextNode.getIdFromPos();
+          if (currentNodeId == endNodeId1 || currentNodeId == endNodeId2) {
+            if (targetNodeId == endNodeId1 || targetNodeId == endNodeId2) {
+              isFinalLink = true;
+            }
+          }
+
+          OsmPath bestPath = getBestPath(firstLinkHolder, link, refTrack, isFinalLink ? endPos : null);
+          if (bestPath != null) {
+            bestPath.airdistance = isFinalLink ? 0 : nextNode.calcDistance(endPos);
+
+            boolean inRadius = boundary == null || boundary.isInBoundary(nextNode, bestPath.cost);
+
+            if (inRadius && (isFinalLink || bestPath.cost + bestPath.airdistance <= (lastAirDistanceCostFactor != 0. ? maxTotalCost * lastAirDistanceCostFactor : maxTotalCost) + addDiff)) {
+              // add only if this may beat an existing path for that link
+              if (addIfNotDominated(path, bestPath, link)) {
+                addToOpenset(bestPath);
+              }
+            } else {
+              recycleUnusedPath(bestPath);
+            }
+          }
+        }
+        recyclePath(path);
+      }
+    }
+
+    if (nodesVisited < MAXNODES_ISLAND_CHECK && islandNodePairs.getFreezeCount() < 5) {
+      throw new RoutingIslandException();
+    }
+
+    return null;
+  }
+
+  /**
+   * Re-evaluate the node sequence of the guide track in detail mode.
+   * <p>
+   * The node sequence is known, so instead of a search this just walks
+   * along the guide: at each node the links are evaluated like in the
+   * search (pre-paths, detours for the voice hints), but only the
+   * links to the next guide node are followed. All paths along the guide
+   * that the search would keep are kept, so the detours and the track
+   * are the same as with the guided search.
+   *
+   * @return the track, or null if the guide is not feasible
+   */
+  private OsmTrack walkGuideTrack(String operationName, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack) {
+    logInfo(operationName + ": walking guide track with " + guideTrack.nodes.size() + " nodes");
+
+    long startNodeId1 = startWp.node1.getIdFromPos();
+    long startNodeId2 = startWp.node2.getIdFromPos();
+    long endNodeId1 = endWp.node1.getIdFromPos();
+    long endNodeId2 = endWp.node2.getIdFromPos();
+
+    OsmNode start1 = nodesCache.getGraphNode(startWp.node1);
+    OsmNode start2 = nodesCache.getGraphNode(startWp.node2);
+    OsmNode end1 = nodesCache.getGraphNode(endWp.node1);
+    OsmNode end2 = nodesCache.getGraphNode(endWp.node2);
+    nodesCache.nodesMap.endNode1 = end1;
+    nodesCache.nodesMap.endNode2 = end2;
+    OsmNodeNamed endPos = new OsmNodeNamed(endWp.crosspoint);
+    boolean sameSegmentSearch = (start1 == end1 && start2 == end2) || (start1 == end2 && start2 == end1);
+
+    if (!nodesCache.obtainNonHollowNode(start1)) {
+      return null;
+    }
+    nodesCache.expandHollowLinkTargets(start1);
+    if (!nodesCache.obtainNonHollowNode(start2)) {
+      return null;
+    }
+    nodesCache.expandHollowLinkTargets(start2);
+
+    routingContext.startDirectionValid = routingContext.forceUseStartDirection;
+    routingContext.startDirectionValid &= routingContext.startDirection != null && !routingContext.inverseDirection;
+
+    OsmPath startPath1 = getStartPath(start1, start2, startWp, endPos, sameSegmentSearch);
+    OsmPath startPath2 = getStartPath(start2, start1, startWp, endPos, sameSegmentSearch);
+    if (startPath1 == null || startPath2 == null) {
+      return null;
+    }
+
+    // several paths can follow the guide (parallel links, paths that do not
+    // dominate each other), they are taken in cost order like in the search
+    // so the detours registered for the voice hints are the same
+    synchronized (openSet) {
+      if (routingContext.pathPooling) {
+        for (OsmPath p = openSet.popLowestKeyValue(); p != null; p = openSet.popLowestKeyValue()) {
+          if (!routingContext.pathPool.recycle(p)) {
+            break;
+          }
+        }
+      }
+      openSet.clear();
+      addToOpenset(startPath1);
+      addToOpenset(startPath2);
+
+      int maxTotalCost = guideTrack.cost + 5000;
+      for (; ; ) {
+        checkTermination(operationName, 0L);
+
+        OsmPath path = openSet.popLowestKeyValue();
+        if (path == null) {
+          return null;
+        }
+        if (path.airdistance == -1) {
+          recyclePath(path);
+          continue;
+        }
+        linksProcessed++;
+
+        OsmLink currentLink = path.getLink();
+        OsmNode sourceNode = path.getSourceNode();
+        OsmNode currentNode = path.getTargetNode();
         if (currentLink.isLinkUnused()) {
           continue;
         }
-
         long currentNodeId = currentNode.getIdFromPos();
         long sourceNodeId = sourceNode.getIdFromPos();
 
-        if (!path.didEnterDestinationArea()) {
-          islandNodePairs.addTempPair(sourceNodeId, currentNodeId);
-        }
-
         if (path.treedepth != 1) {
-          if (path.treedepth == 0) { // hack: sameSegment Paths marked treedepth=0 to pass above check
+          if (path.treedepth == 0) { // hack: sameSegment Paths marked treedepth=0
             path.treedepth = 1;
           }
-
           if ((sourceNodeId == endNodeId1 && currentNodeId == endNodeId2)
             || (sourceNodeId == endNodeId2 && currentNodeId == endNodeId1)) {
-            // track found, compile
-            logInfo("found track at cost " + path.cost + " nodesVisited = " + nodesVisited);
-            OsmTrack t = compileTrack(path, verbose);
+            logInfo("found track at cost " + path.cost + " linksWalked = " + path.treedepth);
+            OsmTrack t = compileTrack(path, true);
             t.showspeed = routingContext.showspeed;
             t.showSpeedProfile = routingContext.showSpeedProfile;
             return t;
           }
-
-          // check for a match with the cost-cutting-track
-          if (costCuttingTrack != null) {
-            OsmPathElement pe = costCuttingTrack.getLink(sourceNodeId, currentNodeId);
-            if (pe != null) {
-              // remember first match cost for fast termination of partial recalcs
-              int parentcost = path.originElement == null ? 0 : path.originElement.cost;
-
-              // hitting start-element of costCuttingTrack?
-              int c = path.cost - parentcost - pe.cost;
-              if (c > 0) parentcost += c;
-
-              if (parentcost < firstMatchCost) firstMatchCost = parentcost;
-
-              int costEstimate = path.cost
-                + path.elevationCorrection()
-                + (costCuttingTrack.cost - pe.cost);
-              if (costEstimate <= maxTotalCost) {
-                matchPath = OsmPathElement.create(path);
-              }
-              if (costEstimate < maxTotalCost) {
-                logInfo("maxcost " + maxTotalCost + " -> " + costEstimate);
-                maxTotalCost = costEstimate;
-              }
-            }
-          }
         }
 
-        OsmLinkHolder firstLinkHolder = currentLink.getFirstLinkHolder(sourceNode);
-        for (OsmLinkHolder linkHolder = firstLinkHolder; linkHolder != null; linkHolder = linkHolder.getNextForLink()) {
-          ((OsmPath) linkHolder).airdistance = -1; // invalidate the entry in the open set;
-        }
-
-        if (path.treedepth > 1) {
-          boolean isBidir = currentLink.isBidirectional();
-          sourceNode.unlinkLink(currentLink);
-
-          // if the counterlink is alive and does not yet have a path, remove it
-          if (isBidir && currentLink.getFirstLinkHolder(currentNode) == null && !routingContext.considerTurnRestrictions) {
-            currentNode.unlinkLink(currentLink);
-          }
-        }
+        OsmLinkHolder firstLinkHolder = settleLink(path);
 
-        // recheck cutoff before doing expensive stuff
         int addDiff = 100;
         if (path.cost + path.airdistance > maxTotalCost + addDiff) {
+          recyclePath(path);
           continue;
         }
 
@@ -2144,120 +3286,452 @@ public class RoutingEngine extends Thread {
         nodesCache.nodesMap.currentPathCost = path.cost;
         nodesCache.nodesMap.destination = endPos;
 
-        routingContext.firstPrePath = null;
+        addPrePaths(nodesCache, path);
 
+        int gidx = path.treedepth + 1;
+        long guideId = gidx < guideTrack.nodes.size() ? getGuideNode(gidx).getIdFromPos() : -1L;
         for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
           OsmNode nextNode = link.getTarget(currentNode);
-
-          if (!nodesCache.obtainNonHollowNode(nextNode)) {
-            continue; // border node?
-          }
-          if (nextNode.firstlink == null) {
-            continue; // don't care about dead ends
+          if (guideId == -1L || !isExpandable(nodesCache, nextNode, sourceNode)) {
+            continue;
           }
-          if (nextNode == sourceNode) {
-            continue; // border node?
+          long nextId = nextNode.getIdFromPos();
+          if (nextId != guideId) {
+            // not along the guide-track, register for voice-hint processing
+            if (routingContext.turnInstructionMode > 0) {
+              OsmPath detour = routingContext.createPath(path, link, refTrack, true);
+              if (detour.cost >= 0. && nextId != startNodeId1 && nextId != startNodeId2) {
+                guideTrack.registerDetourForId(currentNodeId, OsmPathElement.create(detour));
+              }
+              recycleUnusedPath(detour);
+            }
+            continue;
           }
 
-          OsmPrePath prePath = routingContext.createPrePath(path, link);
-          if (prePath != null) {
-            prePath.next = routingContext.firstPrePath;
-            routingContext.firstPrePath = prePath;
+          boolean isFinalLink = (currentNodeId == endNodeId1 || currentNodeId == endNodeId2)
+            && (nextId == endNodeId1 || nextId == endNodeId2);
+          OsmPath bestPath = getBestPath(firstLinkHolder, link, refTrack, isFinalLink ? endPos : null);
+          if (bestPath != null) {
+            bestPath.airdistance = isFinalLink ? 0 : nextNode.calcDistance(endPos);
+            boolean inRadius = boundary == null || boundary.isInBoundary(nextNode, bestPath.cost);
+            if (inRadius && (isFinalLink || bestPath.cost + bestPath.airdistance <= maxTotalCost + addDiff)) {
+              if (addIfNotDominated(path, bestPath, link)) {
+                addToOpenset(bestPath);
+              }
+            } else {
+              recycleUnusedPath(bestPath);
+            }
           }
         }
+        recyclePath(path);
+      }
+    }
+  }
 
-        for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
-          OsmNode nextNode = link.getTarget(currentNode);
+  private OsmPathElement getGuideNode(int idx) {
+    return guideTrack.nodes.get(routingContext.inverseRouting ? guideTrack.nodes.size() - 1 - idx : idx);
+  }
 
-          if (!nodesCache.obtainNonHollowNode(nextNode)) {
-            continue; // border node?
-          }
-          if (nextNode.firstlink == null) {
-            continue; // don't care about dead ends
-          }
-          if (nextNode == sourceNode) {
-            continue; // border node?
-          }
+  private void recordPhase(String operationName, long phaseStart, int linksBefore) {
+    linksProcessedPerPass.merge(operationName, linksProcessed - linksBefore, Integer::sum);
+    phaseTimings.add(operationName, System.nanoTime() - phaseStart, 1, linksProcessed - linksBefore);
+  }
 
-          if (guideTrack != null) {
-            int gidx = path.treedepth + 1;
-            if (gidx >= guideTrack.nodes.size()) {
-              continue;
-            }
-            OsmPathElement guideNode = guideTrack.nodes.get(routingContext.inverseRouting ? guideTrack.nodes.size() - 1 - gidx : gidx);
-            long nextId = nextNode.getIdFromPos();
-            if (nextId != guideNode.getIdFromPos()) {
-              // not along the guide-track, discard, but register for voice-hint processing
-              if (routingContext.turnInstructionMode > 0) {
-                OsmPath detour = routingContext.createPath(path, link, refTrack, true);
-                if (detour.cost >= 0. && nextId != startNodeId1 && nextId != startNodeId2) {
-                  guideTrack.registerDetourForId(currentNode.getIdFromPos(), OsmPathElement.create(detour));
-                }
-              }
-              continue;
-            }
-          }
+  /**
+   * Recycle a path popped from the open set if the pool is enabled
+   * and the path is no longer reachable from its link
+   */
+  private void recyclePath(OsmPath path) {
+    if (routingContext.pathPooling && path.detached) {
+      routingContext.pathPool.recycle(path);
+    }
+  }
 
-          OsmPath bestPath = null;
+  /**
+   * Recycle a path that was created but never added to a link or the open set
+   */
+  private void recycleUnusedPath(OsmPath path) {
+    if (routingContext.pathPooling && path != null) {
+      routingContext.pathPool.recycle(path);
+    }
+  }
 
-          boolean isFinalLink = false;
-          long targetNodeId = nextNode.getIdFromPos();
-          if (currentNodeId == endNodeId1 || currentNodeId == endNodeId2) {
-            if (targetNodeId == endNodeId1 || targetNodeId == endNodeId2) {
-              isFinalLink = true;
-            }
-          }
+  private boolean useBidirectionalSearch(MatchedWaypoint startWp, MatchedWaypoint endWp) {
+    if (!routingContext.bidirectionalSearch || routingContext.ai != null || routingContext.inverseRouting
+      || routingContext.forceUseStartDirection || boundary != null || endWp == null) {
+      return false;
+    }
+    boolean sameSegment = (startWp.node1.getIdFromPos() == endWp.node1.getIdFromPos() && startWp.node2.getIdFromPos() == endWp.node2.getIdFromPos())
+      || (startWp.node1.getIdFromPos() == endWp.node2.getIdFromPos() && startWp.node2.getIdFromPos() == endWp.node1.getIdFromPos());
+    return !sameSegment;
+  }
 
-          for (OsmLinkHolder linkHolder = firstLinkHolder; linkHolder != null; linkHolder = linkHolder.getNextForLink()) {
-            OsmPath otherPath = (OsmPath) linkHolder;
-            try {
-              if (isFinalLink) {
-                endPos.radius = 1.5; // 1.5 meters is the upper limit that will not change the unit-test result..
-                routingContext.setWaypoint(endPos, true);
-              }
-              OsmPath testPath = routingContext.createPath(otherPath, link, refTrack, guideTrack != null);
-              if (testPath.cost >= 0 && (bestPath == null || testPath.cost < bestPath.cost) &&
-                (testPath.sourceNode.getIdFromPos() != testPath.targetNode.getIdFromPos())) {
-                bestPath = testPath;
-              }
-            } finally {
-              if (isFinalLink) {
-                routingContext.unsetWaypoint();
-              }
-            }
-          }
-          if (bestPath != null) {
-            bestPath.airdistance = isFinalLink ? 0 : nextNode.calcDistance(endPos);
+  private boolean useOverlay(MatchedWaypoint startWp, MatchedWaypoint endWp) {
+    if (!routingContext.useOverlay || routingContext.ai != null || routingContext.inverseRouting
+      || routingContext.forceUseStartDirection || boundary != null || endWp == null) {
+      return false;
+    }
+    return startWp.crosspoint.calcDistance(endWp.crosspoint) >= routingContext.overlayMinDistance;
+  }
 
-            boolean inRadius = boundary == null || boundary.isInBoundary(nextNode, bestPath.cost);
+  /**
+   * Replacement for pass0: search from both ends, then evaluate the
+   * node sequence found exactly by a guided re-tracking.
+   * <p>
+   * The backward search uses the inverse-direction cost evaluation, so its
+   * costs (and the meeting point) are approximate. The result is used just
+   * as the cost-cutting track for pass1, which does the exact search.
+   * <p>
+   * The stop criterion needs an admissible potential, so the airdistance
+   * factor is capped at 1 (costs per meter are never below 1).
+   *
+   * @return the exactly evaluated track, or null to fall back to pass0
+   */
+  private OsmTrack findBidirectionalTrack(MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack) {
+    OsmTrack guide;
+    double factor = airDistanceCostFactor;
+    airDistanceCostFactor = Math.min(factor, 1.);
+    try {
+      guide = searchBothSides(startWp, endWp, null);
+    } finally {
+      airDistanceCostFactor = factor;
+    }
+    if (guide == null) {
+      return null;
+    }
+    return retrackGuide("bidir-re-tracking", startWp, endWp, guide, refTrack);
+  }
 
-            if (inRadius && (isFinalLink || bestPath.cost + bestPath.airdistance <= (lastAirDistanceCostFactor != 0. ? maxTotalCost * lastAirDistanceCostFactor : maxTotalCost) + addDiff)) {
-              // add only if this may beat an existing path for that link
-              OsmLinkHolder dominator = link.getFirstLinkHolder(currentNode);
-              while (dominator != null) {
-                OsmPath dp = (OsmPath) dominator;
-                if (dp.airdistance != -1 && bestPath.definitlyWorseThan(dp)) {
-                  break;
-                }
-                dominator = dominator.getNextForLink();
-              }
+  /**
+   * Long-haul query using the profile's shortcut overlay: plain searches
+   * from both ends collect the nearest overlay nodes, the overlay
+   * connects them, and the node sequence is evaluated exactly
+   * by a guided re-tracking.
+   * <p>
+   * The result is not guaranteed to be the optimum of the exact search.
+   * As the re-tracked track misses the end node, the checked guide track
+   * (with the exact cost) is returned for the final re-tracking.
+   *
+   * @return the guide track, or null to fall back to the regular passes
+   */
+  private OsmTrack findOverlayTrack(MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack) {
+    OverlayGraph overlay = OverlayGraph.getInstance(segmentDir, routingContext.getProfileName(), routingContext.expctxWay.meta.lookupVersion);
+    if (overlay == null) {
+      logInfo("no overlay for profile " + routingContext.getProfileName());
+      return null;
+    }
+    OsmTrack guide;
+    double factor = airDistanceCostFactor;
+    airDistanceCostFactor = 0.;
+    try {
+      guide = searchBothSides(startWp, endWp, overlay);
+    } finally {
+      airDistanceCostFactor = factor;
+    }
+    if (guide == null) {
+      return null;
+    }
+    OsmTrack t = retrackGuide("overlay-re-tracking", startWp, endWp, guide, refTrack);
+    if (t == null) {
+      return null;
+    }
+    guide.cost = t.cost;
+    return guide;
+  }
 
-              if (dominator == null) {
-                bestPath.treedepth = path.treedepth + 1;
-                link.addLinkHolder(bestPath, currentNode);
-                addToOpenset(bestPath);
-              }
-            }
-          }
+  private OsmTrack retrackGuide(String operationName, MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack guide, OsmTrack refTrack) {
+    double factor = airDistanceCostFactor;
+    airDistanceCostFactor = 0.;
+    guideTrack = guide;
+    try {
+      OsmTrack t = findTrack(operationName, startWp, endWp, null, refTrack, false);
+      if (t == null) {
+        logInfo(operationName + ": guide track not feasible, falling back to regular search");
+      }
+      return t;
+    } catch (IllegalArgumentException iae) {
+      if (terminated) throw iae;
+      logInfo(operationName + " failed: " + iae.getMessage());
+      return null;
+    } finally {
+      guideTrack = null;
+      airDistanceCostFactor = factor;
+    }
+  }
+
+  private static final class SearchSide {
+    NodesCache cache;
+    IntPriorityQueue<OsmPath> openSet;
+    CompactLongMap<OsmPath> reached = new CompactLongMap<>();
+    boolean inverse;
+    OsmNodeNamed origin;
+    OsmNodeNamed target;
+    int lastKey;
+    int nodesVisited;
+  }
+
+  private OsmTrack searchBothSides(MatchedWaypoint startWp, MatchedWaypoint endWp, OverlayGraph overlay) {
+    SearchSide forward = new SearchSide();
+    SearchSide backward = new SearchSide();
+    forward.openSet = createOpenSet();
+    backward.openSet = createOpenSet();
+    int linksBefore = linksProcessed;
+    long phaseStart = System.nanoTime();
+    try {
+      List<OsmNode> wpts2 = new ArrayList<>();
+      wpts2.add(startWp.waypoint);
+      wpts2.add(endWp.waypoint);
+      routingContext.cleanNogoList(wpts2);
+
+      resetCache(false);
+      long maxmem = routingContext.memoryclass * 1024L * 1024L;
+      forward.cache = nodesCache;
+      backward.cache = new NodesCache(segmentDir, routingContext.expctxWay, routingContext.forceSecondaryData, maxmem, null, false);
+      backward.inverse = true;
+      forward.origin = backward.target = new OsmNodeNamed(startWp.crosspoint);
+      forward.target = backward.origin = new OsmNodeNamed(endWp.crosspoint);
+
+      if (!initSearchSide(forward, startWp, endWp) || !initSearchSide(backward, endWp, startWp)) {
+        return null;
+      }
+      return overlay == null ? searchMeetingPoint(forward, backward) : searchOverlayPath(forward, backward, overlay);
+    } finally {
+      routingContext.inverseDirection = false;
+      routingContext.restoreNogoList();
+      nodesCache.clean(false);
+      recordPhase(overlay == null ? "bidir-search" : "overlay-search", phaseStart, linksBefore);
+      if (backward.cache != null) {
+        backward.cache.close();
+      }
+    }
+  }
+
+  private boolean initSearchSide(SearchSide side, MatchedWaypoint startWp, MatchedWaypoint endWp) {
+    NodesCache cache = side.cache;
+    cache.nodesMap.cleanupMode = 0;
+    OsmNode start1 = cache.getGraphNode(startWp.node1);
+    OsmNode start2 = cache.getGraphNode(startWp.node2);
+    cache.nodesMap.endNode1 = cache.getGraphNode(endWp.node1);
+    cache.nodesMap.endNode2 = cache.getGraphNode(endWp.node2);
+    if (!cache.obtainNonHollowNode(start1) || !cache.obtainNonHollowNode(start2)) {
+      return false;
+    }
+    cache.expandHollowLinkTargets(start1);
+    cache.expandHollowLinkTargets(start2);
+
+    routingContext.inverseDirection = side.inverse;
+    routingContext.startDirectionValid = false;
+    OsmPath startPath1 = getStartPath(start1, start2, startWp, null, false);
+    OsmPath startPath2 = getStartPath(start2, start1, startWp, null, false);
+    if (startPath1 == null || startPath2 == null) {
+      return false;
+    }
+    addToSearchSide(side, startPath1, start2);
+    addToSearchSide(side, startPath2, start1);
+    return true;
+  }
+
+  // keys use the average of both airdistance-potentials, shifted to be non-negative
+  private void addToSearchSide(SearchSide side, OsmPath path, OsmNode n) {
+    if (path.cost >= 0) {
+      int airdist = side.origin.calcDistance(side.target);
+      path.airdistance = (int) (airDistanceCostFactor * (n.calcDistance(side.target) - n.calcDistance(side.origin) + airdist) / 2);
+      side.openSet.add(path.cost + path.airdistance, path);
+    }
+  }
+
+  private OsmTrack searchMeetingPoint(SearchSide forward, SearchSide backward) {
+    int bestCost = Integer.MAX_VALUE;
+    OsmPath bestForward = null;
+    OsmPath bestBackward = null;
+    int keyOffset = (int) (airDistanceCostFactor * forward.origin.calcDistance(forward.target));
+
+    for (; ; ) {
+      // expand the side with the smaller open set
+      SearchSide side = forward.openSet.getSize() <= backward.openSet.getSize() ? forward : backward;
+      SearchSide other = side == forward ? backward : forward;
+      OsmPath path = settleNext(side);
+      if (path == null) {
+        break; // one side exhausted, no better meeting possible
+      }
+
+      // no path via the remaining open sets can beat the best meeting
+      if (bestCost < Integer.MAX_VALUE && side.lastKey + other.lastKey >= bestCost + keyOffset) {
+        break;
+      }
+
+      OsmPath meeting = other.reached.get(path.getTargetNode().getIdFromPos());
+      if (meeting != null && meeting.getSourceNode().getIdFromPos() != path.getSourceNode().getIdFromPos()) { // no u-turn
+        int c = path.cost + meeting.cost;
+        if (c < bestCost) {
+          bestCost = c;
+          bestForward = side == forward ? path : meeting;
+          bestBackward = side == forward ? meeting : path;
         }
       }
     }
 
-    if (nodesVisited < MAXNODES_ISLAND_CHECK && islandNodePairs.getFreezeCount() < 5) {
-      throw new RoutingIslandException();
+    int nodesVisited = forward.nodesVisited + backward.nodesVisited;
+    if (bestForward == null) {
+      logInfo("bidirectional search found no meeting point, nodesVisited=" + nodesVisited);
+      return null;
+    }
+    logInfo("bidirectional search met at cost " + bestCost + " nodesVisited = " + nodesVisited);
+    return createGuideTrack(bestForward, null, bestBackward);
+  }
+
+  private OsmTrack searchOverlayPath(SearchSide forward, SearchSide backward, OverlayGraph overlay) {
+    List<OsmPath> entries = collectOverlayNodes(forward, overlay);
+    List<OsmPath> exits = collectOverlayNodes(backward, overlay);
+    if (entries == null || exits == null) {
+      return null;
+    }
+    int[] sources = new int[entries.size()];
+    int[] sourceCosts = new int[entries.size()];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = overlay.getNodeIndex(entries.get(i).getTargetNode().getIdFromPos());
+      sourceCosts[i] = entries.get(i).cost;
+    }
+    int[] targets = new int[exits.size()];
+    int[] targetCosts = new int[exits.size()];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = overlay.getNodeIndex(exits.get(i).getTargetNode().getIdFromPos());
+      targetCosts[i] = exits.get(i).cost;
+    }
+    long[] ids = overlay.findPath(sources, sourceCosts, targets, targetCosts);
+    if (ids == null) {
+      logInfo("no overlay path between " + entries.size() + " entries and " + exits.size() + " exits");
+      return null;
+    }
+    OsmPath entry = entries.get(0);
+    for (OsmPath p : entries) {
+      if (p.getTargetNode().getIdFromPos() == ids[0]) {
+        entry = p;
+      }
+    }
+    OsmPath exit = exits.get(0);
+    for (OsmPath p : exits) {
+      if (p.getTargetNode().getIdFromPos() == ids[ids.length - 1]) {
+        exit = p;
+      }
     }
+    logInfo("overlay path with " + ids.length + " nodes, nodesVisited=" + (forward.nodesVisited + backward.nodesVisited));
+    return createGuideTrack(entry, ids, exit);
+  }
 
-    return null;
+  // the cheapest paths to the nearest overlay nodes
+  private List<OsmPath> collectOverlayNodes(SearchSide side, OverlayGraph overlay) {
+    List<OsmPath> found = new ArrayList<>();
+    while (found.size() < MAX_OVERLAY_ACCESS_NODES && side.nodesVisited < MAX_OVERLAY_ACCESS_VISITS) {
+      OsmPath path = settleNext(side);
+      if (path == null) {
+        break;
+      }
+      long id = path.getTargetNode().getIdFromPos();
+      if (overlay.getNodeIndex(id) < 0) {
+        continue;
+      }
+      boolean isNew = true;
+      for (OsmPath p : found) {
+        isNew &= p.getTargetNode().getIdFromPos() != id;
+      }
+      if (isNew) {
+        found.add(path);
+      }
+    }
+    if (found.isEmpty()) {
+      logInfo("no overlay node reached, nodesVisited=" + side.nodesVisited);
+      return null;
+    }
+    return found;
+  }
+
+  /**
+   * settle the next path of a search side and expand its links
+   *
+   * @return the settled path, or null if the search is exhausted
+   */
+  private OsmPath settleNext(SearchSide side) {
+    NodesCache cache = side.cache;
+    for (; ; ) {
+      checkTermination("bidirectional search", maxRunningTime);
+
+      OsmPath path = side.openSet.popLowestKeyValue();
+      if (path == null) {
+        return null;
+      }
+      if (path.airdistance == -1) {
+        continue;
+      }
+      side.lastKey = path.cost + path.airdistance;
+
+      OsmNode currentNode = path.getTargetNode();
+      if (directWeaving && cache.hasHollowLinkTargets(currentNode)
+        && !cache.nodesMap.isInMemoryBounds(side.openSet.getSize(), true)) {
+        logInfo("bidirectional search reached memory limit, nodesVisited=" + side.nodesVisited);
+        return null;
+      }
+
+      side.nodesVisited++;
+      linksProcessed++;
+
+      OsmLink currentLink = path.getLink();
+      OsmNode sourceNode = path.getSourceNode();
+      if (currentLink.isLinkUnused()) {
+        continue;
+      }
+
+      long currentNodeId = currentNode.getIdFromPos();
+      OsmPath known = side.reached.get(currentNodeId);
+      if (known == null || path.cost < known.cost) {
+        side.reached.put(currentNodeId, path);
+      }
+
+      OsmLinkHolder firstLinkHolder = settleLink(path);
+
+      routingContext.inverseDirection = side.inverse;
+      addPrePaths(cache, path);
+
+      for (OsmLink link = currentNode.firstlink; link != null; link = link.getNext(currentNode)) {
+        OsmNode nextNode = link.getTarget(currentNode);
+        if (!isExpandable(cache, nextNode, sourceNode)) {
+          continue;
+        }
+        OsmPath bestPath = getBestPath(firstLinkHolder, link, null, null);
+        if (bestPath != null && addIfNotDominated(path, bestPath, link)) {
+          addToSearchSide(side, bestPath, nextNode);
+        }
+      }
+      return path;
+    }
+  }
+
+  /**
+   * build a guide track from a path of the forward search, the ids of graph
+   * nodes in between (may be null) and a path of the backward search
+   */
+  private OsmTrack createGuideTrack(OsmPath forwardPath, long[] middle, OsmPath backwardPath) {
+    OsmTrack guide = new OsmTrack();
+    for (OsmPathElement pe = OsmPathElement.create(forwardPath); pe != null; pe = pe.origin) {
+      if (guide.nodes.isEmpty() || !pe.positionEquals(guide.nodes.get(0))) {
+        guide.nodes.add(0, pe);
+      }
+    }
+    if (middle != null) {
+      for (long id : middle) {
+        OsmPathElement pe = OsmPathElement.create((int) (id >> 32), (int) id, (short) 0, null);
+        if (!pe.positionEquals(guide.nodes.get(guide.nodes.size() - 1))) {
+          guide.nodes.add(pe);
+        }
+      }
+    }
+    for (OsmPathElement pe = OsmPathElement.create(backwardPath); pe != null; pe = pe.origin) {
+      if (!pe.positionEquals(guide.nodes.get(guide.nodes.size() - 1))) {
+        guide.nodes.add(pe);
+      }
+    }
+    guide.cost = 1000000000 - 5000; // approximate cost, so no cost-cutoff when re-tracking
+    return guide;
   }
 
   private void addToOpenset(OsmPath path) {
@@ -2393,6 +3867,20 @@ public class RoutingEngine extends Thread {
     return linksProcessed;
   }
 
+  /**
+   * @return the links processed per search pass (pass0, pass1, re-tracking, ...), summed over the legs
+   */
+  public Map<String, Integer> getLinksProcessedPerPass() {
+    return linksProcessedPerPass;
+  }
+
+  /**
+   * @return the wall time per phase, the caller may add its own phases (e.g. formatting)
+   */
+  public PhaseTimings getPhaseTimings() {
+    return phaseTimings;
+  }
+
   public int getDistance() {
     return foundTrack.distance;
   }
@@ -2417,6 +3905,21 @@ public class RoutingEngine extends Thread {
     return outputMessage;
   }
 
+  public RouteMatrix getFoundMatrix() {
+    return foundMatrix;
+  }
+
+  public IsochroneGrid getFoundIsochrone() {
+    return foundIsochrone;
+  }
+
+  /**
+   * @return how often the search ran out of memory and switched to memory panic mode
+   */
+  public int getMemoryPanics() {
+    return memoryPanics;
+  }
+
   public int getAlternativeIndex() {
     return alternativeIndex;
   }
@@ -2431,12 +3934,27 @@ public class RoutingEngine extends Thread {
 
   public void terminate() {
     terminated = true;
+    RoutingEngine[] engines = legEngines;
+    if (engines != null) {
+      for (RoutingEngine re : engines) {
+        if (re != null) {
+          re.terminate();
+        }
+      }
+    }
   }
 
   public boolean isTerminated() {
     return terminated;
   }
 
+  /**
+   * @return true if the request failed because a search exceeded the maximum running time
+   */
+  public boolean isTimedOut() {
+    return timedOut && errorMessage != null;
+  }
+
   public String getOutfile() {
     return outfile;
   }
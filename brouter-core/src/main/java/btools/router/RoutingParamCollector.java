@@ -202,6 +202,20 @@ public class RoutingParamCollector {
           }
         } else if (key.equals("pois")) {
           rctx.poipoints = readPoisList(value);
+        } else if (key.equals("targets")) {
+          rctx.matrixTargets = getWayPointList(value);
+        } else if (key.equals("isochroneLimits")) {
+          String[] sa = value.split(",");
+          rctx.isochroneLimits = new int[sa.length];
+          for (int i = 0; i < sa.length; i++) {
+            rctx.isochroneLimits[i] = Integer.parseInt(sa[i]);
+          }
+        } else if (key.equals("isochroneType")) {
+          rctx.isochroneType = value.toLowerCase();
+        } else if (key.equals("isochroneCellSize")) {
+          rctx.isochroneCellSize = Integer.parseInt(value);
+        } else if (key.equals("isochroneFormat")) {
+          rctx.isochroneGrid = "grid".equalsIgnoreCase(value);
         } else if (key.equals("heading")) {
           rctx.startDirection = Integer.valueOf(value);
           rctx.forceUseStartDirection = true;
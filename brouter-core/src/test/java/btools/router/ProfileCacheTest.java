@@ -0,0 +1,58 @@
+package btools.router;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import btools.expressions.BExpressionContextWay;
+
+public class ProfileCacheTest {
+
+  @Test
+  public void reuseTest() throws IOException {
+    File profile = new File(new File(".").getCanonicalFile(), "../misc/profiles2/trekking.brf");
+    ProfileCache.setSize(2);
+    try {
+      long hits = ProfileCache.getHits();
+
+      RoutingContext rc1 = newContext(profile, null);
+      Assert.assertFalse(ProfileCache.parseProfile(rc1));
+      RoutingContext rc2 = newContext(profile, null);
+      Assert.assertTrue("profile not re-used", ProfileCache.parseProfile(rc2));
+      Assert.assertTrue("busy evaluators must not be shared", rc1.expctxWay != rc2.expctxWay);
+      Assert.assertEquals(hits + 1, ProfileCache.getHits());
+      Assert.assertEquals(rc1.expctxWay.getVariableValue("validForBikes", 0.f), rc2.expctxWay.getVariableValue("validForBikes", 0.f), 0.);
+
+      BExpressionContextWay rc1Way = rc1.expctxWay;
+      ProfileCache.releaseProfile(rc1);
+
+      RoutingContext rc3 = newContext(profile, null);
+      Assert.assertTrue(ProfileCache.parseProfile(rc3));
+      Assert.assertTrue("idle evaluator not re-used", rc3.expctxWay == rc1Way);
+
+      ProfileCache.releaseProfile(rc2);
+
+      // other parameters -> other entry
+      HashMap<String, String> keyValues = new HashMap<>();
+      keyValues.put("avoid_unsafe", "1.0");
+      RoutingContext rc4 = newContext(profile, keyValues);
+      Assert.assertFalse(ProfileCache.parseProfile(rc4));
+      Assert.assertEquals(1.f, rc4.expctxWay.getVariableValue("avoid_unsafe", 0.f), 0.);
+
+      ProfileCache.releaseProfile(rc3);
+      ProfileCache.releaseProfile(rc4);
+    } finally {
+      ProfileCache.setSize(1);
+    }
+  }
+
+  private static RoutingContext newContext(File profile, HashMap<String, String> keyValues) {
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = profile.getPath();
+    rc.keyValues = keyValues;
+    return rc;
+  }
+}
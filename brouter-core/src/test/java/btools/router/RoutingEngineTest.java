@@ -4,13 +4,34 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import btools.mapaccess.MatchedWaypoint;
+import btools.mapaccess.OsmNode;
 
 public class RoutingEngineTest {
+  // routes to compare the search variants with the regular search
+  private static final double[][] COMPARE_ROUTES = {
+    {8.720897, 50.002515, 8.723658, 49.997510},
+    {8.723037, 50.000491, 8.712737, 50.002899},
+    {8.705796, 50.003124, 8.729358, 49.997404}
+  };
+
   private File workingDir;
 
   @Before
@@ -64,35 +85,370 @@ public class RoutingEngineTest {
     Assert.assertTrue("result content mismatch", trackFile.exists());
   }
 
+  // the bidirectional search replaces pass0 only, so the result must be the same
+  @Test
+  public void bidirectionalSearch() {
+    for (double[] r : COMPARE_ROUTES) {
+      assertSameRoute(r, variantContext(null, "bidirectionalSearch", "1"));
+    }
+  }
+
+  // the overlay is an approximation, so the track may be a bit more expensive
+  @Test
+  public void overlayRoute() {
+    for (double[] r : new double[][]{COMPARE_ROUTES[0], COMPARE_ROUTES[2]}) {
+      RoutingEngine[] engines = routeBoth(r, variantContext(carProfile(), "useOverlay", "1", "overlayMinDistance", "0"));
+      int cost = engines[1].getFoundTrack().cost;
+      int referenceCost = engines[0].getFoundTrack().cost;
+      Assert.assertTrue("overlay track cost=" + cost + " reference=" + referenceCost, cost <= referenceCost * 1.1);
+    }
+  }
+
+  @Test
+  public void pathPooling() {
+    for (String profile : new String[]{null, carProfile()}) {
+      for (double[] r : new double[][]{COMPARE_ROUTES[0], COMPARE_ROUTES[2]}) {
+        RoutingContext rctx = variantContext(profile, "pathPooling", "1");
+        assertSameRoute(r, rctx);
+        Assert.assertTrue("no paths reused", rctx.pathPool.reused > 0);
+      }
+    }
+  }
+
+  @Test
+  public void radixHeapOpenSet() {
+    for (String profile : new String[]{null, carProfile()}) {
+      for (double[] r : new double[][]{COMPARE_ROUTES[0], COMPARE_ROUTES[2]}) {
+        assertSameRoute(r, variantContext(profile, "openSetType", "1"));
+      }
+    }
+  }
+
+  @Test
+  public void parallelLegs() throws IOException {
+    double[] lonlats = {8.720897, 50.002515, 8.723658, 49.997510, 8.712737, 50.002899, 8.729358, 49.997404};
+    File sequentialFile = new File(workingDir, "sequentialTrack0.gpx");
+    File parallelFile = new File(workingDir, "parallelTrack0.gpx");
+    sequentialFile.deleteOnExit();
+    parallelFile.deleteOnExit();
+
+    RoutingEngine sequential = runRoute(lonlats, "sequentialTrack", new RoutingContext());
+    Assert.assertNull("routing failed: " + sequential.getErrorMessage(), sequential.getErrorMessage());
+
+    RoutingContext rctx = new RoutingContext();
+    rctx.keyValues = new HashMap<>();
+    rctx.keyValues.put("parallelLegs", "1");
+    RoutingEngine parallel = runRoute(lonlats, "parallelTrack", rctx);
+    Assert.assertNull("routing failed: " + parallel.getErrorMessage(), parallel.getErrorMessage());
+
+    Assert.assertEquals(sequential.getFoundTrack().cost, parallel.getFoundTrack().cost);
+    Assert.assertEquals(new String(Files.readAllBytes(sequentialFile.toPath()), StandardCharsets.UTF_8),
+      new String(Files.readAllBytes(parallelFile.toPath()), StandardCharsets.UTF_8));
+  }
+
+  // the re-tracking walk along the guide registers the same detours as the
+  // guided search did, expected hints are the output of that search
+  @Test
+  public void reTrackingVoiceHints() {
+    new File(workingDir, "hintTrack0.gpx").deleteOnExit();
+    RoutingContext rctx = new RoutingContext();
+    rctx.turnInstructionMode = 9;
+    RoutingEngine re = runRoute(8.725, 50.006, 8.70, 49.998, "hintTrack", rctx);
+    Assert.assertNull("routing failed: " + re.getErrorMessage(), re.getErrorMessage());
+
+    String gpx = new FormatGpx(rctx).format(re.getFoundTrack());
+    List<String> hints = new ArrayList<>();
+    String tag = "<brouter:voicehint>";
+    for (int idx = gpx.indexOf(tag); idx >= 0; idx = gpx.indexOf(tag, idx + 1)) {
+      String hint = gpx.substring(idx + tag.length(), gpx.indexOf('<', idx + tag.length()));
+      if (!hints.contains(hint)) {
+        hints.add(hint);
+      }
+    }
+    Assert.assertEquals(Arrays.asList(
+      "TSLL;294, 4(-55)6 (131)6",
+      "TSLL;63, 6(-24)6 (140)6",
+      "RNDB1;122, 6(-88)22",
+      "RNDB2;106, 22(-116)22 (-36)22",
+      "TL;187, 22(-81)6 (5)22",
+      "TL;795, 6(-89)6 (92)6 (8)6",
+      "TR;14, 22(92)6 (-3)22 (-3)22",
+      "TL;233, 6(-61)6 (6)6 (6)6 (6)6 (6)6",
+      "TSLR;291, 6(45)6 (-25)6"), hints);
+  }
+
+  // the map creator marks small disconnected components, so a target on such an
+  // island is matched to the main network, while routing within the island still works
+  @Test
+  public void precomputedIslands() {
+    new File(workingDir, "islandTrack0.gpx").deleteOnExit();
+    RoutingEngine re = runRoute(8.720897, 50.002515, 8.725400, 49.997675, "islandTrack", new RoutingContext());
+    Assert.assertNull("routing failed: " + re.getErrorMessage(), re.getErrorMessage());
+    Assert.assertEquals(0L, re.matchedWaypoints.get(1).islandId);
+
+    re = runRoute(8.725400, 49.997675, 8.725600, 49.997775, "islandTrack", new RoutingContext());
+    Assert.assertNull("routing failed: " + re.getErrorMessage(), re.getErrorMessage());
+    long islandId = re.matchedWaypoints.get(0).islandId;
+    Assert.assertNotEquals(0L, islandId);
+    Assert.assertEquals(islandId, re.matchedWaypoints.get(1).islandId);
+    Assert.assertFalse("island check on the same island", re.getLinksProcessedPerPass().containsKey("target-island-check"));
+  }
+
+  // rejecting an island at a later waypoint keeps the matching of the others
+  @Test
+  public void precomputedIslandAtVia() {
+    double[] lonlats = {8.720897, 50.002515, 8.723658, 49.997510, 8.712737, 50.002899};
+    new File(workingDir, "viaTrack0.gpx").deleteOnExit();
+    RoutingEngine main = runRoute(lonlats, "viaTrack", new RoutingContext());
+    Assert.assertNull("routing failed: " + main.getErrorMessage(), main.getErrorMessage());
+
+    double[] withIsland = Arrays.copyOf(lonlats, lonlats.length + 2);
+    withIsland[lonlats.length] = 8.729358;
+    withIsland[lonlats.length + 1] = 49.997404;
+    RoutingEngine re = runRoute(withIsland, "viaTrack", new RoutingContext());
+    Assert.assertNull("routing failed: " + re.getErrorMessage(), re.getErrorMessage());
+    for (int i = 0; i < 3; i++) {
+      OsmNode expected = main.matchedWaypoints.get(i).crosspoint;
+      OsmNode matched = re.matchedWaypoints.get(i).crosspoint;
+      Assert.assertEquals("waypoint " + i, expected.ilon, matched.ilon);
+      Assert.assertEquals("waypoint " + i, expected.ilat, matched.ilat);
+    }
+  }
+
+  // each matrix entry is the same as for a route between the two points
+  @Test
+  public void matrix() {
+    double[] sources = {8.720897, 50.002515, 8.723658, 49.997510};
+    double[] targets = {8.723658, 49.997510, 8.712737, 50.002899, 8.720897, 50.002515};
+    new File(workingDir, "matrixTrack.json").deleteOnExit();
+    RoutingContext rctx = new RoutingContext();
+    rctx.matrixTargets = createWaypoints(targets);
+    RoutingEngine re = runRoute(sources, "matrixTrack", rctx, RoutingEngine.BROUTER_ENGINEMODE_MATRIX);
+    Assert.assertNull("matrix failed: " + re.getErrorMessage(), re.getErrorMessage());
+    RouteMatrix matrix = re.getFoundMatrix();
+
+    for (int row = 0; row < 2; row++) {
+      for (int col = 0; col < 3; col++) {
+        if (sources[2 * row] == targets[2 * col]) {
+          Assert.assertEquals(0, matrix.cost[row][col]);
+          continue;
+        }
+        new File(workingDir, "cellTrack0.gpx").deleteOnExit();
+        RoutingEngine cell = runRoute(sources[2 * row], sources[2 * row + 1], targets[2 * col], targets[2 * col + 1], "cellTrack", new RoutingContext());
+        Assert.assertNull("routing failed: " + cell.getErrorMessage(), cell.getErrorMessage());
+        OsmTrack track = cell.getFoundTrack();
+        Assert.assertEquals("cost " + row + "/" + col, track.cost, matrix.cost[row][col]);
+        Assert.assertEquals("distance " + row + "/" + col, track.distance, matrix.distance[row][col]);
+        Assert.assertEquals("time " + row + "/" + col, track.getTotalSeconds(), matrix.time[row][col]);
+      }
+    }
+  }
+
+  // a point reached by a route within the limit is inside the isochrone
+  @Test
+  public void isochrone() {
+    RoutingEngine route = runRoute(8.720897, 50.002515, 8.723658, 49.997510, "isoRouteTrack", new RoutingContext());
+    new File(workingDir, "isoRouteTrack0.gpx").deleteOnExit();
+    Assert.assertNull("routing failed: " + route.getErrorMessage(), route.getErrorMessage());
+    int seconds = route.getFoundTrack().getTotalSeconds();
+
+    new File(workingDir, "isochroneTrack.geojson").deleteOnExit();
+    RoutingContext rctx = new RoutingContext();
+    rctx.isochroneLimits = new int[]{seconds + 60, seconds / 2};
+    RoutingEngine re = runRoute(new double[]{8.720897, 50.002515}, "isochroneTrack", rctx, RoutingEngine.BROUTER_ENGINEMODE_ISOCHRONE);
+    Assert.assertNull("isochrone failed: " + re.getErrorMessage(), re.getErrorMessage());
+    IsochroneGrid grid = re.getFoundIsochrone();
+
+    OsmNodeNamed target = createWaypoints(new double[]{8.723658, 49.997510}).get(0);
+    int value = grid.getValueAt(target.ilon, target.ilat);
+    Assert.assertTrue("target not reached: " + value, value >= 0 && value <= seconds + 60);
+    Assert.assertFalse(grid.getPolygons(seconds / 2).isEmpty());
+
+    int inner = 0;
+    int outer = 0;
+    for (int row = 0; row < grid.getHeight(); row++) {
+      for (int col = 0; col < grid.getWidth(); col++) {
+        int v = grid.getValue(col, row);
+        if (v >= 0 && v <= seconds / 2) inner++;
+        if (v >= 0) outer++;
+      }
+    }
+    Assert.assertTrue(inner > 0 && inner < outer);
+  }
+
+  // the cell size is clamped and the grid size is limited
+  @Test
+  public void isochroneGridLimits() {
+    IsochroneGrid grid = new IsochroneGrid(188720897, 140002515, 0);
+    Assert.assertEquals(IsochroneGrid.MIN_CELL_SIZE, grid.cellSize);
+    grid.set(188730897, 140012515, 1);
+    try {
+      grid.set(189720897, 141002515, 2);
+      Assert.fail("grid size not limited");
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("isochroneCellSize"));
+    }
+  }
+
+  // snapping many points at once (waypoint grid) gives the same result as snapping each point alone
+  @Test
+  public void snap() {
+    double[] lonlats = new double[2 * 36];
+    for (int i = 0; i < 36; i++) {
+      lonlats[2 * i] = 8.700 + 0.005 * (i % 6);
+      lonlats[2 * i + 1] = 49.998 + 0.0016 * (i / 6);
+    }
+    new File(workingDir, "snapTrack.json").deleteOnExit();
+    RoutingEngine re = runRoute(lonlats, "snapTrack", new RoutingContext(), RoutingEngine.BROUTER_ENGINEMODE_SNAP);
+    Assert.assertNull("snap failed: " + re.getErrorMessage(), re.getErrorMessage());
+    Assert.assertEquals(36, re.matchedWaypoints.size());
+
+    int snapped = 0;
+    for (int i = 0; i < 36; i++) {
+      MatchedWaypoint mwp = re.matchedWaypoints.get(i);
+      RoutingEngine single = runRoute(new double[]{lonlats[2 * i], lonlats[2 * i + 1]}, "snapTrack", new RoutingContext(), RoutingEngine.BROUTER_ENGINEMODE_SNAP);
+      MatchedWaypoint expected = single.matchedWaypoints.get(0);
+      if (expected.crosspoint == null) {
+        Assert.assertNull("point " + i, mwp.crosspoint);
+        continue;
+      }
+      snapped++;
+      Assert.assertNotNull("point " + i, mwp.crosspoint);
+      Assert.assertEquals("point " + i, expected.radius, mwp.radius, 0.01);
+      Assert.assertTrue("point " + i, mwp.radius <= 250.);
+      Assert.assertEquals("point " + i, expected.crosspoint.ilon, mwp.crosspoint.ilon);
+      Assert.assertEquals("point " + i, expected.crosspoint.ilat, mwp.crosspoint.ilat);
+    }
+    Assert.assertTrue(snapped > 18);
+  }
+
+  // the formatters give the output of the string building formatters
+  // (resources/formats), also when streaming through gzip
+  @Test
+  public void streamingFormatters() throws IOException {
+    double[] lonlats = {8.718354, 50.001514, 8.718917, 50.001361, 8.716986, 50.000105};
+    File trackFile = new File(workingDir, "formatTrack0.gpx");
+    trackFile.deleteOnExit();
+    for (int timode : new int[]{0, 2, 3, 4, 7, 9}) {
+      trackFile.delete(); // else the next alternative is routed
+      RoutingContext rctx = new RoutingContext();
+      rctx.turnInstructionMode = timode;
+      RoutingEngine re = runRoute(lonlats, "formatTrack", rctx);
+      Assert.assertNull("routing failed: " + re.getErrorMessage(), re.getErrorMessage());
+      OsmTrack track = re.getFoundTrack();
+      track.exportWaypoints = true;
+
+      Formatter[] formatters = {new FormatGpx(rctx), new FormatJson(rctx), new FormatKml(rctx), new FormatCsv(rctx)};
+      String[] resources = {"formatTrack" + timode + ".gpx", "formatTrack" + timode + ".json", "formatTrack.kml", "formatTrack.csv"};
+      for (int i = 0; i < formatters.length; i++) {
+        String message = formatters[i].getClass().getSimpleName() + " timode=" + timode;
+        String expected = readResource("/formats/" + resources[i]);
+        Assert.assertEquals(message, expected, withoutVersion(formatters[i].format(track)));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Writer w = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(baos), StandardCharsets.UTF_8));
+        formatters[i].format(track, w);
+        w.close();
+        byte[] streamed = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray())).readAllBytes();
+        Assert.assertEquals(message + " streamed", expected, withoutVersion(new String(streamed, StandardCharsets.UTF_8)));
+      }
+    }
+  }
+
+  private String readResource(String name) throws IOException {
+    URL url = this.getClass().getResource(name);
+    Assert.assertNotNull("resource not found: " + name, url);
+    return new String(Files.readAllBytes(new File(url.getFile()).toPath()), StandardCharsets.UTF_8);
+  }
+
+  // the expected files are independent of the build version
+  private static String withoutVersion(String s) {
+    return s.replace("BRouter-" + OsmTrack.version, "BRouter-");
+  }
+
+  private String carProfile() {
+    return workingDir.getAbsolutePath() + "/../../../../misc/profiles2/car-vario.brf";
+  }
+
+  /**
+   * @param keyValues pairs of profile variables and values
+   */
+  private static RoutingContext variantContext(String profile, String... keyValues) {
+    RoutingContext rctx = new RoutingContext();
+    rctx.localFunction = profile;
+    rctx.keyValues = new HashMap<>();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      rctx.keyValues.put(keyValues[i], keyValues[i + 1]);
+    }
+    return rctx;
+  }
+
+  // route with a plain context for the variant's profile and with the variant
+  private RoutingEngine[] routeBoth(double[] route, RoutingContext variant) {
+    RoutingContext rctx = new RoutingContext();
+    rctx.localFunction = variant.localFunction;
+    RoutingEngine reference = runRoute(route, "referenceTrack", rctx);
+    Assert.assertNull("routing failed: " + reference.getErrorMessage(), reference.getErrorMessage());
+    RoutingEngine re = runRoute(route, "variantTrack", variant);
+    Assert.assertNull("routing failed: " + re.getErrorMessage(), re.getErrorMessage());
+    new File(workingDir, "referenceTrack0.gpx").deleteOnExit();
+    new File(workingDir, "variantTrack0.gpx").deleteOnExit();
+    return new RoutingEngine[]{reference, re};
+  }
+
+  private void assertSameRoute(double[] route, RoutingContext variant) {
+    RoutingEngine[] engines = routeBoth(route, variant);
+    OsmTrack reference = engines[0].getFoundTrack();
+    OsmTrack track = engines[1].getFoundTrack();
+    Assert.assertEquals(reference.cost, track.cost);
+    Assert.assertEquals(reference.distance, track.distance);
+    Assert.assertEquals(reference.nodes.size(), track.nodes.size());
+  }
+
   private String calcRoute(double flon, double flat, double tlon, double tlat, String trackname, RoutingContext rctx) {
-    String wd = workingDir.getAbsolutePath();
+    return runRoute(flon, flat, tlon, tlat, trackname, rctx).getErrorMessage();
+  }
 
-    List<OsmNodeNamed> wplist = new ArrayList<>();
-    OsmNodeNamed n;
-    n = new OsmNodeNamed();
-    n.name = "from";
-    n.ilon = 180000000 + (int) (flon * 1000000 + 0.5);
-    n.ilat = 90000000 + (int) (flat * 1000000 + 0.5);
-    wplist.add(n);
+  private RoutingEngine runRoute(double flon, double flat, double tlon, double tlat, String trackname, RoutingContext rctx) {
+    return runRoute(new double[]{flon, flat, tlon, tlat}, trackname, rctx);
+  }
+
+  private RoutingEngine runRoute(double[] lonlats, String trackname, RoutingContext rctx) {
+    return runRoute(lonlats, trackname, rctx, RoutingEngine.BROUTER_ENGINEMODE_ROUTING);
+  }
 
-    n = new OsmNodeNamed();
-    n.name = "to";
-    n.ilon = 180000000 + (int) (tlon * 1000000 + 0.5);
-    n.ilat = 90000000 + (int) (tlat * 1000000 + 0.5);
-    wplist.add(n);
+  private RoutingEngine runRoute(double[] lonlats, String trackname, RoutingContext rctx, int engineMode) {
+    String wd = workingDir.getAbsolutePath();
+    List<OsmNodeNamed> wplist = createWaypoints(lonlats);
 
-    rctx.localFunction = wd + "/../../../../misc/profiles2/trekking.brf";
+    if (rctx.localFunction == null) {
+      rctx.localFunction = wd + "/../../../../misc/profiles2/trekking.brf";
+    }
 
     RoutingEngine re = new RoutingEngine(
       wd + "/" + trackname,
       wd + "/" + trackname,
       new File(wd, "/../../../../brouter-map-creator/build/resources/test/tmp/segments"),
       wplist,
-      rctx);
+      rctx,
+      engineMode);
 
     re.doRun(0);
 
-    return re.getErrorMessage();
+    return re;
+  }
+
+  private List<OsmNodeNamed> createWaypoints(double[] lonlats) {
+    List<OsmNodeNamed> wplist = new ArrayList<>();
+    int nPoints = lonlats.length / 2;
+    for (int i = 0; i < nPoints; i++) {
+      OsmNodeNamed n = new OsmNodeNamed();
+      n.name = i == 0 ? "from" : (i == nPoints - 1 ? "to" : "via" + i);
+      n.ilon = 180000000 + (int) (lonlats[2 * i] * 1000000 + 0.5);
+      n.ilat = 90000000 + (int) (lonlats[2 * i + 1] * 1000000 + 0.5);
+      wplist.add(n);
+    }
+    return wplist;
   }
 
 }
@@ -313,6 +313,132 @@ final class BExpression {
     }
   }
 
+  // Generate bytecode that leaves the expression's value
+  // on the stack, with the same semantics as evaluate()
+  void compile(BExpressionCompiler c) {
+    BExpressionCompiler.Label label = new BExpressionCompiler.Label();
+    switch (typ) {
+      case OR_EXP:
+        op1.compile(c);
+        c.jumpIfZero(false, label);
+        op2.compile(c);
+        c.jumpIfZero(false, label);
+        c.pushSelect(label, 0.f, 1.f);
+        break;
+      case XOR_EXP:
+        compileOperands(c, "xor");
+        break;
+      case AND_EXP:
+        op1.compile(c);
+        c.jumpIfZero(true, label);
+        op2.compile(c);
+        c.jumpIfZero(true, label);
+        c.pushSelect(label, 1.f, 0.f);
+        break;
+      case ADD_EXP:
+        compileOperands(c, null);
+        c.op(BExpressionCompiler.FADD, -1);
+        break;
+      case SUB_EXP:
+        compileOperands(c, null);
+        c.op(BExpressionCompiler.FSUB, -1);
+        break;
+      case MULTIPLY_EXP:
+        compileOperands(c, null);
+        c.op(BExpressionCompiler.FMUL, -1);
+        break;
+      case DIVIDE_EXP:
+        compileOperands(c, "divide");
+        break;
+      case MAX_EXP:
+        compileOperands(c, "max");
+        break;
+      case MIN_EXP:
+        compileOperands(c, "min");
+        break;
+      case EQUAL_EXP:
+        compileOperands(c, null);
+        c.op(BExpressionCompiler.FCMPL, -1);
+        c.jump(BExpressionCompiler.IFNE, label);
+        c.pushSelect(label, 1.f, 0.f);
+        break;
+      case GREATER_EXP:
+        compileOperands(c, null);
+        c.op(BExpressionCompiler.FCMPL, -1); // NaN -> -1 -> false
+        c.jump(BExpressionCompiler.IFLE, label);
+        c.pushSelect(label, 1.f, 0.f);
+        break;
+      case LESSER_EXP:
+        compileOperands(c, null);
+        c.op(BExpressionCompiler.FCMPG, -1); // NaN -> 1 -> false
+        c.jump(BExpressionCompiler.IFGE, label);
+        c.pushSelect(label, 1.f, 0.f);
+        break;
+      case SWITCH_EXP:
+        BExpressionCompiler.Label end = new BExpressionCompiler.Label();
+        op1.compile(c);
+        c.jumpIfZero(true, label);
+        op2.compile(c);
+        c.jump(BExpressionCompiler.GOTO, end);
+        c.mark(label);
+        op3.compile(c);
+        c.mark(end);
+        break;
+      case ASSIGN_EXP:
+        c.loadVariables();
+        c.pushInt(variableIdx);
+        op1.compile(c);
+        c.op(BExpressionCompiler.DUP_X2, 1);
+        c.op(BExpressionCompiler.FASTORE, -3);
+        break;
+      case LOOKUP_EXP:
+        c.loadLookupData();
+        c.pushInt(lookupNameIdx);
+        c.op(BExpressionCompiler.IALOAD, -1);
+        c.storeTmp();
+        for (int valueIdx : lookupValueIdxArray) {
+          c.loadTmp();
+          c.pushInt(valueIdx);
+          c.jump(BExpressionCompiler.IF_ICMPEQ, label);
+        }
+        c.pushSelect(label, 0.f, 1.f);
+        break;
+      case NUMBER_EXP:
+        c.pushFloat(numberValue);
+        break;
+      case VARIABLE_EXP:
+        c.loadVariables();
+        c.pushInt(variableIdx);
+        c.op(BExpressionCompiler.FALOAD, -1);
+        break;
+      case FOREIGN_VARIABLE_EXP:
+        c.loadContext();
+        c.pushInt(variableIdx);
+        c.invokeContext("getForeignVariableValue");
+        break;
+      case VARIABLE_GET_EXP:
+        c.loadContext();
+        c.pushInt(lookupNameIdx);
+        c.invokeContext("getLookupValue");
+        break;
+      case NOT_EXP:
+        op1.compile(c);
+        c.jumpIfZero(false, label);
+        c.pushSelect(label, 1.f, 0.f);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown op-code: " + typ);
+    }
+  }
+
+  private void compileOperands(BExpressionCompiler c, String helper) {
+    op1.compile(c);
+    op2.compile(c);
+    if (helper != null) {
+      c.invokeHelper(helper);
+    }
+  }
+
   // Try to collapse the expression
   // if logically possible
   private BExpression tryCollapse() {
@@ -0,0 +1,378 @@
+/**
+ * Compiles the expression list of a context to JVM bytecode
+ * <p>
+ * The generated class extends BExpressionProgram. Expressions are
+ * grouped into static methods of moderate size so they stay
+ * below the JIT's huge-method limit and can be inlined.
+ * <p>
+ * Class files are written in version 49 (no stack map frames needed)
+ * and loaded by a class loader of their own, so a compiled profile
+ * is unloaded together with its parsed context. Where classes cannot be
+ * defined at runtime (Android), compile() returns null and the caller
+ * stays with the interpreter.
+ */
+package btools.expressions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class BExpressionCompiler {
+  private static final String CLASS_NAME = "btools/expressions/CompiledProfile";
+  private static final String BASE_CLASS = "btools/expressions/BExpressionProgram";
+  private static final String CONTEXT_CLASS = "btools/expressions/BExpressionContext";
+  private static final String EVALUATE_DESC = "(Lbtools/expressions/BExpressionContext;[F[I)V";
+
+  private static final int METHOD_SPLIT_SIZE = 2000;
+  private static final int MAX_METHOD_SIZE = 32000; // keep branch offsets 16 bit
+
+  static final int POP = 0x57;
+  static final int DUP_X2 = 0x5b;
+  static final int IALOAD = 0x2e;
+  static final int FALOAD = 0x30;
+  static final int FASTORE = 0x51;
+  static final int FADD = 0x62;
+  static final int FSUB = 0x66;
+  static final int FMUL = 0x6a;
+  static final int FCMPL = 0x95;
+  static final int FCMPG = 0x96;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFGE = 0x9c;
+  static final int IFLE = 0x9e;
+  static final int IF_ICMPEQ = 0x9f;
+  static final int GOTO = 0xa7;
+
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ILOAD = 0x15;
+  private static final int ISTORE = 0x36;
+  private static final int FCONST_0 = 0x0b;
+  private static final int ICONST_0 = 0x03;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC = 0x12;
+  private static final int LDC_W = 0x13;
+  private static final int RETURN = 0xb1;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+
+  // locals of the generated static methods
+  private static final int LOCAL_CTX = 0;
+  private static final int LOCAL_VARS = 1;
+  private static final int LOCAL_LOOKUPDATA = 2;
+  private static final int LOCAL_TMP = 3;
+
+  static final class Label {
+    int pos = -1;
+    List<Integer> fixups = new ArrayList<>();
+    int stack;
+  }
+
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<String, Integer> constantIndex = new HashMap<>();
+
+  private ByteArrayOutputStream code;
+  private List<Label> labels;
+  private int stack;
+  private int maxStack;
+
+  private static final class ProgramLoader extends ClassLoader {
+    ProgramLoader() {
+      super(BExpressionProgram.class.getClassLoader());
+    }
+
+    Class<?> define(byte[] ab) {
+      return defineClass(CLASS_NAME.replace('/', '.'), ab, 0, ab.length);
+    }
+  }
+
+  private BExpressionCompiler() {
+  }
+
+  /**
+   * @return the compiled program or null if compilation is not possible
+   */
+  static BExpressionProgram compile(List<BExpression> expressions, String context) {
+    try {
+      byte[] ab = new BExpressionCompiler().createClass(expressions);
+      Class<?> clazz = new ProgramLoader().define(ab);
+      return (BExpressionProgram) clazz.getDeclaredConstructor().newInstance();
+    } catch (Throwable t) {
+      System.out.println("cannot compile expressions for context " + context + ", using interpreter: " + t);
+      return null;
+    }
+  }
+
+  byte[] createClass(List<BExpression> expressions) throws IOException {
+    List<byte[]> methods = new ArrayList<>();
+
+    // the expressions, in chunks of static methods
+    int nChunks = 0;
+    int idx = 0;
+    while (idx < expressions.size()) {
+      startCode();
+      while (idx < expressions.size() && code.size() < METHOD_SPLIT_SIZE) {
+        expressions.get(idx++).compile(this);
+        op(POP, -1);
+      }
+      op(RETURN, 0);
+      if (code.size() > MAX_METHOD_SIZE) {
+        throw new IllegalArgumentException("expression too large: " + code.size());
+      }
+      methods.add(createMethod(0x000a, "e" + nChunks++, EVALUATE_DESC, 4));
+    }
+
+    // evaluate() calls the chunks
+    startCode();
+    for (int i = 0; i < nChunks; i++) {
+      op(ALOAD_0 + 1, 1);
+      op(ALOAD_0 + 2, 1);
+      op(ALOAD_0 + 3, 1);
+      invoke(INVOKESTATIC, CLASS_NAME, "e" + i, EVALUATE_DESC, -3);
+    }
+    op(RETURN, 0);
+    methods.add(createMethod(0x0001, "evaluate", EVALUATE_DESC, 4));
+
+    // default constructor
+    startCode();
+    op(ALOAD_0, 1);
+    invoke(INVOKESPECIAL, BASE_CLASS, "<init>", "()V", -1);
+    op(RETURN, 0);
+    methods.add(createMethod(0x0001, "<init>", "()V", 1));
+
+    int thisIdx = classRef(CLASS_NAME);
+    int superIdx = classRef(BASE_CLASS);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    dos.writeInt(0xcafebabe);
+    dos.writeShort(0);
+    dos.writeShort(49);
+    writeConstants(dos);
+    dos.writeShort(0x0031); // public final super
+    dos.writeShort(thisIdx);
+    dos.writeShort(superIdx);
+    dos.writeShort(0); // interfaces
+    dos.writeShort(0); // fields
+    dos.writeShort(methods.size());
+    for (byte[] m : methods) {
+      dos.write(m);
+    }
+    dos.writeShort(0); // attributes
+    dos.close();
+    return bos.toByteArray();
+  }
+
+  private void startCode() {
+    code = new ByteArrayOutputStream();
+    labels = new ArrayList<>();
+    stack = 0;
+    maxStack = 0;
+  }
+
+  private byte[] createMethod(int access, String name, String desc, int maxLocals) throws IOException {
+    byte[] ab = code.toByteArray();
+    for (Label label : labels) {
+      for (int pos : label.fixups) {
+        int offset = label.pos - pos;
+        ab[pos + 1] = (byte) (offset >> 8);
+        ab[pos + 2] = (byte) offset;
+      }
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    dos.writeShort(access);
+    dos.writeShort(utf8(name));
+    dos.writeShort(utf8(desc));
+    dos.writeShort(1);
+    dos.writeShort(utf8("Code"));
+    dos.writeInt(12 + ab.length);
+    dos.writeShort(maxStack);
+    dos.writeShort(maxLocals);
+    dos.writeInt(ab.length);
+    dos.write(ab);
+    dos.writeShort(0); // exception table
+    dos.writeShort(0); // attributes
+    dos.close();
+    return bos.toByteArray();
+  }
+
+  // constant pool
+
+  private int constant(String key, Object value) {
+    Integer idx = constantIndex.get(key);
+    if (idx == null) {
+      constants.add(value);
+      idx = constants.size();
+      constantIndex.put(key, idx);
+    }
+    return idx;
+  }
+
+  private int utf8(String s) {
+    return constant("U" + s, s);
+  }
+
+  private int classRef(String name) {
+    return constant("C" + name, new int[]{7, utf8(name)});
+  }
+
+  private int methodRef(String clazz, String name, String desc) {
+    int nat = constant("N" + name + desc, new int[]{12, utf8(name), utf8(desc)});
+    return constant("M" + clazz + "." + name + desc, new int[]{10, classRef(clazz), nat});
+  }
+
+  private void writeConstants(DataOutputStream dos) throws IOException {
+    dos.writeShort(constants.size() + 1);
+    for (Object c : constants) {
+      if (c instanceof String) {
+        dos.writeByte(1);
+        dos.writeUTF((String) c);
+      } else if (c instanceof Integer) {
+        dos.writeByte(3);
+        dos.writeInt((Integer) c);
+      } else if (c instanceof Float) {
+        dos.writeByte(4);
+        dos.writeInt(Float.floatToRawIntBits((Float) c));
+      } else {
+        int[] ref = (int[]) c;
+        dos.writeByte(ref[0]);
+        for (int i = 1; i < ref.length; i++) {
+          dos.writeShort(ref[i]);
+        }
+      }
+    }
+  }
+
+  // code generation, used by BExpression.compile()
+
+  void op(int opcode, int stackDelta) {
+    code.write(opcode);
+    stack += stackDelta;
+    if (stack > maxStack) {
+      maxStack = stack;
+    }
+  }
+
+  private void u1(int v) {
+    code.write(v);
+  }
+
+  private void u2(int v) {
+    code.write(v >> 8);
+    code.write(v);
+  }
+
+  void pushInt(int value) {
+    if (value >= -1 && value <= 5) {
+      op(ICONST_0 + value, 1);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      op(BIPUSH, 1);
+      u1(value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      op(SIPUSH, 1);
+      u2(value);
+    } else {
+      ldc(constant("I" + value, value));
+    }
+  }
+
+  void pushFloat(float value) {
+    int bits = Float.floatToRawIntBits(value);
+    if (bits == 0 || value == 1.f || value == 2.f) {
+      op(FCONST_0 + (int) value, 1);
+    } else {
+      ldc(constant("F" + bits, value));
+    }
+  }
+
+  private void ldc(int idx) {
+    if (idx < 256) {
+      op(LDC, 1);
+      u1(idx);
+    } else {
+      op(LDC_W, 1);
+      u2(idx);
+    }
+  }
+
+  void loadContext() {
+    op(ALOAD_0 + LOCAL_CTX, 1);
+  }
+
+  void loadVariables() {
+    op(ALOAD_0 + LOCAL_VARS, 1);
+  }
+
+  void loadLookupData() {
+    op(ALOAD_0 + LOCAL_LOOKUPDATA, 1);
+  }
+
+  void storeTmp() {
+    op(ISTORE, -1);
+    u1(LOCAL_TMP);
+  }
+
+  void loadTmp() {
+    op(ILOAD, 1);
+    u1(LOCAL_TMP);
+  }
+
+  void invokeHelper(String name) {
+    invoke(INVOKESTATIC, BASE_CLASS, name, "(FF)F", -1);
+  }
+
+  void invokeContext(String name) {
+    invoke(INVOKEVIRTUAL, CONTEXT_CLASS, name, "(I)F", -1);
+  }
+
+  private void invoke(int opcode, String clazz, String name, String desc, int stackDelta) {
+    int idx = methodRef(clazz, name, desc);
+    op(opcode, stackDelta);
+    u2(idx);
+  }
+
+  /**
+   * jump if the float on the stack is (not) zero
+   */
+  void jumpIfZero(boolean zero, Label target) {
+    pushFloat(0.f);
+    op(FCMPL, -1);
+    jump(zero ? IFEQ : IFNE, target);
+  }
+
+  void jump(int opcode, Label target) {
+    int delta = opcode == GOTO ? 0 : (opcode == IF_ICMPEQ ? -2 : -1);
+    int pos = code.size();
+    op(opcode, delta);
+    target.fixups.add(pos);
+    target.stack = stack;
+    u2(0);
+  }
+
+  void mark(Label label) {
+    label.pos = code.size();
+    if (!label.fixups.isEmpty()) {
+      stack = label.stack;
+    }
+    labels.add(label);
+  }
+
+  /**
+   * push a float constant that depends on whether
+   * the code falls through or came via the given label
+   */
+  void pushSelect(Label target, float fallThroughValue, float targetValue) {
+    Label end = new Label();
+    pushFloat(fallThroughValue);
+    jump(GOTO, end);
+    mark(target);
+    pushFloat(targetValue);
+    mark(end);
+  }
+}
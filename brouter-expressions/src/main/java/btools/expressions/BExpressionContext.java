@@ -12,6 +12,7 @@ import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -67,7 +68,11 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
   private VarWrapper probeVarSet = new VarWrapper();
   private LruMap resultVarCache;
 
+  // result vectors of the (unified) descriptions of decoded tiles
+  private IdentityHashMap<byte[], float[]> tileResults;
+
   private List<BExpression> expressionList;
+  private BExpressionProgram program; // compiled expressionList, if enabled
 
   private int minWriteIdx;
 
@@ -98,6 +103,7 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
 
   public BExpressionMetaData meta;
   private boolean lookupDataValid = false;
+  private int hashSize;
 
   protected BExpressionContext(String context, BExpressionMetaData meta) {
     this(context, 4096, meta);
@@ -117,10 +123,55 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
 
     if (Boolean.getBoolean("disableExpressionCache")) hashSize = 1;
 
+    this.hashSize = hashSize;
+    createCaches();
+  }
+
+  /**
+   * Create an evaluator for an already parsed context.
+   * <p>
+   * The parsed state (expression list, lookup tables, variable
+   * numbering) is shared read-only with the given context, so one parsed
+   * profile can serve any number of threads. Just the evaluation state
+   * (variable values, lookup data and the result caches) is per instance.
+   *
+   * @param compiled the parsed context, not to be used for evaluation itself
+   */
+  protected BExpressionContext(BExpressionContext compiled) {
+    context = compiled.context;
+    meta = compiled.meta;
+    _modelClass = compiled._modelClass;
+
+    lookupNumbers = compiled.lookupNumbers;
+    lookupValues = compiled.lookupValues;
+    lookupNames = compiled.lookupNames;
+    lookupHistograms = compiled.lookupHistograms;
+    lookupIdxUsed = compiled.lookupIdxUsed;
+    lookupDataFrozen = compiled.lookupDataFrozen;
+    lookupData = new int[compiled.lookupData.length];
+
+    variableNumbers = compiled.variableNumbers;
+    variableData = compiled.variableData.clone(); // includes the read-only (global) values
+    expressionList = compiled.expressionList;
+    program = compiled.program;
+    minWriteIdx = compiled.minWriteIdx;
+    buildInVariableIdx = compiled.buildInVariableIdx.clone();
+    nBuildInVars = compiled.nBuildInVars;
+    noStartWays = compiled.noStartWays;
+    lastAssignedExpression = null;
+
+    hashSize = compiled.hashSize;
+    createCaches();
+  }
+
+  private void createCaches() {
     // create the expression cache
     if (hashSize > 0) {
       cache = new LruMap(4 * hashSize, hashSize);
       resultVarCache = new LruMap(4096, 4096);
+      if (Boolean.getBoolean("precomputeWayCosts")) {
+        tileResults = new IdentityHashMap<>(hashSize);
+      }
     }
   }
 
@@ -324,6 +375,10 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
   }
 
   private void evaluate() {
+    if (program != null) {
+      program.evaluate(this, variableData, lookupData);
+      return;
+    }
     int n = expressionList.size();
     for (int expidx = 0; expidx < n; expidx++) {
       expressionList.get(expidx).evaluate(this);
@@ -333,9 +388,18 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
   private long requests;
   private long requests2;
   private long cachemisses;
+  private long tilehits;
 
   public String cacheStats() {
-    return "requests=" + requests + " requests2=" + requests2 + " cachemisses=" + cachemisses;
+    return "requests=" + requests + " requests2=" + requests2 + " cachemisses=" + cachemisses
+      + (tileResults == null ? "" : " tilehits=" + tilehits);
+  }
+
+  /**
+   * @return the evaluations answered from the vectors kept at tile decoding
+   */
+  public long getTileHits() {
+    return tilehits;
   }
 
   private CacheNode lastCacheNode = new CacheNode();
@@ -371,6 +435,16 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
     requests++;
     lookupDataValid = false; // this is an assertion for a nasty pifall
 
+    if (tileResults != null) {
+      float[] vars = tileResults.get(ab);
+      if (vars != null) {
+        tilehits++;
+        currentVars = vars;
+        currentVarOffset = inverseDirection ? nBuildInVars : 0;
+        return;
+      }
+    }
+
     if (cache == null) {
       decode(lookupData, inverseDirection, ab);
       if (currentVars == null || currentVars.length != nBuildInVars) {
@@ -438,6 +512,20 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
     currentVarOffset = inverseDirection ? nBuildInVars : 0;
   }
 
+  /**
+   * Remember the result of the last evaluation for the given description,
+   * so evaluating it again is a plain identity lookup. Called at tile-decoding
+   * for all entries of a tile's description dictionary.
+   */
+  protected final void rememberTileResult(byte[] ab) {
+    if (tileResults != null && currentVars != null && currentVars.length == 2 * nBuildInVars) {
+      if (tileResults.size() >= hashSize) {
+        tileResults.clear(); // bounded like the result cache
+      }
+      tileResults.put(ab, currentVars);
+    }
+  }
+
   private void evaluateInto(float[] vars, int offset) {
     evaluate();
     for (int vi = 0; vi < nBuildInVars; vi++) {
@@ -814,6 +902,7 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
     if (!file.exists()) {
       throw new IllegalArgumentException("profile " + file.getName() + " does not exist");
     }
+    program = null;
     try {
       if (readOnlyContext != null) {
         linenr = 1;
@@ -851,6 +940,19 @@ public abstract class BExpressionContext implements IByteArrayUnifier {
       throw new IllegalArgumentException(file.getName()
         + " does not contain expressions for context " + context + " (old version?)");
     }
+    if (Boolean.getBoolean("compileExpressions")) {
+      compileExpressions();
+    }
+  }
+
+  /**
+   * Replace the interpreter by bytecode compiled from the expression list
+   *
+   * @return true if compiled, false if staying with the interpreter
+   */
+  boolean compileExpressions() {
+    program = BExpressionCompiler.compile(expressionList, context);
+    return program != null;
   }
 
   private List<BExpression> _parseFile(File file, Map<String, String> keyValues) throws Exception {
@@ -32,4 +32,11 @@ public final class BExpressionContextNode extends BExpressionContext {
   public BExpressionContextNode(int hashSize, BExpressionMetaData meta) {
     super("node", hashSize, meta);
   }
+
+  /**
+   * Create an evaluator sharing the parsed profile of the given context
+   */
+  public BExpressionContextNode(BExpressionContextNode compiled) {
+    super(compiled);
+  }
 }
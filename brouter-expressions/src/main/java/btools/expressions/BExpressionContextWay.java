@@ -111,9 +111,17 @@ public final class BExpressionContextWay extends BExpressionContext implements T
     super("way", hashSize, meta);
   }
 
+  /**
+   * Create an evaluator sharing the parsed profile of the given context
+   */
+  public BExpressionContextWay(BExpressionContextWay compiled) {
+    super(compiled);
+  }
+
   @Override
   public int accessType(byte[] description) {
     evaluate(false, description);
+    rememberTileResult(description);
     float minCostFactor = getCostfactor();
     if (minCostFactor >= 9999.f) {
       setInverseVars();
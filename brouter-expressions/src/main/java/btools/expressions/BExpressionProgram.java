@@ -0,0 +1,42 @@
+/**
+ * Base class for expression lists compiled to JVM bytecode
+ * <p>
+ * Subclasses are generated by BExpressionCompiler, each in its own
+ * class loader, so they just see the public and protected members
+ * used here.
+ */
+package btools.expressions;
+
+public abstract class BExpressionProgram {
+
+  protected BExpressionProgram() {
+  }
+
+  /**
+   * Evaluate all expressions of a context
+   *
+   * @param ctx        the context (for foreign variables and v: lookups)
+   * @param vars       the context's variable data
+   * @param lookupData the decoded lookup data
+   */
+  public abstract void evaluate(BExpressionContext ctx, float[] vars, int[] lookupData);
+
+  // helpers with the exact semantics of the interpreter
+
+  protected static float xor(float v1, float v2) {
+    return (v1 != 0.f) ^ (v2 != 0.f) ? 1.f : 0.f;
+  }
+
+  protected static float max(float v1, float v2) {
+    return v1 > v2 ? v1 : v2;
+  }
+
+  protected static float min(float v1, float v2) {
+    return v1 < v2 ? v1 : v2;
+  }
+
+  protected static float divide(float v1, float v2) {
+    if (v2 == 0f) throw new IllegalArgumentException("div by zero");
+    return v1 / v2;
+  }
+}
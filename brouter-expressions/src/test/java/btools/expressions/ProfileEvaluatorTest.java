@@ -0,0 +1,132 @@
+package btools.expressions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ProfileEvaluatorTest {
+  private File lookupFile = new File(getClass().getResource("/lookups_test.dat").getPath());
+  private File profileFile = new File(getClass().getResource("/profile_test.brf").getPath());
+
+  private BExpressionContextWay parseProfile() {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    BExpressionContextWay expctx = new BExpressionContextWay(meta);
+    meta.readMetaData(lookupFile);
+    expctx.parseFile(profileFile, "global");
+    return expctx;
+  }
+
+  @Test
+  public void evaluatorCopyTest() throws Exception {
+    BExpressionContextWay compiled = parseProfile();
+
+    // evaluators created from one parsed profile, running concurrently,
+    // must give the results of a separately parsed context
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = new ArrayList<>();
+    for (int ti = 0; ti < 4; ti++) {
+      BExpressionContextWay evaluator = new BExpressionContextWay(compiled);
+      BExpressionContextWay reference = parseProfile();
+      long seed = 4711 + ti;
+      Thread t = new Thread(() -> {
+        try {
+          Random rnd = new Random(seed);
+          for (int i = 0; i < 5000; i++) {
+            int[] data = reference.generateRandomValues(rnd);
+            reference.evaluate(data);
+            evaluator.evaluate(data);
+            evaluator.assertAllVariablesEqual(reference);
+          }
+        } catch (Throwable e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    Assert.assertTrue("evaluator error: " + errors, errors.isEmpty());
+  }
+
+  @Test
+  public void compiledProfilesTest() {
+    File profileDir = new File("../misc/profiles2");
+    File lookups = new File(profileDir, "lookups.dat");
+    File[] profiles = profileDir.listFiles((dir, name) -> name.endsWith(".brf"));
+    Assert.assertTrue("no profiles found", profiles != null && profiles.length > 0);
+
+    for (File profile : profiles) {
+      BExpressionContext[] interpreted = parseWayAndNode(lookups, profile);
+      BExpressionContext[] compiled = parseWayAndNode(lookups, profile);
+      Assert.assertTrue("cannot compile " + profile, compiled[0].compileExpressions());
+      Assert.assertTrue("cannot compile " + profile, compiled[1].compileExpressions());
+
+      Random rnd = new Random(17464);
+      for (int i = 0; i < 2000; i++) {
+        int[] wayData = interpreted[0].generateRandomValues(rnd);
+        interpreted[0].evaluate(wayData);
+        compiled[0].evaluate(wayData.clone());
+        interpreted[0].assertAllVariablesEqual(compiled[0]);
+
+        // the node context reads the way's build-in variables
+        byte[] description = interpreted[0].encode(wayData);
+        interpreted[0].evaluate(false, description);
+        compiled[0].evaluate(false, description);
+
+        int[] nodeData = interpreted[1].generateRandomValues(rnd);
+        interpreted[1].evaluate(nodeData);
+        compiled[1].evaluate(nodeData.clone());
+        interpreted[1].assertAllVariablesEqual(compiled[1]);
+      }
+    }
+  }
+
+  @Test
+  public void tileResultsTest() {
+    BExpressionContextWay reference = parseProfile();
+    BExpressionContextWay expctx;
+    System.setProperty("precomputeWayCosts", "true");
+    try {
+      expctx = parseProfile();
+    } finally {
+      System.clearProperty("precomputeWayCosts");
+    }
+
+    Random rnd = new Random(4711);
+    for (int i = 0; i < 1000; i++) {
+      byte[] description = reference.encode(reference.generateRandomValues(rnd));
+      if (description == null) {
+        continue;
+      }
+      description = expctx.unify(description, 0, description.length);
+      expctx.accessType(description); // as done at tile decoding
+      for (int inverse = 0; inverse < 2; inverse++) {
+        reference.evaluate(inverse != 0, description);
+        expctx.evaluate(inverse != 0, description);
+        Assert.assertEquals(reference.getCostfactor(), expctx.getCostfactor(), 0.f);
+        Assert.assertEquals(reference.getTurncost(), expctx.getTurncost(), 0.f);
+        Assert.assertEquals(reference.getPriorityClassifier(), expctx.getPriorityClassifier(), 0.f);
+      }
+    }
+    Assert.assertEquals(2000, expctx.getTileHits());
+  }
+
+  private BExpressionContext[] parseWayAndNode(File lookups, File profile) {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    BExpressionContextWay wayCtx = new BExpressionContextWay(meta);
+    BExpressionContextNode nodeCtx = new BExpressionContextNode(meta);
+    nodeCtx.setForeignContext(wayCtx);
+    meta.readMetaData(lookups);
+    wayCtx.parseFile(profile, "global");
+    nodeCtx.parseFile(profile, "global");
+    return new BExpressionContext[]{wayCtx, nodeCtx};
+  }
+}
@@ -37,6 +37,7 @@ public class OsmNodeP extends OsmLinkP {
   public final static int ANY_WAY_BIT = 16;
   public final static int MULTI_WAY_BIT = 32;
   public final static int DP_SURVIVOR_BIT = 64;
+  public final static int COMPONENT_BIT = 128;
 
   public byte bits = 0;
 
@@ -93,10 +94,10 @@ public class OsmNodeP extends OsmLinkP {
     return null;
   }
 
-  public void writeNodeData(MicroCache mc) throws IOException {
+  public void writeNodeData(MicroCache mc, long islandId) throws IOException {
     boolean valid = true;
     if (mc instanceof MicroCache2) {
-      valid = writeNodeData2((MicroCache2) mc);
+      valid = writeNodeData2((MicroCache2) mc, islandId);
     } else
       throw new IllegalArgumentException("unknown cache version: " + mc.getClass());
     if (valid) {
@@ -144,14 +145,21 @@ public class OsmNodeP extends OsmLinkP {
     }
   }
 
-  public boolean writeNodeData2(MicroCache2 mc) throws IOException {
+  public boolean writeNodeData2(MicroCache2 mc, long islandId) throws IOException {
     boolean hasLinks = false;
 
+    // write island info (anchor node of the component)
+    if (islandId != 0L) {
+      mc.writeByte(MicroCache2.EXTRA_ISLAND);
+      mc.writeInt((int) (islandId >> 32));
+      mc.writeInt((int) (islandId & 0xffffffff));
+    }
+
     // write turn restrictions
     RestrictionData r = getFirstRestriction();
     while (r != null) {
       if (r.isValid() && r.fromLon != 0 && r.toLon != 0) {
-        mc.writeBoolean(true); // restriction follows
+        mc.writeByte(MicroCache2.EXTRA_RESTRICTION); // restriction follows
         mc.writeShort(r.exceptions);
         mc.writeBoolean(r.isPositive());
         mc.writeInt(r.fromLon);
@@ -161,7 +169,7 @@ public class OsmNodeP extends OsmLinkP {
       }
       r = r.next;
     }
-    mc.writeBoolean(false); // end restritions
+    mc.writeByte(MicroCache2.EXTRA_END); // end restritions
 
     mc.writeShort(getSElev());
     mc.writeVarBytes(getNodeDecsription());
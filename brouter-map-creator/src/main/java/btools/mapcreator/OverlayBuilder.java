@@ -0,0 +1,304 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import btools.codec.DataBuffers;
+import btools.codec.MicroCache;
+import btools.expressions.BExpressionContextWay;
+import btools.expressions.BExpressionMetaData;
+import btools.mapaccess.GeometryDecoder;
+import btools.mapaccess.OsmFile;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.OsmTransferNode;
+import btools.mapaccess.OverlayGraph;
+import btools.mapaccess.PhysicalFile;
+import btools.util.CheapRuler;
+import btools.util.CompactLongMap;
+import btools.util.FrozenLongMap;
+
+/**
+ * OverlayBuilder creates the shortcut overlay for a routing profile
+ * from a directory of rd5 files:
+ * <p>
+ * - collect the links of ways with a priorityclassifier of at least minPriority
+ * - contract the chains of nodes between junctions into shortcut edges
+ * - write them as &lt;profile&gt;.ovl into the segment directory
+ * <p>
+ * All selected links are held in memory, so for large regions
+ * this needs a big heap.
+ */
+public class OverlayBuilder {
+  private static final int INFINITE = Integer.MAX_VALUE;
+
+  private BExpressionContextWay expctxWay;
+  private GeometryDecoder geometryDecoder = new GeometryDecoder();
+  private CompactLongMap<CoreNode> coreNodes = new CompactLongMap<>();
+  private int coreLinks;
+
+  private static final class CoreNode {
+    long id;
+    List<CoreLink> links = new ArrayList<>(2);
+
+    boolean isJunction() {
+      return links.size() != 2;
+    }
+  }
+
+  private static final class CoreLink {
+    CoreNode n1;
+    CoreNode n2;
+    int cost12;
+    int cost21;
+    boolean used;
+
+    CoreNode getTarget(CoreNode source) {
+      return source == n1 ? n2 : n1;
+    }
+
+    int getCost(CoreNode source) {
+      return source == n1 ? cost12 : cost21;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("*** OverlayBuilder: create the shortcut overlay for a routing profile");
+    if (args.length < 3) {
+      System.out.println("usage: java OverlayBuilder <segment-dir> <lookup-file> <profile-file> [<min-priority>]");
+      return;
+    }
+    int minPriority = args.length > 3 ? Integer.parseInt(args[3]) : 24;
+    new OverlayBuilder().process(new File(args[0]), new File(args[1]), new File(args[2]), minPriority);
+  }
+
+  public OverlayGraph process(File segmentDir, File lookupFile, File profileFile, int minPriority) throws Exception {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    expctxWay = new BExpressionContextWay(meta);
+    meta.readMetaData(lookupFile);
+    expctxWay.parseFile(profileFile, "global");
+
+    File[] files = segmentDir.listFiles();
+    if (files == null) {
+      throw new IllegalArgumentException("segment directory " + segmentDir + " does not exist");
+    }
+    DataBuffers dataBuffers = new DataBuffers();
+    for (File f : files) {
+      String name = f.getName();
+      if (name.endsWith(".rd5")) {
+        processFile(f, name, dataBuffers, minPriority);
+      }
+    }
+
+    String profileName = profileFile.getName();
+    if (profileName.endsWith(".brf")) {
+      profileName = profileName.substring(0, profileName.length() - 4);
+    }
+    OverlayGraph overlay = createOverlay(profileName, meta.lookupVersion, minPriority);
+    File outFile = new File(segmentDir, profileName + ".ovl");
+    overlay.write(outFile);
+    System.out.println("overlay has " + overlay.getNodeCount() + " nodes and " + overlay.getEdgeCount() + " edges: " + outFile);
+    return overlay;
+  }
+
+  private void processFile(File f, String name, DataBuffers dataBuffers, int minPriority) throws Exception {
+    // file names like E5_N45.rd5 denote the 5*5 degree square
+    int idx = name.indexOf('_');
+    int lon = Integer.parseInt(name.substring(1, idx));
+    int lat = Integer.parseInt(name.substring(idx + 2, name.length() - 4));
+    int lonDegreeBase = (name.charAt(0) == 'W' ? -lon : lon) + 180;
+    int latDegreeBase = (name.charAt(idx + 1) == 'S' ? -lat : lat) + 90;
+
+    PhysicalFile pf = new PhysicalFile(f, dataBuffers, -1, -1);
+    try {
+      int divisor = pf.divisor;
+      for (int lonDegree = lonDegreeBase; lonDegree < lonDegreeBase + 5; lonDegree++) {
+        for (int latDegree = latDegreeBase; latDegree < latDegreeBase + 5; latDegree++) {
+          OsmFile osmf = new OsmFile(pf, lonDegree, latDegree, dataBuffers);
+          if (!osmf.hasData()) {
+            continue;
+          }
+          for (int lonIdx = lonDegree * divisor; lonIdx < (lonDegree + 1) * divisor; lonIdx++) {
+            for (int latIdx = latDegree * divisor; latIdx < (latDegree + 1) * divisor; latIdx++) {
+              MicroCache mc = osmf.createMicroCache(lonIdx, latIdx, dataBuffers, expctxWay, null, true, null);
+              processMicroCache(mc, minPriority);
+            }
+          }
+        }
+      }
+    } finally {
+      pf.close();
+    }
+  }
+
+  private void processMicroCache(MicroCache mc, int minPriority) {
+    int size = mc.getSize();
+    long[] ids = new long[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = mc.getIdForIndex(i);
+    }
+    OsmNodesMap hollowNodes = new OsmNodesMap();
+    for (long id : ids) {
+      if (!mc.getAndClear(id)) {
+        continue;
+      }
+      OsmNode n = new OsmNode(id);
+      n.parseNodeBody(mc, hollowNodes, expctxWay);
+
+      // each link is stored in forward direction at one of its nodes
+      for (OsmLink l = n.firstlink; l != null; l = l.getNext(n)) {
+        if (l.isReverse(n) || l.descriptionBitmap == null) {
+          continue;
+        }
+        expctxWay.evaluate(false, l.descriptionBitmap);
+        if (expctxWay.getPriorityClassifier() < minPriority) {
+          continue;
+        }
+        float costfactor12 = expctxWay.getCostfactor();
+        expctxWay.evaluate(true, l.descriptionBitmap);
+        float costfactor21 = expctxWay.getCostfactor();
+        if (costfactor12 >= 9999.f && costfactor21 >= 9999.f) {
+          continue;
+        }
+        OsmNode t = l.getTarget(n);
+        double dist = calcDistance(n, t, l.geometry);
+        addCoreLink(n.getIdFromPos(), t.getIdFromPos(), calcCost(dist, costfactor12), calcCost(dist, costfactor21));
+      }
+    }
+  }
+
+  private double calcDistance(OsmNode n, OsmNode t, byte[] geometry) {
+    double dist = 0.;
+    int lon = n.ilon;
+    int lat = n.ilat;
+    OsmTransferNode tn = geometry == null ? null : geometryDecoder.decodeGeometry(geometry, n, t, false);
+    for (; tn != null; tn = tn.next) {
+      dist += CheapRuler.distance(lon, lat, tn.ilon, tn.ilat);
+      lon = tn.ilon;
+      lat = tn.ilat;
+    }
+    return dist + CheapRuler.distance(lon, lat, t.ilon, t.ilat);
+  }
+
+  private static int calcCost(double dist, float costfactor) {
+    return costfactor >= 9999.f ? INFINITE : (int) (dist * costfactor + 0.5);
+  }
+
+  private void addCoreLink(long id1, long id2, int cost12, int cost21) {
+    CoreLink link = new CoreLink();
+    link.n1 = getCoreNode(id1);
+    link.n2 = getCoreNode(id2);
+    link.cost12 = cost12;
+    link.cost21 = cost21;
+    link.n1.links.add(link);
+    link.n2.links.add(link);
+    coreLinks++;
+  }
+
+  private CoreNode getCoreNode(long id) {
+    CoreNode n = coreNodes.get(id);
+    if (n == null) {
+      n = new CoreNode();
+      n.id = id;
+      coreNodes.put(id, n);
+    }
+    return n;
+  }
+
+  private OverlayGraph createOverlay(String profileName, int lookupVersion, int minPriority) {
+    System.out.println("selected " + coreNodes.size() + " nodes with " + coreLinks + " links");
+    FrozenLongMap<CoreNode> frozen = new FrozenLongMap<>(coreNodes);
+
+    // the junctions are the overlay nodes
+    List<CoreNode> junctions = new ArrayList<>();
+    for (CoreNode n : frozen.getValueList()) {
+      if (n.isJunction()) {
+        junctions.add(n);
+      }
+    }
+    long[] nodeIds = new long[junctions.size()];
+    CompactLongMap<Integer> nodeIndex = new CompactLongMap<>();
+    for (int i = 0; i < nodeIds.length; i++) {
+      nodeIds[i] = junctions.get(i).id;
+      nodeIndex.put(nodeIds[i], i);
+    }
+
+    // walk the chains starting at each junction
+    List<List<int[]>> edgesPerNode = new ArrayList<>();
+    List<Long> chainNodes = new ArrayList<>();
+    List<Integer> chainStart = new ArrayList<>();
+    for (int i = 0; i < nodeIds.length; i++) {
+      edgesPerNode.add(new ArrayList<>());
+    }
+    for (int i = 0; i < nodeIds.length; i++) {
+      CoreNode start = junctions.get(i);
+      for (CoreLink firstLink : start.links) {
+        if (firstLink.used) {
+          continue;
+        }
+        int chain = chainStart.size();
+        chainStart.add(chainNodes.size());
+        long costForward = 0L;
+        long costBackward = 0L;
+        CoreNode n = start;
+        CoreLink l = firstLink;
+        for (; ; ) {
+          l.used = true;
+          costForward = addCost(costForward, l.getCost(n));
+          CoreNode next = l.getTarget(n);
+          costBackward = addCost(costBackward, l.getCost(next));
+          n = next;
+          if (n.isJunction()) {
+            break;
+          }
+          chainNodes.add(n.id);
+          l = n.links.get(0) == l ? n.links.get(1) : n.links.get(0);
+        }
+        int target = nodeIndex.get(n.id);
+        if (costForward < INFINITE) {
+          edgesPerNode.get(i).add(new int[]{target, (int) costForward, chain * 2});
+        }
+        if (costBackward < INFINITE) {
+          edgesPerNode.get(target).add(new int[]{i, (int) costBackward, chain * 2 + 1});
+        }
+      }
+    }
+    chainStart.add(chainNodes.size());
+
+    int nEdges = 0;
+    for (List<int[]> edges : edgesPerNode) {
+      nEdges += edges.size();
+    }
+    int[] edgeStart = new int[nodeIds.length + 1];
+    int[] edgeTarget = new int[nEdges];
+    int[] edgeCost = new int[nEdges];
+    int[] edgeChain = new int[nEdges];
+    int e = 0;
+    for (int i = 0; i < nodeIds.length; i++) {
+      edgeStart[i] = e;
+      for (int[] edge : edgesPerNode.get(i)) {
+        edgeTarget[e] = edge[0];
+        edgeCost[e] = edge[1];
+        edgeChain[e] = edge[2];
+        e++;
+      }
+    }
+    edgeStart[nodeIds.length] = e;
+
+    int[] chainStartArray = new int[chainStart.size()];
+    for (int i = 0; i < chainStartArray.length; i++) {
+      chainStartArray[i] = chainStart.get(i);
+    }
+    long[] chainNodesArray = new long[chainNodes.size()];
+    for (int i = 0; i < chainNodesArray.length; i++) {
+      chainNodesArray[i] = chainNodes.get(i);
+    }
+    return new OverlayGraph(profileName, lookupVersion, minPriority, nodeIds, edgeStart, edgeTarget, edgeCost, edgeChain, chainStartArray, chainNodesArray);
+  }
+
+  private static long addCost(long cost, int linkCost) {
+    return linkCost == INFINITE ? INFINITE : Math.min(cost + linkCost, INFINITE);
+  }
+}
@@ -8,6 +8,7 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -65,6 +66,9 @@ public class WayLinker extends MapCreatorBase implements Runnable {
 
   private boolean skipEncodingCheck;
 
+  private int islandNodeLimit;
+  private CompactLongMap<Long> islandIds;
+
   private boolean isSlave;
   private ThreadController tc;
 
@@ -174,6 +178,8 @@ public class WayLinker extends MapCreatorBase implements Runnable {
 
     skipEncodingCheck = Boolean.getBoolean("skipEncodingCheck");
 
+    islandNodeLimit = Integer.getInteger("islandNodeLimit", 500);
+
   }
 
   @Override
@@ -408,6 +414,8 @@ public class WayLinker extends MapCreatorBase implements Runnable {
       n.checkDuplicateTargets();
     }
 
+    markIslands();
+
     // write segment data to individual files
     {
       int nLonSegs = (maxLon - minLon) / 1000000;
@@ -483,7 +491,8 @@ public class WayLinker extends MapCreatorBase implements Runnable {
                 }
 
                 for (OsmNodeP n : sortedList.values()) {
-                  n.writeNodeData(mc);
+                  Long islandId = islandIds.get(n.getIdFromPos());
+                  n.writeNodeData(mc, islandId == null ? 0L : islandId);
                 }
                 if (mc.getSize() > 0) {
                   byte[] subBytes;
@@ -547,9 +556,56 @@ public class WayLinker extends MapCreatorBase implements Runnable {
       ra.write(abFileIndex, 0, abFileIndex.length);
       ra.close();
     }
+    islandIds = null;
     System.out.println("**** codec stats: *******\n" + StatCoderContext.getBitReport());
   }
 
+  // find the (weakly) connected components of the routable network that
+  // do not reach the tile border and have less than islandNodeLimit
+  // network nodes. Their nodes get the id of the component's smallest
+  // node as island id, so the router can reject them without searching
+  private void markIslands() {
+    islandIds = new CompactLongMap<>();
+    int nIslands = 0;
+    List<OsmNodeP> component = new ArrayList<>();
+    for (OsmNodeP start : nodesList) {
+      if (start == null || start.getFirstLink() == null || (start.bits & OsmNodeP.COMPONENT_BIT) != 0)
+        continue;
+      component.clear();
+      component.add(start);
+      start.bits |= OsmNodeP.COMPONENT_BIT;
+      boolean isIsland = true;
+      int networkNodes = 0;
+      long anchorId = Long.MAX_VALUE;
+      for (int i = 0; i < component.size(); i++) {
+        OsmNodeP n = component.get(i);
+        if (n.isBorderNode()) {
+          isIsland = false;
+        }
+        if (!n.isTransferNode()) {
+          networkNodes++;
+          anchorId = Math.min(anchorId, n.getIdFromPos());
+        }
+        for (OsmLinkP link = n.getFirstLink(); link != null; link = link.getNext(n)) {
+          OsmNodeP t = link.getTarget(n);
+          if ((t.bits & OsmNodeP.COMPONENT_BIT) == 0) {
+            t.bits |= OsmNodeP.COMPONENT_BIT;
+            component.add(t);
+          }
+        }
+      }
+      if (isIsland && networkNodes > 0 && networkNodes < islandNodeLimit) {
+        for (OsmNodeP n : component) {
+          if (!n.isTransferNode()) {
+            islandIds.put(n.getIdFromPos(), anchorId);
+          }
+        }
+        nIslands++;
+      }
+    }
+    System.out.println("found " + nIslands + " islands with less than " + islandNodeLimit + " nodes");
+  }
+
   private byte[] compileFileIndex(long[] fileIndex, short lookupVersion, short lookupMinorVersion) throws Exception {
     ByteArrayOutputStream bos = new ByteArrayOutputStream();
     DataOutputStream dos = new DataOutputStream(bos);
@@ -6,6 +6,8 @@ import org.junit.Test;
 import java.io.File;
 import java.net.URL;
 
+import btools.mapaccess.OverlayGraph;
+
 public class MapcreatorTest {
   @Test
   public void mapcreatorTest() throws Exception {
@@ -48,5 +50,9 @@ public class MapcreatorTest {
     File segments = new File(tmpdir, "segments");
     segments.mkdir();
     new WayLinker().process(unodes55, ways55, bordernodes, resFile, lookupFile, profileAll, segments, "rd5");
+
+    // build the shortcut overlay for the car profile
+    OverlayGraph overlay = new OverlayBuilder().process(segments, lookupFile, new File(profileDir, "car-vario.brf"), 20);
+    Assert.assertTrue("empty overlay", overlay.getEdgeCount() > 0);
   }
 }
@@ -62,12 +62,17 @@ public final class DirectWeaver extends ByteDataWriter {
 
       // future escapes (turn restrictions?)
       short trExceptions = 0;
+      long islandId = 0L;
       for (; ; ) {
         int featureId = bc.decodeVarBits();
         if (featureId == 0) break;
         int bitsize = bc.decodeNoisyNumber(5);
 
-        if (featureId == 2) { // exceptions to turn-restriction
+        if (featureId == 3) { // island component, identified by its anchor node
+          int anchorLon = ilon + bc.decodeNoisyDiff(10);
+          int anchorLat = ilat + bc.decodeNoisyDiff(10);
+          islandId = ((long) anchorLon) << 32 | anchorLat;
+        } else if (featureId == 2) { // exceptions to turn-restriction
           trExceptions = (short) bc.decodeBounded(1023);
         } else if (featureId == 1) { // turn-restriction
           TurnRestriction tr = new TurnRestriction();
@@ -118,7 +123,7 @@ public final class DirectWeaver extends ByteDataWriter {
           int ilattarget = ilat + dlat_remaining;
           if (matcher != null) {
             boolean useAsStartWay = wayTags==null || wayValidator.checkStartWay(wayTags.data);
-            if (!matcher.start(ilon, ilat, ilontarget, ilattarget, useAsStartWay)) {
+            if (!matcher.start(ilon, ilat, ilontarget, ilattarget, useAsStartWay, islandId)) {
               matcher = null;
             }
           }
@@ -146,7 +151,7 @@ public final class DirectWeaver extends ByteDataWriter {
           int ilontarget = ilon + dlon_remaining;
           int ilattarget = ilat + dlat_remaining;
           boolean useAsStartWay = wayTags==null || wayValidator.checkStartWay(wayTags.data);
-          if (!matcher.start(ilon, ilat, ilontarget, ilattarget, useAsStartWay)) {
+          if (!matcher.start(ilon, ilat, ilontarget, ilattarget, useAsStartWay, islandId)) {
             matcher = null;
           }
 
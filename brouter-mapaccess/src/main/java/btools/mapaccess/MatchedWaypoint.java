@@ -28,6 +28,7 @@ public final class MatchedWaypoint {
   public int indexInTrack = 0;
   public double directionToNext = -1;
   public double directionDiff = 361;
+  public long islandId;  // anchor of the precomputed island the matched way belongs to, 0 = none
 
   public List<MatchedWaypoint> wayNearest = new ArrayList<>();
   public boolean hasUpdate;
@@ -374,7 +374,7 @@ public final class NodesCache {
       }
       if (f != null) {
         currentFileName = f.getName();
-        ra = new PhysicalFile(f, dataBuffers, lookupVersion, lookupMinorVersion);
+        ra = PhysicalFilePool.acquire(f, dataBuffers, lookupVersion, lookupMinorVersion);
       }
       fileCache.put(filenameBase, ra);
     }
@@ -391,13 +391,10 @@ public final class NodesCache {
 
   public void close() {
     for (PhysicalFile f : fileCache.values()) {
-      try {
-        if (f != null)
-          f.ra.close();
-      } catch (IOException ioe) {
-        // ignore
-      }
+      if (f != null)
+        PhysicalFilePool.release(f);
     }
+    fileCache.clear();
   }
 
   public int getElevationType(int ilon, int ilat) {
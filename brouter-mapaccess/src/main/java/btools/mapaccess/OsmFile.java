@@ -6,7 +6,6 @@
 package btools.mapaccess;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 import btools.codec.DataBuffers;
 import btools.codec.MicroCache;
@@ -18,7 +17,7 @@ import btools.util.ByteDataReader;
 import btools.util.Crc32;
 
 final public class OsmFile {
-  private RandomAccessFile is = null;
+  private PhysicalFile is = null;
   private long fileOffset;
 
   private int[] posIdx;
@@ -28,6 +27,7 @@ final public class OsmFile {
   public int latDegree;
 
   public String filename;
+  private String tileCacheId;
 
   private int divisor;
   private int cellsize;
@@ -51,29 +51,16 @@ final public class OsmFile {
 
       byte[] iobuffer = dataBuffers.iobuffer;
       filename = rafile.fileName;
+      tileCacheId = rafile.tileCacheId;
 
       long[] index = rafile.fileIndex;
       fileOffset = tileIndex > 0 ? index[tileIndex - 1] : 200L;
       if (fileOffset == index[tileIndex])
         return; // empty
 
-      is = rafile.ra;
-      posIdx = new int[ncaches];
+      is = rafile;
+      posIdx = rafile.getPosIdx(tileIndex, fileOffset, ncaches, iobuffer);
       microCaches = new MicroCache[ncaches];
-      is.seek(fileOffset);
-      is.readFully(iobuffer, 0, indexsize);
-
-      if (rafile.fileHeaderCrcs != null) {
-        int headerCrc = Crc32.crc(iobuffer, 0, indexsize);
-        if (rafile.fileHeaderCrcs[tileIndex] != headerCrc) {
-          throw new IOException("sub index checksum error");
-        }
-      }
-
-      ByteDataReader dis = new ByteDataReader(iobuffer);
-      for (int i = 0; i < ncaches; i++) {
-        posIdx[i] = dis.readInt();
-      }
     }
   }
 
@@ -107,9 +94,8 @@ final public class OsmFile {
     int endPos = getPosIdx(subIdx);
     int size = endPos - startPos;
     if (size > 0) {
-      is.seek(fileOffset + startPos);
       if (size <= iobuffer.length) {
-        is.readFully(iobuffer, 0, size);
+        is.readFully(fileOffset + startPos, iobuffer, 0, size);
       }
     }
     return size;
@@ -120,18 +106,39 @@ final public class OsmFile {
     int subIdx = (latIdx - divisor * latDegree) * divisor + (lonIdx - divisor * lonDegree);
 
     byte[] ab = dataBuffers.iobuffer;
-    int asize = getDataInputForSubIdx(subIdx, ab);
+    int asize;
+
+    TileDataCache tileCache = TileDataCache.getInstance();
+    if (tileCache.isEnabled()) {
+      long pos = fileOffset + getPosIdx(subIdx - 1);
+      ab = tileCache.get(tileCacheId, pos);
+      if (ab == null) {
+        asize = getPosIdx(subIdx) - getPosIdx(subIdx - 1);
+        if (asize == 0) {
+          return MicroCache.emptyCache();
+        }
+        ab = new byte[asize];
+        getDataInputForSubIdx(subIdx, ab);
+        TileStatistics.addRead(asize);
+        tileCache.put(tileCacheId, pos, ab);
+      }
+      asize = ab.length;
+    } else {
+      asize = getDataInputForSubIdx(subIdx, ab);
+      if (asize > ab.length) {
+        ab = new byte[asize];
+        asize = getDataInputForSubIdx(subIdx, ab);
+      }
+      TileStatistics.addRead(asize);
+    }
 
     if (asize == 0) {
       return MicroCache.emptyCache();
     }
-    if (asize > ab.length) {
-      ab = new byte[asize];
-      asize = getDataInputForSubIdx(subIdx, ab);
-    }
 
     StatCoderContext bc = new StatCoderContext(ab);
 
+    long t0 = System.nanoTime();
     try {
       if (!reallyDecode) {
         return null;
@@ -142,6 +149,9 @@ final public class OsmFile {
       new DirectWeaver(bc, dataBuffers, lonIdx, latIdx, divisor, wayValidator, waypointMatcher, hollowNodes);
       return MicroCache.emptyNonVirgin;
     } finally {
+      if (reallyDecode) {
+        TileStatistics.addDecode(System.nanoTime() - t0);
+      }
       // crc check only if the buffer has not been fully read
       int readBytes = (bc.getReadingBitPosition() + 7) >> 3;
       if (readBytes != asize - 4) {
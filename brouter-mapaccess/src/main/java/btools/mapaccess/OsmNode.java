@@ -117,8 +117,13 @@ public class OsmNode extends OsmLink implements OsmPos {
   public final void parseNodeBody2(MicroCache2 mc, OsmNodesMap hollowNodes, IByteArrayUnifier expCtxWay) {
     ByteArrayUnifier abUnifier = hollowNodes.getByteArrayUnifier();
 
-    // read turn restrictions
-    while (mc.readBoolean()) {
+    // read turn restrictions (and skip island info)
+    for (int extraType = mc.readByte(); extraType != MicroCache2.EXTRA_END; extraType = mc.readByte()) {
+      if (extraType == MicroCache2.EXTRA_ISLAND) {
+        mc.readInt();
+        mc.readInt();
+        continue;
+      }
       TurnRestriction tr = new TurnRestriction();
       tr.exceptions = mc.readShort();
       tr.isPositive = mc.readBoolean();
@@ -6,6 +6,7 @@
 package btools.mapaccess;
 
 import btools.util.CompactLongMap;
+import btools.util.CompactLongSet;
 
 public class OsmNodePairSet {
   private long[] n1a;
@@ -27,6 +28,7 @@ public class OsmNodePairSet {
   }
 
   private CompactLongMap<OsmNodePair> map;
+  private CompactLongSet islands;
 
   public void addTempPair(long n1, long n2) {
     if (tempNodes < maxTempNodes) {
@@ -87,6 +89,20 @@ public class OsmNodePairSet {
     return freezecount;
   }
 
+  /**
+   * reject all ways of the precomputed island with the given anchor id
+   */
+  public void addIsland(long islandId) {
+    if (islands == null) {
+      islands = new CompactLongSet();
+    }
+    islands.add(islandId);
+  }
+
+  public boolean hasIsland(long islandId) {
+    return islands != null && islands.contains(islandId);
+  }
+
   public boolean hasPair(long n1, long n2) {
     return map != null && (getElement(n1, n2) != null || getElement(n2, n1) != null);
   }
@@ -6,19 +6,16 @@
 package btools.mapaccess;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import btools.util.ByteArrayUnifier;
+import btools.util.OpenLongMap;
 
 public final class OsmNodesMap {
-  private Map<OsmNode, OsmNode> hmap = new HashMap<>(4096);
+  private OpenLongMap<OsmNode> hmap = new OpenLongMap<>(4096);
 
   private ByteArrayUnifier abUnifier = new ByteArrayUnifier(16384, false);
 
-  private OsmNode testKey = new OsmNode();
-
   public int nodesCreated;
   public long maxmem;
   private long currentmaxmem = 4000000; // start with 4 MB
@@ -178,8 +175,11 @@ public final class OsmNodesMap {
   public void collectOutreachers() {
     nodes2check = new ArrayList<>(nodesCreated);
     nodesCreated = 0;
-    for (OsmNode n : hmap.values()) {
-      addActiveNode(nodes2check, n);
+    for (int i = 0; i < hmap.getCapacity(); i++) {
+      OsmNode n = hmap.getValueAt(i);
+      if (n != null) {
+        addActiveNode(nodes2check, n);
+      }
     }
 
     lastVisitID++;
@@ -218,15 +218,13 @@ public final class OsmNodesMap {
    * @return the node for the given id if exist, else null
    */
   public OsmNode get(int ilon, int ilat) {
-    testKey.ilon = ilon;
-    testKey.ilat = ilat;
-    return hmap.get(testKey);
+    return hmap.get(((long) ilon) << 32 | ilat);
   }
 
 
   public void remove(OsmNode node) {
     if (node != endNode1 && node != endNode2) { // keep endnodes in hollow-map even when loaded
-      hmap.remove(node);                        // (needed for escape analysis)
+      hmap.remove(node.getIdFromPos());         // (needed for escape analysis)
     }
   }
 
@@ -236,7 +234,7 @@ public final class OsmNodesMap {
    * @return the previous node if that id existed, else null
    */
   public OsmNode put(OsmNode node) {
-    return hmap.put(node, node);
+    return hmap.put(node.getIdFromPos(), node);
   }
 
   // ********************** test cleanup **********************
@@ -0,0 +1,353 @@
+/**
+ * Preprocessed shortcut overlay for one routing profile
+ * <p>
+ * The overlay contains the junctions of the profile's major road
+ * network (ways with a priorityclassifier above a threshold) and
+ * directed shortcut edges along the chains of graph nodes between
+ * them, with costs evaluated by the profile at build time.
+ * <p>
+ * It is built offline by the map-creator's OverlayBuilder and stored
+ * as &lt;profile&gt;.ovl next to the rd5 files. Costs are approximate
+ * (no turn-, node- or elevation costs), so a route found in the
+ * overlay is meant as a guide for an exact re-tracking.
+ */
+package btools.mapaccess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import btools.util.CheapRuler;
+import btools.util.OpenLongMap;
+import btools.util.SortedHeap;
+
+public final class OverlayGraph {
+  private static final int MAGIC = 0x4f564c31; // "OVL1"
+
+  private static final Map<String, OverlayGraph> cache = new HashMap<>();
+
+  public String profileName;
+  public int lookupVersion;
+  public int minPriority;
+
+  private long lastModified;
+
+  // nodes, sorted by id
+  private long[] nodeIds;
+
+  // edges in compressed-row format
+  private int[] edgeStart;
+  private int[] edgeTarget;
+  private int[] edgeCost;
+  private int[] edgeChain; // chain index * 2 + 1 if reversed
+
+  // intermediate graph nodes of each chain
+  private int[] chainStart;
+  private long[] chainNodes;
+
+  // lower bound of cost per meter of air distance, for the search heuristic
+  private double minCostFactor;
+
+  public OverlayGraph(String profileName, int lookupVersion, int minPriority,
+                      long[] nodeIds, int[] edgeStart, int[] edgeTarget, int[] edgeCost, int[] edgeChain,
+                      int[] chainStart, long[] chainNodes) {
+    this.profileName = profileName;
+    this.lookupVersion = lookupVersion;
+    this.minPriority = minPriority;
+    this.nodeIds = nodeIds;
+    this.edgeStart = edgeStart;
+    this.edgeTarget = edgeTarget;
+    this.edgeCost = edgeCost;
+    this.edgeChain = edgeChain;
+    this.chainStart = chainStart;
+    this.chainNodes = chainNodes;
+    calcMinCostFactor();
+  }
+
+  /**
+   * Get the overlay for the given profile, if present in the
+   * segment directory. Overlays are kept in memory and re-read
+   * if the file changed.
+   *
+   * @return the overlay or null if there is no (valid) overlay file,
+   * an unreadable file is ignored like a missing one
+   */
+  public static OverlayGraph getInstance(File segmentDir, String profileName, int lookupVersion) {
+    File f = new File(segmentDir, profileName + ".ovl");
+    String key = f.getAbsolutePath();
+    synchronized (cache) {
+      OverlayGraph og = cache.get(key);
+      if (!f.exists()) {
+        cache.remove(key);
+        return null;
+      }
+      if (og == null || og.lastModified != f.lastModified()) {
+        try {
+          og = read(f);
+        } catch (IOException e) {
+          System.out.println("ignoring overlay " + f + ": " + e.getMessage());
+          cache.remove(key);
+          return null;
+        }
+        og.lastModified = f.lastModified();
+        cache.put(key, og);
+      }
+      if (og.lookupVersion != lookupVersion || !og.profileName.equals(profileName)) {
+        System.out.println("ignoring overlay " + f + ": lookup version or profile mismatch");
+        return null;
+      }
+      return og;
+    }
+  }
+
+  public static OverlayGraph read(File f) throws IOException {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+      if (dis.readInt() != MAGIC) {
+        throw new IOException("not an overlay file");
+      }
+      String profileName = dis.readUTF();
+      int lookupVersion = dis.readInt();
+      int minPriority = dis.readInt();
+      long fileSize = f.length();
+      long[] nodeIds = readLongs(dis, fileSize);
+      int[] edgeStart = readInts(dis, fileSize);
+      int[] edgeTarget = readInts(dis, fileSize);
+      int[] edgeCost = readInts(dis, fileSize);
+      int[] edgeChain = readInts(dis, fileSize);
+      int[] chainStart = readInts(dis, fileSize);
+      long[] chainNodes = readLongs(dis, fileSize);
+      if (edgeStart.length != nodeIds.length + 1 || edgeTarget.length != edgeCost.length || edgeTarget.length != edgeChain.length
+        || edgeStart[nodeIds.length] != edgeTarget.length || chainStart.length == 0 || chainStart[chainStart.length - 1] != chainNodes.length) {
+        throw new IOException("inconsistent overlay file");
+      }
+      return new OverlayGraph(profileName, lookupVersion, minPriority, nodeIds, edgeStart, edgeTarget, edgeCost, edgeChain, chainStart, chainNodes);
+    }
+  }
+
+  public void write(File f) throws IOException {
+    try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+      dos.writeInt(MAGIC);
+      dos.writeUTF(profileName);
+      dos.writeInt(lookupVersion);
+      dos.writeInt(minPriority);
+      writeLongs(dos, nodeIds);
+      writeInts(dos, edgeStart);
+      writeInts(dos, edgeTarget);
+      writeInts(dos, edgeCost);
+      writeInts(dos, edgeChain);
+      writeInts(dos, chainStart);
+      writeLongs(dos, chainNodes);
+    }
+  }
+
+  private static int[] readInts(DataInputStream dis, long fileSize) throws IOException {
+    int[] a = new int[readLength(dis, 4, fileSize)];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = dis.readInt();
+    }
+    return a;
+  }
+
+  private static long[] readLongs(DataInputStream dis, long fileSize) throws IOException {
+    long[] a = new long[readLength(dis, 8, fileSize)];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = dis.readLong();
+    }
+    return a;
+  }
+
+  private static int readLength(DataInputStream dis, int elementSize, long fileSize) throws IOException {
+    int n = dis.readInt();
+    if (n < 0 || (long) n * elementSize > fileSize) {
+      throw new IOException("invalid array length " + n);
+    }
+    return n;
+  }
+
+  private static void writeInts(DataOutputStream dos, int[] a) throws IOException {
+    dos.writeInt(a.length);
+    for (int v : a) {
+      dos.writeInt(v);
+    }
+  }
+
+  private static void writeLongs(DataOutputStream dos, long[] a) throws IOException {
+    dos.writeInt(a.length);
+    for (long v : a) {
+      dos.writeLong(v);
+    }
+  }
+
+  private void calcMinCostFactor() {
+    minCostFactor = Double.MAX_VALUE;
+    for (int n = 0; n < nodeIds.length; n++) {
+      for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++) {
+        double dist = distance(n, edgeTarget[e]);
+        if (dist > 0.) {
+          minCostFactor = Math.min(minCostFactor, edgeCost[e] / dist);
+        }
+      }
+    }
+    if (minCostFactor == Double.MAX_VALUE) {
+      minCostFactor = 0.;
+    }
+  }
+
+  private double distance(int n1, int n2) {
+    long id1 = nodeIds[n1];
+    long id2 = nodeIds[n2];
+    return CheapRuler.distance((int) (id1 >> 32), (int) id1, (int) (id2 >> 32), (int) id2);
+  }
+
+  public int getNodeCount() {
+    return nodeIds.length;
+  }
+
+  public int getEdgeCount() {
+    return edgeTarget.length;
+  }
+
+  /**
+   * @return the node index for the given id, or -1 if not an overlay node
+   */
+  public int getNodeIndex(long id) {
+    int idx = Arrays.binarySearch(nodeIds, id);
+    return idx < 0 ? -1 : idx;
+  }
+
+  public long getNodeId(int idx) {
+    return nodeIds[idx];
+  }
+
+  /**
+   * Find the cheapest overlay path from any of the source nodes to any of
+   * the target nodes, with the given initial and final costs.
+   * The search state is kept per reached node, not per overlay node.
+   *
+   * @return the ids of the graph nodes along the path, starting with the
+   * source node and ending with the target node, or null if not connected
+   */
+  public long[] findPath(int[] sources, int[] sourceCosts, int[] targets, int[] targetCosts) {
+    // reached node -> {cost, via edge}
+    OpenLongMap<int[]> labels = new OpenLongMap<>();
+
+    // A* with the air distance to the nearest target as heuristic
+    SortedHeap<int[]> openSet = new SortedHeap<>();
+    for (int i = 0; i < sources.length; i++) {
+      int n = sources[i];
+      int[] label = labels.get(n);
+      if (label == null || sourceCosts[i] < label[0]) {
+        labels.put(n, new int[]{sourceCosts[i], -1});
+        int key = sourceCosts[i] + heuristic(n, targets);
+        openSet.add(key, new int[]{n, sourceCosts[i], key});
+      }
+    }
+
+    int bestCost = Integer.MAX_VALUE;
+    int bestTarget = -1;
+    for (; ; ) {
+      int[] entry = openSet.popLowestKeyValue();
+      if (entry == null) {
+        break;
+      }
+      int n = entry[0];
+      int c = entry[1];
+      if (c > labels.get(n)[0]) {
+        continue; // outdated entry
+      }
+      if (entry[2] >= bestCost) {
+        break; // heuristic is a lower bound
+      }
+      int finalCost = getFinalCost(n, targets, targetCosts);
+      if (finalCost >= 0 && c + finalCost < bestCost) {
+        bestCost = c + finalCost;
+        bestTarget = n;
+      }
+      for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++) {
+        int t = edgeTarget[e];
+        int tc = c + edgeCost[e];
+        int[] label = labels.get(t);
+        if (label == null || tc < label[0]) {
+          labels.put(t, new int[]{tc, e});
+          int key = tc + heuristic(t, targets);
+          openSet.add(key, new int[]{t, tc, key});
+        }
+      }
+    }
+    if (bestTarget < 0) {
+      return null;
+    }
+
+    // collect the edges backwards, then expand the chains
+    int nEdges = 0;
+    int[] edges = new int[16];
+    int source = bestTarget;
+    for (int e = labels.get(source)[1]; e >= 0; e = labels.get(source)[1]) {
+      if (nEdges == edges.length) {
+        edges = Arrays.copyOf(edges, 2 * nEdges);
+      }
+      edges[nEdges++] = e;
+      source = edgeSource(e);
+    }
+    int size = 1;
+    for (int i = 0; i < nEdges; i++) {
+      int chain = edgeChain[edges[i]] >> 1;
+      size += chainStart[chain + 1] - chainStart[chain] + 1;
+    }
+    long[] path = new long[size];
+    path[0] = nodeIds[source];
+    int pos = 1;
+    for (int i = nEdges - 1; i >= 0; i--) {
+      int e = edges[i];
+      int chain = edgeChain[e] >> 1;
+      boolean reversed = (edgeChain[e] & 1) != 0;
+      int from = chainStart[chain];
+      int to = chainStart[chain + 1];
+      for (int k = from; k < to; k++) {
+        path[pos++] = chainNodes[reversed ? to - 1 - (k - from) : k];
+      }
+      path[pos++] = nodeIds[edgeTarget[e]];
+    }
+    return path;
+  }
+
+  private int edgeSource(int e) {
+    int lo = 0;
+    int hi = nodeIds.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (edgeStart[mid] <= e) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  private static int getFinalCost(int n, int[] targets, int[] targetCosts) {
+    int finalCost = -1;
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i] == n && (finalCost < 0 || targetCosts[i] < finalCost)) {
+        finalCost = targetCosts[i];
+      }
+    }
+    return finalCost;
+  }
+
+  private int heuristic(int n, int[] targets) {
+    double minDist = Double.MAX_VALUE;
+    for (int t : targets) {
+      minDist = Math.min(minDist, distance(n, t));
+    }
+    return (int) (minDist * minCostFactor);
+  }
+}
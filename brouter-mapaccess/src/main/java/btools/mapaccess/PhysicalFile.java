@@ -8,6 +8,10 @@ package btools.mapaccess;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
 
 import btools.codec.DataBuffers;
 import btools.codec.MicroCache;
@@ -15,13 +19,39 @@ import btools.util.ByteDataReader;
 import btools.util.Crc32;
 
 final public class PhysicalFile {
+  private static final boolean useMappedSegments = Boolean.getBoolean("useMappedSegments");
+
+  // one mapping per file version, shared by all instances (also without the file pool)
+  private static final Map<String, Mapping> mappings = new HashMap<>();
+
+  private static final class Mapping {
+    final String id;
+    final ByteBuffer data;
+
+    Mapping(String id, ByteBuffer data) {
+      this.id = id;
+      this.data = data;
+    }
+  }
+
   RandomAccessFile ra = null;
+  private ByteBuffer mappedData;
   long[] fileIndex = new long[25];
   int[] fileHeaderCrcs;
 
   public long creationTime;
 
   String fileName;
+  String tileCacheId;
+
+  // state used by PhysicalFilePool
+  long lastModified;
+  long fileLength;
+  int refCount;
+  boolean stale;
+  private short fileVersion;
+
+  private int[][] tilePosIdx = new int[25][];
 
   public int divisor = 80;
   public byte elevationType = 3;
@@ -81,16 +111,16 @@ final public class PhysicalFile {
       }
     } finally {
       if (pf != null)
-        try {
-          pf.ra.close();
-        } catch (Exception ee) {
-        }
+        pf.close();
     }
     return null;
   }
 
   public PhysicalFile(File f, DataBuffers dataBuffers, int lookupVersion, int lookupMinorVersion) throws IOException {
     fileName = f.getName();
+    lastModified = f.lastModified();
+    fileLength = f.length();
+    tileCacheId = f.getAbsolutePath() + "@" + lastModified + "/" + fileLength;
     byte[] iobuffer = dataBuffers.iobuffer;
     ra = new RandomAccessFile(f, "r");
     ra.readFully(iobuffer, 0, 200);
@@ -99,9 +129,9 @@ final public class PhysicalFile {
     for (int i = 0; i < 25; i++) {
       long lv = dis.readLong();
       short readVersion = (short) (lv >> 48);
-      if (i == 0 && lookupVersion != -1 && readVersion != lookupVersion) {
-        throw new IOException("lookup version mismatch (old rd5?) lookups.dat="
-          + lookupVersion + " " + f.getName() + "=" + readVersion);
+      if (i == 0) {
+        fileVersion = readVersion;
+        checkLookupVersion(lookupVersion);
       }
       fileIndex[i] = lv & 0xffffffffffffL;
     }
@@ -109,6 +139,10 @@ final public class PhysicalFile {
     // read some extra info from the end of the file, if present
     long len = ra.length();
 
+    if (useMappedSegments && len <= Integer.MAX_VALUE) {
+      mappedData = getMapping(f.getAbsolutePath(), len);
+    }
+
     long pos = fileIndex[24];
     int extraLen = 8 + 26 * 4;
 
@@ -144,7 +178,77 @@ final public class PhysicalFile {
     } catch (Exception e) {}
   }
 
+  private ByteBuffer getMapping(String path, long len) throws IOException {
+    synchronized (mappings) {
+      Mapping m = mappings.get(path);
+      if (m == null || !m.id.equals(tileCacheId)) {
+        // a replaced file gets a new mapping, the old one is released when no longer used
+        m = new Mapping(tileCacheId, ra.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, len));
+        mappings.put(path, m);
+      }
+      return m.data;
+    }
+  }
+
+  void checkLookupVersion(int lookupVersion) throws IOException {
+    if (lookupVersion != -1 && fileVersion != lookupVersion) {
+      throw new IOException("lookup version mismatch (old rd5?) lookups.dat="
+        + lookupVersion + " " + fileName + "=" + fileVersion);
+    }
+  }
+
+  /**
+   * Get the (checksum-verified) sub-index of the given 1x1 degree tile.
+   * It is parsed only once per physical file
+   */
+  synchronized int[] getPosIdx(int tileIndex, long fileOffset, int ncaches, byte[] iobuffer) throws IOException {
+    int[] posIdx = tilePosIdx[tileIndex];
+    if (posIdx == null) {
+      int indexsize = ncaches * 4;
+      readFully(fileOffset, iobuffer, 0, indexsize);
+
+      if (fileHeaderCrcs != null) {
+        int headerCrc = Crc32.crc(iobuffer, 0, indexsize);
+        if (fileHeaderCrcs[tileIndex] != headerCrc) {
+          throw new IOException("sub index checksum error");
+        }
+      }
+
+      posIdx = new int[ncaches];
+      ByteDataReader dis = new ByteDataReader(iobuffer);
+      for (int i = 0; i < ncaches; i++) {
+        posIdx[i] = dis.readInt();
+      }
+      tilePosIdx[tileIndex] = posIdx;
+    }
+    return posIdx;
+  }
+
+  /**
+   * Read data from the given file position. In mapped mode
+   * this is a copy from the mapping (shared by all instances
+   * of the same file), which needs neither a syscall nor any
+   * locking, else the (pooled) file handle is locked for the
+   * seek/read sequence
+   */
+  void readFully(long pos, byte[] buf, int off, int len) throws IOException {
+    if (mappedData != null) {
+      if (pos < 0L || len < 0 || pos + len > mappedData.limit()) {
+        throw new IOException("read of " + len + " bytes at " + pos + " beyond end of " + fileName + " (" + mappedData.limit() + " bytes)");
+      }
+      ByteBuffer slice = mappedData.duplicate();
+      slice.position((int) pos);
+      slice.get(buf, off, len);
+      return;
+    }
+    synchronized (ra) {
+      ra.seek(pos);
+      ra.readFully(buf, off, len);
+    }
+  }
+
   public void close(){
+    mappedData = null;
     if (ra != null) {
       try {
         ra.close();
@@ -0,0 +1,126 @@
+/**
+ * Process-wide registry of opened rd5 files
+ * <p>
+ * Keeps PhysicalFile instances (with their parsed top index
+ * and sub-indexes) open across requests. Files are reference
+ * counted and re-opened if the file on disk changed (mtime/length).
+ * Unreferenced files are closed in lru-order if more than
+ * the configured number of files is open.
+ * <p>
+ * Size is configured via -DsegmentFilePoolSize=&lt;n&gt;, 0 = disabled
+ */
+package btools.mapaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import btools.codec.DataBuffers;
+
+public final class PhysicalFilePool {
+  private static volatile int maxIdleFiles = Integer.getInteger("segmentFilePoolSize", 0);
+
+  private static final LinkedHashMap<String, PhysicalFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+  private static long opened;
+  private static long reused;
+
+  private PhysicalFilePool() {
+  }
+
+  public static void setSize(int size) {
+    synchronized (openFiles) {
+      maxIdleFiles = size;
+      closeIdleFiles();
+    }
+  }
+
+  public static boolean isEnabled() {
+    return maxIdleFiles > 0;
+  }
+
+  public static PhysicalFile acquire(File f, DataBuffers dataBuffers, int lookupVersion, int lookupMinorVersion) throws IOException {
+    if (!isEnabled()) {
+      return new PhysicalFile(f, dataBuffers, lookupVersion, lookupMinorVersion);
+    }
+    String key = f.getAbsolutePath();
+    synchronized (openFiles) {
+      PhysicalFile pf = openFiles.get(key);
+      if (pf != null) {
+        if (pf.lastModified == f.lastModified() && pf.fileLength == f.length()) {
+          pf.checkLookupVersion(lookupVersion);
+          pf.refCount++;
+          reused++;
+          return pf;
+        }
+        // file was replaced: drop it, close it when no longer used
+        openFiles.remove(key);
+        pf.stale = true;
+        if (pf.refCount == 0) {
+          pf.close();
+        }
+      }
+    }
+
+    // open outside the lock, other threads may have done the same meanwhile
+    PhysicalFile pf = new PhysicalFile(f, dataBuffers, lookupVersion, lookupMinorVersion);
+    synchronized (openFiles) {
+      PhysicalFile existing = openFiles.get(key);
+      if (existing != null && existing.lastModified == pf.lastModified && existing.fileLength == pf.fileLength) {
+        pf.close();
+        pf = existing;
+        reused++;
+      } else {
+        if (existing != null) {
+          existing.stale = true;
+          if (existing.refCount == 0) {
+            existing.close();
+          }
+        }
+        openFiles.put(key, pf);
+        opened++;
+      }
+      pf.refCount++;
+      closeIdleFiles();
+      return pf;
+    }
+  }
+
+  public static void release(PhysicalFile pf) {
+    synchronized (openFiles) {
+      if (pf.refCount == 0) { // not pooled
+        pf.close();
+        return;
+      }
+      pf.refCount--;
+      if (pf.refCount == 0) {
+        if (pf.stale) {
+          pf.close();
+        } else {
+          closeIdleFiles();
+        }
+      }
+    }
+  }
+
+  // close unused files in lru-order beyond the pool size
+  private static void closeIdleFiles() {
+    int toClose = openFiles.size() - maxIdleFiles;
+    Iterator<PhysicalFile> it = openFiles.values().iterator();
+    while (toClose > 0 && it.hasNext()) {
+      PhysicalFile pf = it.next();
+      if (pf.refCount == 0) {
+        it.remove();
+        pf.close();
+        toClose--;
+      }
+    }
+  }
+
+  public static String formatStatus() {
+    synchronized (openFiles) {
+      return "openFiles=" + openFiles.size() + " opened=" + opened + " reused=" + reused;
+    }
+  }
+}
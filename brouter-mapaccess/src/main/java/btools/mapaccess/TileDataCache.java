@@ -0,0 +1,125 @@
+/**
+ * Process-wide cache for the raw data of rd5 sub-tiles
+ * <p>
+ * Decoded tiles are not shareable (they depend on the
+ * profile's access filter and are woven into the per-request
+ * node graph), but the raw tile data are immutable byte
+ * arrays, so they can be shared by all NodesCache instances
+ * of all threads. The cache is bounded by the total
+ * data size and evicts in lru-order.
+ * <p>
+ * Size is configured via -DtileCacheSize=&lt;MB&gt;, 0 = disabled
+ */
+package btools.mapaccess;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class TileDataCache {
+  private static final TileDataCache instance = new TileDataCache(Long.getLong("tileCacheSize", 0L) * 1024L * 1024L);
+
+  private final LinkedHashMap<Key, byte[]> map = new LinkedHashMap<>(1024, 0.75f, true);
+
+  private long maxBytes;
+  private long currentBytes;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  private static final class Key {
+    final String fileId;
+    final long pos;
+
+    Key(String fileId, long pos) {
+      this.fileId = fileId;
+      this.pos = pos;
+    }
+
+    @Override
+    public int hashCode() {
+      return fileId.hashCode() ^ (int) (pos ^ (pos >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return pos == k.pos && fileId.equals(k.fileId);
+    }
+  }
+
+  public static TileDataCache getInstance() {
+    return instance;
+  }
+
+  TileDataCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0L;
+  }
+
+  /**
+   * @param fileId the identity of the (physical) rd5 file
+   * @param pos    the tile's absolute position within that file
+   * @return the cached tile data or null
+   */
+  public synchronized byte[] get(String fileId, long pos) {
+    byte[] ab = map.get(new Key(fileId, pos));
+    if (ab == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return ab;
+  }
+
+  public synchronized void put(String fileId, long pos, byte[] ab) {
+    if (ab.length > maxBytes / 4) {
+      return; // don't let a single tile flush the cache
+    }
+    byte[] old = map.put(new Key(fileId, pos), ab);
+    if (old != null) {
+      currentBytes -= old.length;
+    }
+    currentBytes += ab.length;
+
+    Iterator<Map.Entry<Key, byte[]>> it = map.entrySet().iterator();
+    while (currentBytes > maxBytes && it.hasNext()) {
+      currentBytes -= it.next().getValue().length;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized void clear() {
+    map.clear();
+    currentBytes = 0L;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getCurrentBytes() {
+    return currentBytes;
+  }
+
+  public synchronized String formatStatus() {
+    return "tiles=" + map.size() + " bytes=" + currentBytes + " maxBytes=" + maxBytes
+      + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+  }
+}
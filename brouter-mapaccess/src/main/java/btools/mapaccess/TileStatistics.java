@@ -0,0 +1,45 @@
+/**
+ * Process-wide counters for the loading of rd5 sub-tiles
+ * <p>
+ * Counted with striped adders, so the decoding threads
+ * don't contend on them.
+ */
+package btools.mapaccess;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class TileStatistics {
+  private static final LongAdder loads = new LongAdder();
+  private static final LongAdder bytesRead = new LongAdder();
+  private static final LongAdder decodeNanos = new LongAdder();
+
+  private TileStatistics() {
+  }
+
+  static void addRead(int bytes) {
+    bytesRead.add(bytes);
+  }
+
+  static void addDecode(long nanos) {
+    loads.increment();
+    decodeNanos.add(nanos);
+  }
+
+  /**
+   * @return the number of decoded sub-tiles
+   */
+  public static long getLoads() {
+    return loads.sum();
+  }
+
+  /**
+   * @return the number of bytes read from the rd5 files (not from the tile data cache)
+   */
+  public static long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  public static long getDecodeNanos() {
+    return decodeNanos.sum();
+  }
+}
@@ -1,5 +1,6 @@
 package btools.mapaccess;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -14,9 +15,13 @@ import btools.util.CheapRuler;
  * <p>
  * It matches these geometries against the list of waypoints to find the best
  * match for each waypoint
+ * <p>
+ * For many waypoints (snapping a gps trace) the waypoints are put into a grid,
+ * so each way segment is checked only against the waypoints near to it
  */
 public final class WaypointMatcherImpl implements WaypointMatcher {
   private static final int MAX_POINTS = 5;
+  private static final int GRID_MIN_WAYPOINTS = 16;
 
   private List<MatchedWaypoint> waypoints;
   private OsmNodePairSet islandPairs;
@@ -25,6 +30,7 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
   private int latStart;
   private int lonTarget;
   private int latTarget;
+  private long islandId;
   private boolean anyUpdate;
   private int lonLast;
   private int latLast;
@@ -35,6 +41,12 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
 
   private Comparator<MatchedWaypoint> comparator;
 
+  // waypoint grid: indices sorted by cell, direct waypoints are checked for every segment
+  private int cellSize;
+  private long[] cellKeys;
+  private int[] cellIndices;
+  private int[] alwaysChecked;
+
   public WaypointMatcherImpl(List<MatchedWaypoint> waypoints, double maxDistance, OsmNodePairSet islandPairs) {
     this.waypoints = waypoints;
     this.islandPairs = islandPairs;
@@ -61,6 +73,9 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
       last.directionToNext = CheapAngleMeter.getDirection(last.waypoint.ilon, last.waypoint.ilat, waypoints.get(lastidx).waypoint.ilon, waypoints.get(lastidx).waypoint.ilat);
     }
     maxWptIdx = waypoints.size() - 1;
+    if (waypoints.size() >= GRID_MIN_WAYPOINTS && waypoints.size() < 1 << 20) {
+      buildGrid();
+    }
 
     // sort result list
     comparator = new Comparator<>() {
@@ -74,9 +89,41 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
 
   }
 
-  private void checkSegment(int lon1, int lat1, int lon2, int lat2) {
-    // todo: bounding-box pre-filter
+  private void buildGrid() {
+    // about 3x3 cells around a segment for the catching range (1 micro-degree latitude = 0.11m)
+    cellSize = Math.max(1000, (int) (maxDistance * 9.));
+    int n = waypoints.size();
+    long[] keys = new long[n];
+    int directCount = 0;
+    for (int i = 0; i < n; i++) {
+      MatchedWaypoint mwp = waypoints.get(i);
+      if (mwp.wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT) {
+        keys[i] = Long.MAX_VALUE;
+        directCount++;
+      } else {
+        keys[i] = cellKey(mwp.waypoint.ilon / cellSize, mwp.waypoint.ilat / cellSize) << 20 | i;
+      }
+    }
+    Arrays.sort(keys);
+    cellKeys = new long[n - directCount];
+    cellIndices = new int[n - directCount];
+    for (int i = 0; i < cellKeys.length; i++) {
+      cellKeys[i] = keys[i] >> 20;
+      cellIndices[i] = (int) (keys[i] & 0xfffff);
+    }
+    alwaysChecked = new int[directCount];
+    for (int i = 0, j = 0; i < n; i++) {
+      if (waypoints.get(i).wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT) {
+        alwaysChecked[j++] = i;
+      }
+    }
+  }
+
+  private static long cellKey(int cellLon, int cellLat) {
+    return ((long) cellLon) << 20 | cellLat;
+  }
 
+  private void checkSegment(int lon1, int lat1, int lon2, int lat2) {
     double[] lonlat2m = CheapRuler.getLonLatToMeterScales((lat1 + lat2) >> 1);
     double dlon2m = lonlat2m[0];
     double dlat2m = lonlat2m[1];
@@ -88,75 +135,120 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
     if (d == 0.)
       return;
 
-    //for ( MatchedWaypoint mwp : waypoints )
-    for (int i = 0; i < waypoints.size(); i++) {
-      if (!useAsStartWay && i == 0) continue;
-      MatchedWaypoint mwp = waypoints.get(i);
-
-      if (mwp.wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT &&
-        (i == 0 ||
-          waypoints.get(i - 1).wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT)
-      ) {
-        if (mwp.crosspoint == null) {
-          mwp.crosspoint = new OsmNode();
-          mwp.crosspoint.ilon = mwp.waypoint.ilon;
-          mwp.crosspoint.ilat = mwp.waypoint.ilat;
-          mwp.hasUpdate = true;
-          anyUpdate = true;
-        }
-        continue;
-      }
-
-      OsmNode wp = mwp.waypoint;
-      double x1 = (lon1 - wp.ilon) * dlon2m;
-      double y1 = (lat1 - wp.ilat) * dlat2m;
-      double x2 = (lon2 - wp.ilon) * dlon2m;
-      double y2 = (lat2 - wp.ilat) * dlat2m;
-      double r12 = x1 * x1 + y1 * y1;
-      double r22 = x2 * x2 + y2 * y2;
-      double radius = Math.abs(r12 < r22 ? y1 * dx - x1 * dy : y2 * dx - x2 * dy) / d;
-
-      if (radius <= mwp.radius) {
-        double s1 = x1 * dx + y1 * dy;
-        double s2 = x2 * dx + y2 * dy;
-
-        if (s1 < 0.) {
-          s1 = -s1;
-          s2 = -s2;
+    if (cellKeys != null) {
+      // grid lookup of the waypoints within the catching range of the segment's bounding box
+      int rangeLon = (int) (maxDistance / dlon2m) + 1;
+      int rangeLat = (int) (maxDistance / dlat2m) + 1;
+      int cellLon1 = Math.max(0, Math.min(lon1, lon2) - rangeLon) / cellSize;
+      int cellLon2 = (Math.max(lon1, lon2) + rangeLon) / cellSize;
+      int cellLat1 = Math.max(0, Math.min(lat1, lat2) - rangeLat) / cellSize;
+      int cellLat2 = (Math.max(lat1, lat2) + rangeLat) / cellSize;
+      if ((long) (cellLon2 - cellLon1 + 1) * (cellLat2 - cellLat1 + 1) <= cellKeys.length) {
+        for (int i : alwaysChecked) {
+          checkWaypoint(i, lon1, lat1, lon2, lat2, dlon2m, dlat2m, dx, dy, d);
         }
-        if (s2 > 0.) {
-          radius = Math.sqrt(s1 < s2 ? r12 : r22);
-
-          if (radius > mwp.radius) {
-            continue;
+        for (int cellLon = cellLon1; cellLon <= cellLon2; cellLon++) {
+          for (int cellLat = cellLat1; cellLat <= cellLat2; cellLat++) {
+            long key = cellKey(cellLon, cellLat);
+            int idx = Arrays.binarySearch(cellKeys, key);
+            if (idx < 0) {
+              continue;
+            }
+            while (idx > 0 && cellKeys[idx - 1] == key) {
+              idx--;
+            }
+            for (; idx < cellKeys.length && cellKeys[idx] == key; idx++) {
+              checkWaypoint(cellIndices[idx], lon1, lat1, lon2, lat2, dlon2m, dlat2m, dx, dy, d);
+            }
           }
         }
-        // new match for that waypoint
-        mwp.radius = radius; // shortest distance to way
+        return;
+      }
+    }
+    for (int i = 0; i < waypoints.size(); i++) {
+      checkWaypoint(i, lon1, lat1, lon2, lat2, dlon2m, dlat2m, dx, dy, d);
+    }
+  }
+
+  private void checkWaypoint(int i, int lon1, int lat1, int lon2, int lat2, double dlon2m, double dlat2m, double dx, double dy, double d) {
+    if (!useAsStartWay && i == 0) {
+      return;
+    }
+    MatchedWaypoint mwp = waypoints.get(i);
+
+    if (mwp.wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT &&
+      (i == 0 ||
+        waypoints.get(i - 1).wpttype == MatchedWaypoint.WAYPOINT_TYPE_DIRECT)
+    ) {
+      if (mwp.crosspoint == null) {
+        mwp.crosspoint = new OsmNode();
+        mwp.crosspoint.ilon = mwp.waypoint.ilon;
+        mwp.crosspoint.ilat = mwp.waypoint.ilat;
         mwp.hasUpdate = true;
         anyUpdate = true;
-        // calculate crosspoint
-        if (mwp.crosspoint == null)
-          mwp.crosspoint = new OsmNode();
-        if (s2 < 0.) {
-          double wayfraction = -s2 / (d * d);
-          double xm = x2 - wayfraction * dx;
-          double ym = y2 - wayfraction * dy;
-          mwp.crosspoint.ilon = (int) (xm / dlon2m + wp.ilon);
-          mwp.crosspoint.ilat = (int) (ym / dlat2m + wp.ilat);
-        } else if (s1 > s2) {
-          mwp.crosspoint.ilon = lon2;
-          mwp.crosspoint.ilat = lat2;
-        } else {
-          mwp.crosspoint.ilon = lon1;
-          mwp.crosspoint.ilat = lat1;
+      }
+      return;
+    }
+
+    OsmNode wp = mwp.waypoint;
+
+    // bounding-box pre-filter, the distance to the box is a lower bound of the distance to the segment
+    int outLon = Math.max(0, wp.ilon < Math.min(lon1, lon2) ? Math.min(lon1, lon2) - wp.ilon : wp.ilon - Math.max(lon1, lon2));
+    int outLat = Math.max(0, wp.ilat < Math.min(lat1, lat2) ? Math.min(lat1, lat2) - wp.ilat : wp.ilat - Math.max(lat1, lat2));
+    if (outLon * dlon2m > mwp.radius || outLat * dlat2m > mwp.radius) {
+      return;
+    }
+    double x1 = (lon1 - wp.ilon) * dlon2m;
+    double y1 = (lat1 - wp.ilat) * dlat2m;
+    double x2 = (lon2 - wp.ilon) * dlon2m;
+    double y2 = (lat2 - wp.ilat) * dlat2m;
+    double r12 = x1 * x1 + y1 * y1;
+    double r22 = x2 * x2 + y2 * y2;
+    double radius = Math.abs(r12 < r22 ? y1 * dx - x1 * dy : y2 * dx - x2 * dy) / d;
+
+    if (radius <= mwp.radius) {
+      double s1 = x1 * dx + y1 * dy;
+      double s2 = x2 * dx + y2 * dy;
+
+      if (s1 < 0.) {
+        s1 = -s1;
+        s2 = -s2;
+      }
+      if (s2 > 0.) {
+        radius = Math.sqrt(s1 < s2 ? r12 : r22);
+
+        if (radius > mwp.radius) {
+          return;
         }
       }
+      // new match for that waypoint
+      mwp.radius = radius; // shortest distance to way
+      mwp.hasUpdate = true;
+      anyUpdate = true;
+      // calculate crosspoint
+      if (mwp.crosspoint == null)
+        mwp.crosspoint = new OsmNode();
+      if (s2 < 0.) {
+        double wayfraction = -s2 / (d * d);
+        double xm = x2 - wayfraction * dx;
+        double ym = y2 - wayfraction * dy;
+        mwp.crosspoint.ilon = (int) (xm / dlon2m + wp.ilon);
+        mwp.crosspoint.ilat = (int) (ym / dlat2m + wp.ilat);
+      } else if (s1 > s2) {
+        mwp.crosspoint.ilon = lon2;
+        mwp.crosspoint.ilat = lat2;
+      } else {
+        mwp.crosspoint.ilon = lon1;
+        mwp.crosspoint.ilat = lat1;
+      }
     }
   }
 
   @Override
-  public boolean start(int ilonStart, int ilatStart, int ilonTarget, int ilatTarget, boolean useAsStartWay) {
+  public boolean start(int ilonStart, int ilatStart, int ilonTarget, int ilatTarget, boolean useAsStartWay, long islandId) {
+    if (islandId != 0L && islandPairs.hasIsland(islandId)) {
+      return false;
+    }
     if (islandPairs.size() > 0) {
       long n1 = ((long) ilonStart) << 32 | ilatStart;
       long n2 = ((long) ilonTarget) << 32 | ilatTarget;
@@ -168,6 +260,7 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
     latLast = latStart = ilatStart;
     lonTarget = ilonTarget;
     latTarget = ilatTarget;
+    this.islandId = islandId;
     anyUpdate = false;
     this.useAsStartWay = useAsStartWay;
     return true;
@@ -204,6 +297,7 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
           mw.radius = mwp.radius;
           mw.directionDiff = diff;
           mw.directionToNext = mwp.directionToNext;
+          mw.islandId = islandId;
 
           updateWayList(mwp.wayNearest, mw);
 
@@ -223,6 +317,7 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
           mw.radius = mwp.radius;
           mw.directionDiff = diff;
           mw.directionToNext = mwp.directionToNext;
+          mw.islandId = islandId;
 
           updateWayList(mwp.wayNearest, mw);
 
@@ -233,6 +328,7 @@ public final class WaypointMatcherImpl implements WaypointMatcher {
           mwp.node2 = new OsmNode(way.node2.ilon, way.node2.ilat);
           mwp.directionDiff = way.directionDiff;
           mwp.radius = way.radius;
+          mwp.islandId = way.islandId;
 
         }
       }
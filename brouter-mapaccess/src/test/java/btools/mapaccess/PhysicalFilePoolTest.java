@@ -0,0 +1,51 @@
+package btools.mapaccess;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import btools.codec.DataBuffers;
+import btools.util.ByteDataWriter;
+
+public class PhysicalFilePoolTest {
+  @Test
+  public void poolTest() throws IOException {
+    File f = File.createTempFile("E5_N45", ".rd5");
+    f.deleteOnExit();
+    writeEmptySegment(f);
+
+    PhysicalFilePool.setSize(2);
+    try {
+      DataBuffers dataBuffers = new DataBuffers();
+      PhysicalFile pf1 = PhysicalFilePool.acquire(f, dataBuffers, -1, -1);
+      PhysicalFile pf2 = PhysicalFilePool.acquire(f, dataBuffers, -1, -1);
+      Assert.assertSame(pf1, pf2);
+      Assert.assertEquals(2, pf1.refCount);
+      PhysicalFilePool.release(pf1);
+      PhysicalFilePool.release(pf2);
+      Assert.assertTrue("idle file closed", pf1.ra.getChannel().isOpen());
+
+      // file replaced -> re-opened
+      Assert.assertTrue(f.setLastModified(f.lastModified() - 10000L));
+      PhysicalFile pf3 = PhysicalFilePool.acquire(f, dataBuffers, -1, -1);
+      Assert.assertTrue(pf1 != pf3);
+      Assert.assertFalse("stale file not closed", pf1.ra.getChannel().isOpen());
+      PhysicalFilePool.release(pf3);
+    } finally {
+      PhysicalFilePool.setSize(0);
+    }
+  }
+
+  // an rd5 in the (old) format without trailer and with 25 empty tiles
+  private static void writeEmptySegment(File f) throws IOException {
+    byte[] ab = new byte[200];
+    ByteDataWriter w = new ByteDataWriter(ab);
+    for (int i = 0; i < 25; i++) {
+      w.writeLong(200L);
+    }
+    Files.write(f.toPath(), ab);
+  }
+}
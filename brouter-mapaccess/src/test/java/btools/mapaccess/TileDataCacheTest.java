@@ -0,0 +1,33 @@
+package btools.mapaccess;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TileDataCacheTest {
+  @Test
+  public void lruEvictionTest() {
+    TileDataCache cache = new TileDataCache(1000);
+
+    cache.put("a", 0L, new byte[200]);
+    cache.put("a", 200L, new byte[200]);
+    cache.put("b", 0L, new byte[200]);
+    Assert.assertNotNull(cache.get("a", 0L)); // touch -> mru
+
+    cache.put("b", 200L, new byte[200]);
+    cache.put("b", 400L, new byte[200]);
+    Assert.assertEquals(1000L, cache.getCurrentBytes());
+
+    cache.put("c", 0L, new byte[200]);
+    Assert.assertEquals(1000L, cache.getCurrentBytes());
+    Assert.assertEquals(1L, cache.getEvictions());
+    Assert.assertNull("lru tile not evicted", cache.get("a", 200L));
+    Assert.assertNotNull("touched tile evicted", cache.get("a", 0L));
+
+    // oversized tiles are not cached
+    cache.put("d", 0L, new byte[300]);
+    Assert.assertNull(cache.get("d", 0L));
+
+    Assert.assertEquals(2L, cache.getHits());
+    Assert.assertEquals(2L, cache.getMisses());
+  }
+}
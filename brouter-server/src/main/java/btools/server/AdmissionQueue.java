@@ -0,0 +1,57 @@
+package btools.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of concurrently running routing requests.
+ * Requests beyond that limit wait (fifo) for a free slot, up to
+ * a maximum queue size and a maximum waiting time.
+ */
+final class AdmissionQueue {
+  private final Semaphore slots;
+  private final int maxQueueSize;
+  private final long maxQueueTime;
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  AdmissionQueue(int maxRunning, int maxQueueSize, long maxQueueTime) {
+    slots = new Semaphore(maxRunning, true);
+    this.maxQueueSize = maxQueueSize;
+    this.maxQueueTime = maxQueueTime;
+  }
+
+  /**
+   * @return true if a slot was acquired, false if the request
+   * should be rejected (queue full or waited too long)
+   */
+  boolean acquire() throws InterruptedException {
+    if (slots.tryAcquire(0L, TimeUnit.MILLISECONDS)) {
+      return true;
+    }
+    if (waiting.incrementAndGet() > maxQueueSize) {
+      waiting.decrementAndGet();
+      return false;
+    }
+    try {
+      return slots.tryAcquire(maxQueueTime, TimeUnit.MILLISECONDS);
+    } finally {
+      waiting.decrementAndGet();
+    }
+  }
+
+  void release() {
+    slots.release();
+  }
+
+  int getWaiting() {
+    return waiting.get();
+  }
+
+  /**
+   * @return the suggested retry delay in seconds
+   */
+  int getRetryAfter() {
+    return (int) Math.max(1L, maxQueueTime / 2000L);
+  }
+}
@@ -105,6 +105,12 @@ public class BRouter {
       if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETELEV ||
           engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETINFO) {
         re = new RoutingEngine("testinfo", null, new File(args[0]), wplist, rc, engineMode);
+      } else if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_MATRIX) {
+        re = new RoutingEngine("testmatrix", null, new File(args[0]), wplist, rc, engineMode);
+      } else if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_ISOCHRONE) {
+        re = new RoutingEngine("testisochrone", null, new File(args[0]), wplist, rc, engineMode);
+      } else if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_SNAP) {
+        re = new RoutingEngine("testsnap", null, new File(args[0]), wplist, rc, engineMode);
       } else {
         re = new RoutingEngine("testtrack", null, new File(args[0]), wplist, rc, engineMode);
       }
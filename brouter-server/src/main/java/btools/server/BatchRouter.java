@@ -0,0 +1,336 @@
+package btools.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import btools.router.OsmNodeNamed;
+import btools.router.OsmTrack;
+import btools.router.ProfileCache;
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+import btools.router.RoutingParamCollector;
+
+/**
+ * Routes a file of requests on a pool of worker threads
+ * <p>
+ * Each input line is one request, either a json object with string
+ * or number values ({"lonlats":"8.72,50.00|8.71,50.00","profile":"trekking"})
+ * or a csv line "lonlats;parameter-list" with a url-like parameter list.
+ * Empty lines and lines starting with '#' are skipped. The parameter names
+ * are the same as for the server, an "id" is copied to the result (default
+ * is the request number).
+ * <p>
+ * All workers share the profile cache and the tile data cache
+ * (-DtileCacheSize, default 256 MB here). The results are written in
+ * request order, as json lines if the output file ends with ".jsonl",
+ * else as csv.
+ */
+public class BatchRouter {
+  private static final int PROGRESS_INTERVAL = 10000; // ms
+
+  private final File segmentDir;
+  private final Map<String, String> defaultParams;
+  private final boolean jsonOutput;
+  private long maxRunningTime = 60000;
+
+  private int routes;
+  private int failures;
+
+  private static final class Result {
+    final String line;
+    final boolean failed;
+
+    Result(String line, boolean failed) {
+      this.line = line;
+      this.failed = failed;
+    }
+  }
+
+  public BatchRouter(File segmentDir, Map<String, String> defaultParams, boolean jsonOutput) {
+    this.segmentDir = segmentDir;
+    this.defaultParams = defaultParams;
+    this.jsonOutput = jsonOutput;
+  }
+
+  public void setMaxRunningTime(long maxRunningTime) {
+    this.maxRunningTime = maxRunningTime;
+  }
+
+  public int getRoutes() {
+    return routes;
+  }
+
+  public int getFailures() {
+    return failures;
+  }
+
+  /**
+   * Route all requests from the reader and write the results in input order.
+   * At most a few requests per thread are pending, so the input can be
+   * of any size.
+   */
+  public void run(BufferedReader br, Writer w, int threads) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "batch-router");
+      t.setDaemon(true);
+      return t;
+    });
+    ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+    long startTime = System.currentTimeMillis();
+    long lastProgress = startTime;
+    if (!jsonOutput) {
+      w.write("id;cost;distance;time;ascend;energy;error\n");
+    }
+    try {
+      int lineNo = 0;
+      for (; ; ) {
+        String line = br.readLine();
+        if (line == null) {
+          break;
+        }
+        lineNo++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("lonlats;")) {
+          continue;
+        }
+        String defaultId = String.valueOf(lineNo);
+        String request = line;
+        pending.add(executor.submit(() -> route(request, defaultId)));
+        if (pending.size() >= 4 * threads) {
+          writeResult(w, pending.poll());
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastProgress > PROGRESS_INTERVAL) {
+          lastProgress = now;
+          logProgress(startTime, now);
+        }
+      }
+      while (!pending.isEmpty()) {
+        writeResult(w, pending.poll());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    logProgress(startTime, System.currentTimeMillis());
+  }
+
+  private void writeResult(Writer w, Future<Result> future) throws IOException {
+    Result result;
+    try {
+      result = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted");
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    routes++;
+    if (result.failed) {
+      failures++;
+    }
+    w.write(result.line);
+    w.write('\n');
+  }
+
+  private void logProgress(long startTime, long now) {
+    double seconds = Math.max(now - startTime, 1) / 1000.;
+    System.out.println("routes=" + routes + " failed=" + failures + " routes/s=" + (int) (routes / seconds * 10 + 0.5) / 10.);
+  }
+
+  private Result route(String line, String defaultId) {
+    String id = defaultId;
+    try {
+      RoutingParamCollector routingParamCollector = new RoutingParamCollector();
+      Map<String, String> params = new HashMap<>(defaultParams);
+      params.putAll(line.startsWith("{") ? parseJsonLine(line) : parseCsvLine(routingParamCollector, line));
+      if (params.containsKey("id")) {
+        id = params.remove("id");
+      }
+      String lonlats = params.remove("lonlats");
+      if (lonlats == null) {
+        throw new IllegalArgumentException("lonlats missing");
+      }
+      List<OsmNodeNamed> wplist = routingParamCollector.getWayPointList(lonlats);
+      if (!params.containsKey("profile")) {
+        throw new IllegalArgumentException("profile missing");
+      }
+      int engineMode = RoutingEngine.BROUTER_ENGINEMODE_ROUTING;
+      String sEngineMode = params.remove("engineMode");
+      if (sEngineMode != null) {
+        engineMode = Integer.parseInt(sEngineMode);
+      }
+      if (engineMode != RoutingEngine.BROUTER_ENGINEMODE_ROUTING && engineMode != RoutingEngine.BROUTER_ENGINEMODE_ROUNDTRIP) {
+        throw new IllegalArgumentException("engineMode " + engineMode + " not supported in batch mode");
+      }
+
+      RoutingContext rc = new RoutingContext();
+      routingParamCollector.setParams(rc, wplist, params);
+
+      RoutingEngine re = new RoutingEngine(null, null, segmentDir, wplist, rc, engineMode);
+      re.quite = true;
+      re.doRun(maxRunningTime);
+      if (re.getErrorMessage() != null) {
+        return new Result(formatError(id, re.getErrorMessage()), true);
+      }
+      return new Result(formatTrack(id, re.getFoundTrack()), false);
+    } catch (Exception e) {
+      return new Result(formatError(id, e.toString()), true);
+    }
+  }
+
+  private Map<String, String> parseCsvLine(RoutingParamCollector routingParamCollector, String line) throws IOException {
+    int idx = line.indexOf(';');
+    Map<String, String> params = idx < 0 ? new HashMap<>() : routingParamCollector.getUrlParams(line.substring(idx + 1));
+    params.put("lonlats", idx < 0 ? line : line.substring(0, idx));
+    return params;
+  }
+
+  private String formatTrack(String id, OsmTrack track) {
+    if (jsonOutput) {
+      return "{\"id\":" + quote(id) + ",\"cost\":" + track.cost + ",\"distance\":" + track.distance
+        + ",\"time\":" + track.getTotalSeconds() + ",\"ascend\":" + track.ascend + ",\"energy\":" + track.energy + "}";
+    }
+    return id + ";" + track.cost + ";" + track.distance + ";" + track.getTotalSeconds() + ";" + track.ascend + ";" + track.energy + ";";
+  }
+
+  private String formatError(String id, String message) {
+    if (jsonOutput) {
+      return "{\"id\":" + quote(id) + ",\"error\":" + quote(message) + "}";
+    }
+    return id + ";;;;;;" + message.replace(';', ',').replace('\n', ' ');
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < ' ') {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * Parse a flat json object, values can be strings, numbers or booleans
+   */
+  static Map<String, String> parseJsonLine(String line) {
+    Map<String, String> params = new HashMap<>();
+    int[] pos = {skipBlanks(line, 0)};
+    expect(line, pos, '{');
+    if (line.charAt(skipBlanks(line, pos[0])) == '}') {
+      return params;
+    }
+    for (; ; ) {
+      String key = parseJsonString(line, pos);
+      expect(line, pos, ':');
+      pos[0] = skipBlanks(line, pos[0]);
+      String value;
+      if (line.charAt(pos[0]) == '"') {
+        value = parseJsonString(line, pos);
+      } else {
+        int start = pos[0];
+        while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+          pos[0]++;
+        }
+        value = line.substring(start, pos[0]);
+      }
+      if (!"null".equals(value)) {
+        params.put(key, value);
+      }
+      pos[0] = skipBlanks(line, pos[0]);
+      if (pos[0] < line.length() && line.charAt(pos[0]) == '}') {
+        return params;
+      }
+      expect(line, pos, ',');
+    }
+  }
+
+  private static String parseJsonString(String line, int[] pos) {
+    expect(line, pos, '"');
+    StringBuilder sb = new StringBuilder();
+    for (int i = pos[0]; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        pos[0] = i + 1;
+        return sb.toString();
+      }
+      if (c == '\\' && i + 1 < line.length()) {
+        c = line.charAt(++i);
+        if (c == 'u' && i + 4 < line.length()) {
+          c = (char) Integer.parseInt(line.substring(i + 1, i + 5), 16);
+          i += 4;
+        } else if (c == 'n') {
+          c = '\n';
+        } else if (c == 't') {
+          c = '\t';
+        }
+      }
+      sb.append(c);
+    }
+    throw new IllegalArgumentException("unterminated string in: " + line);
+  }
+
+  private static void expect(String line, int[] pos, char c) {
+    int i = skipBlanks(line, pos[0]);
+    if (i >= line.length() || line.charAt(i) != c) {
+      throw new IllegalArgumentException("'" + c + "' expected at " + i + " in: " + line);
+    }
+    pos[0] = i + 1;
+  }
+
+  private static int skipBlanks(String line, int i) {
+    while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("BRouter " + OsmTrack.version);
+    if (args.length < 4) {
+      System.out.println("Route a file of requests (json lines or csv lines \"lonlats;parameter-list\")");
+      System.out.println("usage: java -cp brouter.jar btools.server.BatchRouter <segmentdir> <profiledir> <infile> <outfile> [threads] [parameter-list]");
+      System.exit(0);
+    }
+    if (System.getProperty("tileCacheSize") == null) {
+      System.setProperty("tileCacheSize", "256");
+    }
+    System.setProperty("profileBaseDir", args[1]);
+    int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+    Map<String, String> defaultParams = args.length > 5 ? new RoutingParamCollector().getUrlParams(args[5]) : new HashMap<>();
+
+    ProfileCache.setSize(2 * threads);
+
+    BatchRouter batchRouter = new BatchRouter(new File(args[0]), defaultParams, args[3].endsWith(".jsonl"));
+    String sMaxRunningTime = System.getProperty("maxRunningTime");
+    if (sMaxRunningTime != null) {
+      batchRouter.setMaxRunningTime(Integer.parseInt(sMaxRunningTime) * 1000L);
+    }
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(args[2]), StandardCharsets.UTF_8));
+         Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[3]), StandardCharsets.UTF_8))) {
+      batchRouter.run(br, w, threads);
+    }
+  }
+}
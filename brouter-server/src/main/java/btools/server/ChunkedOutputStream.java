@@ -0,0 +1,68 @@
+package btools.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output stream for HTTP/1.1 responses, writing the body
+ * with chunked transfer-encoding once startChunking() was
+ * called (after the headers), so a connection can be kept
+ * alive without knowing the content length in advance
+ */
+final class ChunkedOutputStream extends OutputStream {
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+  private final OutputStream out;
+  private boolean chunking;
+
+  ChunkedOutputStream(OutputStream out) {
+    this.out = out;
+  }
+
+  void startChunking() {
+    chunking = true;
+  }
+
+  /**
+   * terminate the chunked body (if any) and flush
+   */
+  void finishChunking() throws IOException {
+    if (chunking) {
+      out.write(LAST_CHUNK);
+      chunking = false;
+    }
+    out.flush();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    if (chunking) {
+      out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+      out.write(CRLF);
+      out.write(b, off, len);
+      out.write(CRLF);
+    } else {
+      out.write(b, off, len);
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,252 @@
+package btools.server;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import btools.router.OsmNodeNamed;
+
+/**
+ * Bounded in-memory cache of formatted routing responses
+ * <p>
+ * The key is the normalized request: the waypoints at rd5 resolution
+ * (micro-degrees), the profile with the modification times of its files
+ * and all other non-empty parameters in sorted order. All entries are
+ * dropped when an rd5 file of the segment directory changes, which is
+ * checked at most every 10 seconds.
+ * <p>
+ * Identical requests that arrive while one of them is routed wait for
+ * that result instead of routing again (they don't take an admission slot).
+ * <p>
+ * Size is configured via -DrouteCacheSize=&lt;MB&gt;, 0 = disabled
+ */
+final class RouteResultCache {
+  private static final long SEGMENT_CHECK_INTERVAL = 10000L; // ms
+
+  private static final RouteResultCache instance = new RouteResultCache(Long.getLong("routeCacheSize", 0L) * 1024L * 1024L);
+
+  /**
+   * A complete http response, only successful ones are cached
+   */
+  static final class Response {
+    final String status;
+    final String mimeType;
+    final String fileName;
+    final String headers;
+    final byte[] body;
+
+    Response(String status, String mimeType, String fileName, String headers, String body) {
+      this.status = status;
+      this.mimeType = mimeType;
+      this.fileName = fileName;
+      this.headers = headers;
+      this.body = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  interface Loader {
+    Response load() throws Exception;
+  }
+
+  private final LinkedHashMap<String, Response> map = new LinkedHashMap<>(256, 0.75f, true);
+  private final Map<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+
+  private final long maxBytes;
+  private long currentBytes;
+  private int generation; // incremented on invalidation, results of older generations are not stored
+
+  private File segmentDir;
+  private long segmentSignature;
+  private long lastSegmentCheck;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  static RouteResultCache getInstance() {
+    return instance;
+  }
+
+  RouteResultCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  boolean isEnabled() {
+    return maxBytes > 0L;
+  }
+
+  /**
+   * @param segmentDir the directory whose rd5 files invalidate the cache when changed
+   */
+  synchronized void setSegmentDir(File segmentDir) {
+    this.segmentDir = segmentDir;
+    segmentSignature = getSegmentSignature(segmentDir);
+    lastSegmentCheck = System.currentTimeMillis();
+  }
+
+  /**
+   * @param wplist          the parsed lonlats
+   * @param profile         the profile parameter
+   * @param profileVersion  the modification times of the profile files
+   * @param params          the other request parameters
+   */
+  static String makeKey(List<OsmNodeNamed> wplist, String profile, String profileVersion, Map<String, String> params) {
+    StringBuilder sb = new StringBuilder(256);
+    for (OsmNodeNamed wp : wplist) {
+      sb.append(wp.ilon).append(',').append(wp.ilat).append(',').append(wp.wpttype).append(',').append(wp.name).append('|');
+    }
+    sb.append("&profile=").append(profile).append('@').append(profileVersion);
+    for (Map.Entry<String, String> e : new TreeMap<>(params).entrySet()) {
+      if (!"lonlats".equals(e.getKey()) && e.getValue() != null && !e.getValue().isEmpty()) {
+        sb.append('&').append(e.getKey()).append('=').append(e.getValue());
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Get the response from the cache, from an identical running request
+   * or from the loader
+   */
+  Response get(String key, Loader loader) throws Exception {
+    checkSegments();
+    Response response = lookup(key);
+    if (response != null) {
+      hits.increment();
+      return response;
+    }
+    CompletableFuture<Response> future = new CompletableFuture<>();
+    CompletableFuture<Response> running = inFlight.putIfAbsent(key, future);
+    if (running != null) {
+      coalesced.increment();
+      try {
+        return running.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+      }
+    }
+    try {
+      response = lookup(key); // stored while we registered
+      if (response != null) {
+        hits.increment();
+      } else {
+        misses.increment();
+        int gen = getGeneration();
+        response = loader.load();
+        if (RouteServer.HTTP_STATUS_OK.equals(response.status)) {
+          put(key, response, gen);
+        }
+      }
+      future.complete(response);
+      return response;
+    } catch (Throwable t) {
+      future.completeExceptionally(t);
+      throw t;
+    } finally {
+      inFlight.remove(key);
+    }
+  }
+
+  private synchronized Response lookup(String key) {
+    return map.get(key);
+  }
+
+  private synchronized int getGeneration() {
+    return generation;
+  }
+
+  private synchronized void put(String key, Response response, int gen) {
+    long size = entrySize(key, response);
+    if (gen != generation || size > maxBytes / 4) {
+      return;
+    }
+    Response old = map.put(key, response);
+    if (old != null) {
+      currentBytes -= entrySize(key, old);
+    }
+    currentBytes += size;
+    Iterator<Map.Entry<String, Response>> it = map.entrySet().iterator();
+    while (currentBytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, Response> e = it.next();
+      currentBytes -= entrySize(e.getKey(), e.getValue());
+      it.remove();
+    }
+  }
+
+  private static long entrySize(String key, Response response) {
+    return 2L * key.length() + response.body.length + 64L;
+  }
+
+  synchronized void clear() {
+    map.clear();
+    currentBytes = 0L;
+    generation++;
+  }
+
+  private void checkSegments() {
+    File dir;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (segmentDir == null || now - lastSegmentCheck < SEGMENT_CHECK_INTERVAL) {
+        return;
+      }
+      lastSegmentCheck = now;
+      dir = segmentDir;
+    }
+    long signature = getSegmentSignature(dir);
+    synchronized (this) {
+      if (signature != segmentSignature) {
+        segmentSignature = signature;
+        invalidations.increment();
+        clear();
+      }
+    }
+  }
+
+  private static long getSegmentSignature(File dir) {
+    long signature = 0L;
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        if (f.getName().endsWith(".rd5")) {
+          signature += (f.getName().hashCode() * 31L + f.lastModified()) * 31L + f.length();
+        }
+      }
+    }
+    return signature;
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  long getInvalidations() {
+    return invalidations.sum();
+  }
+
+  synchronized long getCurrentBytes() {
+    return currentBytes;
+  }
+
+  synchronized int getEntries() {
+    return map.size();
+  }
+}
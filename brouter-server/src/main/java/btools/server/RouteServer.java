@@ -1,5 +1,6 @@
 package btools.server;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
@@ -12,6 +13,7 @@ import java.io.Writer;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -23,10 +25,15 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.StringTokenizer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 import btools.router.OsmNodeNamed;
 import btools.router.OsmTrack;
+import btools.router.PhaseTimings;
 import btools.router.ProfileCache;
 import btools.router.RoutingContext;
 import btools.router.RoutingEngine;
@@ -43,6 +50,7 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
   static final String HTTP_STATUS_FORBIDDEN = "403 Forbidden";
   static final String HTTP_STATUS_NOT_FOUND = "404 Not Found";
   static final String HTTP_STATUS_INTERNAL_SERVER_ERROR = "500 Internal Server Error";
+  static final String HTTP_STATUS_SERVICE_UNAVAILABLE = "503 Service Unavailable";
 
   public ServiceContext serviceContext;
 
@@ -51,9 +59,16 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
   private volatile boolean terminated;
   private long starttime;
 
+  private ChunkedOutputStream httpOut;
+  private boolean keepAlive;
+  private boolean responseCommitted; // the header of the current response was written
+
   private static Object threadPoolSync = new Object();
   private static boolean debug = Boolean.getBoolean("debugThreadPool");
 
+  // queued server mode: connections on a bounded executor, routing behind an admission queue
+  private static AdmissionQueue admissionQueue;
+
   public void stopRouter() {
     RoutingEngine e = cr;
     if (e != null) e.terminate();
@@ -70,28 +85,84 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
   public void run() {
     BufferedReader br = null;
     BufferedWriter bw = null;
+    try {
+      br = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"));
+      httpOut = new ChunkedOutputStream(new BufferedOutputStream(clientSocket.getOutputStream()));
+      bw = new BufferedWriter(new OutputStreamWriter(httpOut, "UTF-8"));
+      if (admissionQueue != null) {
+        clientSocket.setSoTimeout(getKeepAliveTimeout());
+      }
 
+      boolean firstRequest = true;
+      while (processRequest(br, bw, firstRequest)) {
+        firstRequest = false;
+        starttime = System.currentTimeMillis();
+      }
+    } catch (Throwable e) {
+      System.out.println("RouteServer got exception (will continue): " + e);
+      e.printStackTrace();
+    } finally {
+      if (br != null)
+        try {
+          br.close();
+        } catch (Exception e) {
+        }
+      if (bw != null)
+        try {
+          bw.close();
+        } catch (Exception e) {
+        }
+      if (clientSocket != null)
+        try {
+          clientSocket.close();
+        } catch (Exception e) {
+        }
+      terminated = true;
+      synchronized (threadPoolSync) {
+        threadPoolSync.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Process a single request on the connection
+   *
+   * @return true if the connection is kept alive for the next request
+   */
+  private boolean processRequest(BufferedReader br, BufferedWriter bw, boolean firstRequest) {
     // first line
     String getline = null;
     String sessionInfo = null;
     String sIp = null;
+    ServerMetrics metrics = ServerMetrics.getInstance();
+    String status = null; // set for routing requests only
+    String profile = null;
+    int engineMode = 0;
 
+    keepAlive = false;
+    responseCommitted = false;
     try {
-      br = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), "UTF-8"));
-      bw = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"));
-
       String agent = null;
       String encodings = null;
       String xff = null; // X-Forwarded-For
+      boolean connectionClose = false;
 
       // more headers until first empty line
       for (; ; ) {
         // headers
-        String line = br.readLine();
+        String line;
+        try {
+          line = br.readLine();
+        } catch (SocketTimeoutException ste) {
+          line = null;
+        }
         if (line == null) {
+          if (!firstRequest) {
+            return false; // idle keep-alive connection closed
+          }
           writeHttpHeader(bw, HTTP_STATUS_BAD_REQUEST);
           bw.flush();
-          return;
+          return false;
         }
         if (line.length() == 0) {
           break;
@@ -109,7 +180,11 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
         if (line.startsWith("x-forwarded-for: ")) {
           xff = line.substring("x-forwarded-for: ".length());
         }
+        if (line.startsWith("connection: ") && line.contains("close")) {
+          connectionClose = true;
+        }
       }
+      keepAlive = admissionQueue != null && !connectionClose && getline.endsWith("HTTP/1.1");
 
       InetAddress ip = clientSocket.getInetAddress();
       sIp = xff == null ? (ip == null ? "null" : ip.toString()) : xff;
@@ -128,23 +203,23 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
           if (agent.indexOf(tk.nextToken()) >= 0) {
             writeHttpHeader(bw, HTTP_STATUS_FORBIDDEN);
             bw.write("Bad agent: " + agent);
-            bw.flush();
-            return;
+            finishResponse(bw);
+            return keepAlive;
           }
         }
       }
 
       if (getline.startsWith("GET /favicon.ico")) {
         writeHttpHeader(bw, HTTP_STATUS_NOT_FOUND);
-        bw.flush();
-        return;
+        finishResponse(bw);
+        return keepAlive;
       }
       if (getline.startsWith("GET /robots.txt")) {
         writeHttpHeader(bw, HTTP_STATUS_OK);
         bw.write("User-agent: *\n");
         bw.write("Disallow: /\n");
-        bw.flush();
-        return;
+        finishResponse(bw);
+        return keepAlive;
       }
 
       String url = getline.split(" ")[1];
@@ -163,9 +238,11 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
           String corsHeaders = "Access-Control-Allow-Methods: GET, POST\r\n"
             + "Access-Control-Allow-Headers: Content-Type\r\n";
           writeHttpHeader(bw, "text/plain", null, corsHeaders, HTTP_STATUS_OK);
-          bw.flush();
-          return;
+          finishResponse(bw);
+          return keepAlive;
         } else {
+          // the upload handler reads the body up to the end of the stream
+          keepAlive = false;
           writeHttpHeader(bw, "application/json", HTTP_STATUS_OK);
 
           String profileId = null;
@@ -178,16 +255,22 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
           uploadHandler.handlePostRequest(profileId, br, bw);
 
           bw.flush();
-          return;
+          return false;
         }
+      } else if (url.startsWith("/brouter/metrics")) {
+        writeHttpHeader(bw, "text/plain; version=0.0.4", HTTP_STATUS_OK);
+        metrics.write(bw);
+        finishResponse(bw);
+        return keepAlive;
       } else if (url.startsWith("/brouter/suspects")) {
         writeHttpHeader(bw, url.endsWith(".json") ? "application/json" : "text/html", HTTP_STATUS_OK);
         SuspectManager.process(url, bw);
-        return;
+        finishResponse(bw);
+        return keepAlive;
       } else {
         writeHttpHeader(bw, HTTP_STATUS_NOT_FOUND);
-        bw.flush();
-        return;
+        finishResponse(bw);
+        return keepAlive;
       }
       RoutingContext rc = handler.readRoutingContext();
       List<OsmNodeNamed> wplist = routingParamCollector.getWayPointList(params.get("lonlats"));
@@ -197,87 +280,268 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
       }
       if (params.containsKey("profile")) {
         // already handled in readRoutingContext
-        params.remove("profile");
+        profile = params.remove("profile");
       }
-      int engineMode = 0;
       if (params.containsKey("engineMode")) {
         engineMode = Integer.parseInt(params.get("engineMode"));
       }
+      boolean serverTiming = "1".equals(params.remove("timings"));
+
+      // roundtrips without a heading take a random direction, so they are not cached
+      RouteResultCache resultCache = RouteResultCache.getInstance();
+      String cacheKey = null;
+      if (resultCache.isEnabled() && !serverTiming && engineMode != RoutingEngine.BROUTER_ENGINEMODE_ROUNDTRIP) {
+        cacheKey = RouteResultCache.makeKey(wplist, profile, ProfileCache.getFileTimestamps(rc.localFunction), params);
+      }
       routingParamCollector.setParams(rc, wplist, params);
 
-      cr = new RoutingEngine(null, null, serviceContext.segmentDir, wplist, rc, engineMode);
-      cr.quite = true;
-      cr.doRun(maxRunningTime);
+      if (cacheKey != null) {
+        int mode = engineMode;
+        RouteResultCache.Response response = resultCache.get(cacheKey, () -> computeResponse(handler, wplist, rc, mode, maxRunningTime));
+        status = response.status.substring(0, 3);
+        boolean gzip = encodings != null && encodings.indexOf("gzip") >= 0 && engineMode != RoutingEngine.BROUTER_ENGINEMODE_GETELEV
+          && engineMode != RoutingEngine.BROUTER_ENGINEMODE_MATRIX && engineMode != RoutingEngine.BROUTER_ENGINEMODE_ISOCHRONE
+          && engineMode != RoutingEngine.BROUTER_ENGINEMODE_SNAP;
+        writeResponse(bw, response, gzip && HTTP_STATUS_OK.equals(response.status));
+        finishResponse(bw);
+        return keepAlive;
+      }
+
+      if (!runRouting(wplist, rc, engineMode, maxRunningTime)) {
+        status = "503";
+        writeHttpHeader(bw, "text/plain", null, "Retry-After: " + admissionQueue.getRetryAfter() + "\r\n", HTTP_STATUS_SERVICE_UNAVAILABLE);
+        bw.write("server busy, retry later\n");
+        finishResponse(bw);
+        return keepAlive;
+      }
 
       if (cr.getErrorMessage() != null) {
+        status = "400";
         writeHttpHeader(bw, HTTP_STATUS_BAD_REQUEST);
         bw.write(cr.getErrorMessage());
         bw.write("\n");
       } else {
+        status = "200";
         OsmTrack track = cr.getFoundTrack();
+        PhaseTimings timings = cr.getPhaseTimings();
 
-        if (engineMode == 2) {
+        boolean isMatrix = engineMode == RoutingEngine.BROUTER_ENGINEMODE_MATRIX || engineMode == RoutingEngine.BROUTER_ENGINEMODE_SNAP;
+        boolean isIsochrone = engineMode == RoutingEngine.BROUTER_ENGINEMODE_ISOCHRONE;
+        if (engineMode == 2 || isMatrix || isIsochrone) {
           // no zip for this engineMode
           encodings = null;
         }
-        String headers = encodings == null || encodings.indexOf("gzip") < 0 ? null : "Content-Encoding: gzip\r\n";
-        writeHttpHeader(bw, handler.getMimeType(), handler.getFileName(), headers, HTTP_STATUS_OK);
-        if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_ROUTING ||
-            engineMode == RoutingEngine.BROUTER_ENGINEMODE_ROUNDTRIP) {
-          if (track != null) {
-            if (headers != null) { // compressed
-              ByteArrayOutputStream baos = new ByteArrayOutputStream();
-              Writer w = new OutputStreamWriter(new GZIPOutputStream(baos), "UTF-8");
-              w.write(handler.formatTrack(track));
-              w.close();
-              bw.flush();
-              clientSocket.getOutputStream().write(baos.toByteArray());
-            } else {
-              bw.write(handler.formatTrack(track));
-            }
+        boolean gzip = encodings != null && encodings.indexOf("gzip") >= 0;
+        String headers = gzip ? "Content-Encoding: gzip\r\n" : null;
+        boolean isTrack = track != null && (engineMode == RoutingEngine.BROUTER_ENGINEMODE_ROUTING ||
+          engineMode == RoutingEngine.BROUTER_ENGINEMODE_ROUNDTRIP);
+
+        String body = null;
+        byte[] zipped = null;
+        if (isTrack && serverTiming) {
+          // format (and compress) before the header, so the header can carry the timings
+          long formatStart = System.nanoTime();
+          body = handler.formatTrack(track);
+          timings.add("format", System.nanoTime() - formatStart);
+          if (gzip) {
+            long compressStart = System.nanoTime();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            Writer w = new OutputStreamWriter(new GZIPOutputStream(baos), "UTF-8");
+            w.write(body);
+            w.close();
+            zipped = baos.toByteArray();
+            timings.add("compress", System.nanoTime() - compressStart);
           }
         } else if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETELEV ||
-                   engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETINFO) {
-          String s = cr.getFoundInfo();
-          if (s != null) {
-            bw.write(s);
+                   engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETINFO ||
+                   isMatrix || isIsochrone) {
+          body = cr.getFoundInfo();
+        }
+        if (serverTiming) {
+          headers = (headers == null ? "" : headers) + "Server-Timing: " + timings.formatServerTiming() + "\r\n"
+            + "Timing-Allow-Origin: *\r\n";
+        }
+
+        if (isMatrix) {
+          writeHttpHeader(bw, "application/json", null, headers, HTTP_STATUS_OK);
+        } else if (isIsochrone) {
+          writeHttpHeader(bw, "application/geo+json", null, headers, HTTP_STATUS_OK);
+        } else {
+          writeHttpHeader(bw, handler.getMimeType(), handler.getFileName(), headers, HTTP_STATUS_OK);
+        }
+        if (zipped != null) {
+          bw.flush();
+          httpOut.write(zipped);
+        } else if (body != null) {
+          bw.write(body);
+        } else if (isTrack) {
+          // stream the track to the socket, without holding the document in memory
+          long streamStart = System.nanoTime();
+          if (gzip) {
+            bw.flush();
+            GZIPOutputStream gz = new GZIPOutputStream(new BufferedOutputStream(httpOut, 8192), 8192);
+            Writer w = new BufferedWriter(new OutputStreamWriter(gz, "UTF-8"));
+            handler.formatTrack(track, w);
+            w.flush();
+            gz.finish(); // not closed, the connection may be kept alive
+            gz.flush();
+          } else {
+            handler.formatTrack(track, bw);
           }
+          timings.add("stream", System.nanoTime() - streamStart);
         }
+        metrics.recordPhases(timings);
       }
-      bw.flush();
+      finishResponse(bw);
+      return keepAlive;
     } catch (Throwable e) {
-      try {
-        writeHttpHeader(bw, HTTP_STATUS_INTERNAL_SERVER_ERROR);
-        bw.flush();
-      } catch (IOException _ignore) {
+      keepAlive = false;
+      if (profile != null) {
+        status = "500";
+      }
+      if (responseCommitted) {
+        // the header and maybe a part of the body are out (streamed tracks),
+        // an error status would end up in the body, so reset the connection
+        abortConnection();
+      } else {
+        try {
+          writeHttpHeader(bw, HTTP_STATUS_INTERNAL_SERVER_ERROR);
+          bw.flush();
+        } catch (IOException _ignore) {
+        }
       }
       System.out.println("RouteServer got exception (will continue): " + e);
       e.printStackTrace();
+      return false;
     } finally {
       cr = null;
-      if (br != null)
-        try {
-          br.close();
-        } catch (Exception e) {
+      if (getline != null) {
+        long t = System.currentTimeMillis();
+        long ms = t - starttime;
+        if (status != null) {
+          metrics.recordRequest(engineMode, profile, status, ms);
         }
-      if (bw != null)
-        try {
-          bw.close();
-        } catch (Exception e) {
-        }
-      if (clientSocket != null)
-        try {
-          clientSocket.close();
-        } catch (Exception e) {
-        }
-      terminated = true;
-      synchronized (threadPoolSync) {
-        threadPoolSync.notifyAll();
+        System.out.println(formattedTimeStamp(t) + sessionInfo + " ip=" + sIp + " ms=" + ms + " -> " + getline);
+      }
+    }
+  }
+
+  /**
+   * Run the routing engine, in queued server mode within an admission slot
+   *
+   * @return false if no slot got free in time
+   */
+  private boolean runRouting(List<OsmNodeNamed> wplist, RoutingContext rc, int engineMode, long maxRunningTime) throws InterruptedException {
+    ServerMetrics metrics = ServerMetrics.getInstance();
+    if (admissionQueue != null) {
+      long t0 = System.currentTimeMillis();
+      boolean acquired = admissionQueue.acquire();
+      metrics.recordQueueWait(System.currentTimeMillis() - t0);
+      if (!acquired) {
+        metrics.recordContention("rejected");
+        return false;
+      }
+    }
+    metrics.routingStarted();
+    try {
+      cr = new RoutingEngine(null, null, serviceContext.segmentDir, wplist, rc, engineMode);
+      cr.quite = true;
+      cr.doRun(maxRunningTime);
+    } finally {
+      metrics.routingFinished();
+      if (admissionQueue != null) {
+        admissionQueue.release();
+      }
+    }
+    metrics.recordRouting(cr);
+    return true;
+  }
+
+  /**
+   * Route and format the complete response, for the result cache
+   */
+  private RouteResultCache.Response computeResponse(RequestHandler handler, List<OsmNodeNamed> wplist, RoutingContext rc,
+                                                    int engineMode, long maxRunningTime) throws Exception {
+    if (!runRouting(wplist, rc, engineMode, maxRunningTime)) {
+      return new RouteResultCache.Response(HTTP_STATUS_SERVICE_UNAVAILABLE, "text/plain", null,
+        "Retry-After: " + admissionQueue.getRetryAfter() + "\r\n", "server busy, retry later\n");
+    }
+    if (cr.getErrorMessage() != null) {
+      return new RouteResultCache.Response(HTTP_STATUS_BAD_REQUEST, "text/plain", null, null, cr.getErrorMessage() + "\n");
+    }
+    PhaseTimings timings = cr.getPhaseTimings();
+    RouteResultCache.Response response;
+    if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_MATRIX || engineMode == RoutingEngine.BROUTER_ENGINEMODE_SNAP) {
+      response = new RouteResultCache.Response(HTTP_STATUS_OK, "application/json", null, null, cr.getFoundInfo());
+    } else if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_ISOCHRONE) {
+      response = new RouteResultCache.Response(HTTP_STATUS_OK, "application/geo+json", null, null, cr.getFoundInfo());
+    } else {
+      String body = null;
+      OsmTrack track = cr.getFoundTrack();
+      if (engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETELEV || engineMode == RoutingEngine.BROUTER_ENGINEMODE_GETINFO) {
+        body = cr.getFoundInfo();
+      } else if (track != null) {
+        long formatStart = System.nanoTime();
+        body = handler.formatTrack(track);
+        timings.add("format", System.nanoTime() - formatStart);
+      }
+      response = new RouteResultCache.Response(HTTP_STATUS_OK, handler.getMimeType(), handler.getFileName(), null, body);
+    }
+    ServerMetrics.getInstance().recordPhases(timings);
+    return response;
+  }
+
+  private void writeResponse(BufferedWriter bw, RouteResultCache.Response response, boolean gzip) throws IOException {
+    String headers = response.headers;
+    if (gzip) {
+      headers = (headers == null ? "" : headers) + "Content-Encoding: gzip\r\n";
+    }
+    writeHttpHeader(bw, response.mimeType, response.fileName, headers, response.status);
+    bw.flush();
+    if (gzip) {
+      GZIPOutputStream gz = new GZIPOutputStream(new BufferedOutputStream(httpOut, 8192), 8192);
+      gz.write(response.body);
+      gz.finish(); // not closed, the connection may be kept alive
+      gz.flush();
+    } else {
+      httpOut.write(response.body);
+    }
+  }
+
+  private void finishResponse(BufferedWriter bw) throws IOException {
+    bw.flush();
+    httpOut.finishChunking();
+  }
+
+  // make the close of the connection a reset instead of a regular end
+  // of the response, so the client sees the partly sent response as failed
+  private void abortConnection() {
+    try {
+      clientSocket.setSoLinger(true, 0);
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  // answer a connection that could not be accepted at all
+  private void rejectConnection() {
+    try {
+      BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF-8"));
+      bw.write(String.format("HTTP/1.1 %s\r\n", HTTP_STATUS_SERVICE_UNAVAILABLE));
+      bw.write("Connection: close\r\n");
+      bw.write("Retry-After: " + admissionQueue.getRetryAfter() + "\r\n");
+      bw.write("\r\n");
+      bw.flush();
+    } catch (IOException e) {
+      // ignore
+    } finally {
+      try {
+        clientSocket.close();
+      } catch (Exception e) {
       }
-      long t = System.currentTimeMillis();
-      long ms = t - starttime;
-      System.out.println(formattedTimeStamp(t) + sessionInfo + " ip=" + sIp + " ms=" + ms + " -> " + getline);
     }
+    ServerMetrics.getInstance().recordContention("rejected");
+    System.out.println(formattedTimeStamp(System.currentTimeMillis()) + " contention! connection rejected");
   }
 
 
@@ -301,6 +565,9 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
     int maxthreads = Integer.parseInt(args[4]);
 
     ProfileCache.setSize(2 * maxthreads);
+    RouteResultCache.getInstance().setSegmentDir(serviceContext.segmentDir);
+    ServerMetrics.getInstance().setLimits(maxthreads, null);
+    ServerMetrics.getInstance().setProfileDir(new File(serviceContext.profileDir));
 
     Queue<RouteServer> threadQueue = new PriorityQueue<>();
 
@@ -317,6 +584,11 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
       System.out.println("*** sampling stacks into stacks.txt *** ");
     }
 
+    if ("queued".equals(System.getProperty("serverMode"))) {
+      runQueued(serverSocket, serviceContext, maxthreads);
+      return;
+    }
+
     for (; ; ) {
       Socket clientSocket = serverSocket.accept();
       RouteServer server = new RouteServer();
@@ -346,6 +618,7 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
           }
           long t = System.currentTimeMillis();
           System.out.println(formattedTimeStamp(t) + " contention! ms waited " + (t - server.starttime));
+          ServerMetrics.getInstance().recordContention("waited");
         }
         cleanupThreadQueue(threadQueue);
         if (threadQueue.size() >= maxthreads) {
@@ -355,6 +628,7 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
           oldest.stopRouter();
           long t = System.currentTimeMillis();
           System.out.println(formattedTimeStamp(t) + " contention! ms killed " + (t - oldest.starttime));
+          ServerMetrics.getInstance().recordContention("killed");
         }
       }
 
@@ -366,6 +640,41 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
   }
 
 
+  /**
+   * Queued server mode: connections are served by a bounded executor
+   * (with HTTP/1.1 keep-alive), at most maxthreads routing requests
+   * run concurrently and the others wait in an admission queue.
+   * Instead of stopping running requests, the server answers
+   * 503 + Retry-After if the queue is full or the wait takes too long
+   */
+  private static void runQueued(ServerSocket serverSocket, ServiceContext serviceContext, int maxthreads) throws IOException {
+    int maxQueueSize = Integer.getInteger("maxQueueSize", 2 * maxthreads);
+    long maxQueueTime = Long.getLong("maxQueueTime", 10L) * 1000L;
+    int maxConnections = Integer.getInteger("maxConnections", 100);
+    admissionQueue = new AdmissionQueue(maxthreads, maxQueueSize, maxQueueTime);
+    ServerMetrics.getInstance().setLimits(maxthreads, admissionQueue);
+
+    ThreadPoolExecutor connectionPool = new ThreadPoolExecutor(maxConnections, maxConnections,
+      60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+    connectionPool.allowCoreThreadTimeOut(true);
+
+    System.out.println("queued server mode: maxthreads=" + maxthreads + " maxQueueSize=" + maxQueueSize
+      + " maxQueueTime=" + maxQueueTime + " maxConnections=" + maxConnections);
+
+    for (; ; ) {
+      Socket clientSocket = serverSocket.accept();
+      RouteServer server = new RouteServer();
+      server.serviceContext = serviceContext;
+      server.clientSocket = clientSocket;
+      server.starttime = System.currentTimeMillis();
+      try {
+        connectionPool.execute(server);
+      } catch (RejectedExecutionException e) {
+        server.rejectConnection();
+      }
+    }
+  }
+
   private static Map<String, String> getUrlParams(String url) throws UnsupportedEncodingException {
     Map<String, String> params = new HashMap<>();
     String decoded = URLDecoder.decode(url, "UTF-8");
@@ -393,22 +702,32 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
     return maxRunningTime;
   }
 
-  private static void writeHttpHeader(BufferedWriter bw, String status) throws IOException {
+  private static int getKeepAliveTimeout() {
+    return Integer.getInteger("keepAliveTimeout", 15) * 1000;
+  }
+
+  private void writeHttpHeader(BufferedWriter bw, String status) throws IOException {
     writeHttpHeader(bw, "text/plain", status);
   }
 
-  private static void writeHttpHeader(BufferedWriter bw, String mimeType, String status) throws IOException {
+  private void writeHttpHeader(BufferedWriter bw, String mimeType, String status) throws IOException {
     writeHttpHeader(bw, mimeType, null, status);
   }
 
-  private static void writeHttpHeader(BufferedWriter bw, String mimeType, String fileName, String status) throws IOException {
+  private void writeHttpHeader(BufferedWriter bw, String mimeType, String fileName, String status) throws IOException {
     writeHttpHeader(bw, mimeType, fileName, null, status);
   }
 
-  private static void writeHttpHeader(BufferedWriter bw, String mimeType, String fileName, String headers, String status) throws IOException {
+  private void writeHttpHeader(BufferedWriter bw, String mimeType, String fileName, String headers, String status) throws IOException {
+    responseCommitted = true;
     // http-header
     bw.write(String.format("HTTP/1.1 %s\r\n", status));
-    bw.write("Connection: close\r\n");
+    if (keepAlive) {
+      bw.write("Connection: keep-alive\r\n");
+      bw.write("Transfer-Encoding: chunked\r\n");
+    } else {
+      bw.write("Connection: close\r\n");
+    }
     bw.write("Content-Type: " + mimeType + "; charset=utf-8\r\n");
     if (fileName != null) {
       bw.write("Content-Disposition: attachment; filename=\"" + fileName + "\"\r\n");
@@ -418,6 +737,10 @@ public class RouteServer extends Thread implements Comparable<RouteServer> {
       bw.write(headers);
     }
     bw.write("\r\n");
+    if (keepAlive) {
+      bw.flush();
+      httpOut.startChunking();
+    }
   }
 
   private static void cleanupThreadQueue(Queue<RouteServer> threadQueue) {
@@ -0,0 +1,246 @@
+package btools.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import btools.mapaccess.TileDataCache;
+import btools.mapaccess.TileStatistics;
+import btools.router.PhaseTimings;
+import btools.router.ProfileCache;
+import btools.router.RoutingEngine;
+import btools.server.request.ProfileUploadHandler;
+
+/**
+ * Counters and latency histograms of the server, exposed at
+ * /brouter/metrics in the Prometheus text format
+ * <p>
+ * All counters are striped adders, so recording on the request
+ * threads is cheap and never blocks.
+ */
+final class ServerMetrics {
+  private static final double[] LATENCY_BOUNDS = {0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1., 2.5, 5., 10., 30., 60.}; // seconds
+
+  private static final ServerMetrics instance = new ServerMetrics();
+
+  /**
+   * A histogram with fixed bucket bounds, the buckets are not cumulative
+   */
+  static final class Histogram {
+    private final LongAdder[] buckets = new LongAdder[LATENCY_BOUNDS.length + 1];
+    private final LongAdder sumMillis = new LongAdder();
+
+    Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long millis) {
+      double seconds = millis / 1000.;
+      int i = 0;
+      while (i < LATENCY_BOUNDS.length && seconds > LATENCY_BOUNDS[i]) {
+        i++;
+      }
+      buckets[i].increment();
+      sumMillis.add(millis);
+    }
+
+    void write(Writer w, String name, String help) throws IOException {
+      writeHeader(w, name, help, "histogram");
+      long count = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        count += buckets[i].sum();
+        String le = i < LATENCY_BOUNDS.length ? String.valueOf(LATENCY_BOUNDS[i]) : "+Inf";
+        w.write(name + "_bucket{le=\"" + le + "\"} " + count + "\n");
+      }
+      w.write(name + "_sum " + sumMillis.sum() / 1000. + "\n");
+      w.write(name + "_count " + count + "\n");
+    }
+  }
+
+  private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> contention = new ConcurrentHashMap<>();
+  private final Histogram requestDuration = new Histogram();
+  private final Histogram queueWait = new Histogram();
+  private final LongAdder activeRequests = new LongAdder();
+  private final LongAdder linksProcessed = new LongAdder();
+  private final LongAdder memoryPanics = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> phaseCalls = new ConcurrentHashMap<>();
+  private volatile int maxThreads;
+  private volatile AdmissionQueue admissionQueue;
+  private volatile File profileDir;
+  private final Set<String> knownProfiles = ConcurrentHashMap.newKeySet();
+
+  private ServerMetrics() {
+  }
+
+  static ServerMetrics getInstance() {
+    return instance;
+  }
+
+  void setLimits(int maxThreads, AdmissionQueue admissionQueue) {
+    this.maxThreads = maxThreads;
+    this.admissionQueue = admissionQueue;
+  }
+
+  /**
+   * @param profileDir the directory of the profiles that are used as labels
+   */
+  void setProfileDir(File profileDir) {
+    this.profileDir = profileDir;
+  }
+
+  /**
+   * Count a finished routing request
+   *
+   * @param profile the profile name, custom profiles are counted together
+   * @param status  the http status code
+   */
+  void recordRequest(int engineMode, String profile, String status, long millis) {
+    String key = "engineMode=\"" + engineMode + "\",profile=\"" + escape(getProfileLabel(profile)) + "\",status=\"" + status + "\"";
+    requests.computeIfAbsent(key, k -> new LongAdder()).increment();
+    requestDuration.record(millis);
+  }
+
+  /**
+   * @return the profile name if it is a profile of the profile directory,
+   * "custom" for uploaded profiles and "other" for anything else, so the
+   * request parameter cannot make the label set unbounded
+   */
+  String getProfileLabel(String profile) {
+    if (profile == null) {
+      return "";
+    }
+    if (profile.startsWith(ProfileUploadHandler.CUSTOM_PREFIX) || profile.startsWith(ProfileUploadHandler.SHARED_PREFIX)) {
+      return "custom";
+    }
+    if (knownProfiles.contains(profile)) {
+      return profile;
+    }
+    File dir = profileDir;
+    if (dir != null && profile.indexOf('/') < 0 && profile.indexOf('\\') < 0 && !profile.startsWith(".")
+      && new File(dir, profile + ".brf").isFile()) {
+      knownProfiles.add(profile);
+      return profile;
+    }
+    return "other";
+  }
+
+  void recordQueueWait(long millis) {
+    queueWait.record(millis);
+  }
+
+  /**
+   * Count the work and the failure reasons of a finished routing
+   */
+  void recordRouting(RoutingEngine re) {
+    linksProcessed.add(re.getLinksProcessed());
+    memoryPanics.add(re.getMemoryPanics());
+    if (re.isTimedOut()) {
+      timeouts.increment();
+    }
+  }
+
+  /**
+   * Add the phase timings of a successful request
+   */
+  void recordPhases(PhaseTimings timings) {
+    for (String phase : timings.getPhases()) {
+      String key = "phase=\"" + escape(phase) + "\"";
+      phaseNanos.computeIfAbsent(key, k -> new LongAdder()).add(timings.getNanos(phase));
+      phaseCalls.computeIfAbsent(key, k -> new LongAdder()).add(timings.getCount(phase));
+    }
+  }
+
+  void routingStarted() {
+    activeRequests.increment();
+  }
+
+  void routingFinished() {
+    activeRequests.decrement();
+  }
+
+  /**
+   * @param action what the server did under contention: waited, killed or rejected
+   */
+  void recordContention(String action) {
+    contention.computeIfAbsent("action=\"" + action + "\"", k -> new LongAdder()).increment();
+  }
+
+  void write(Writer w) throws IOException {
+    writeLabeled(w, "brouter_requests_total", "Routing requests by engine mode, profile and http status", "counter", requests);
+    requestDuration.write(w, "brouter_request_duration_seconds", "Duration of the routing requests");
+    queueWait.write(w, "brouter_queue_wait_seconds", "Time the routing requests waited for a free slot (queued server mode)");
+
+    writeValue(w, "brouter_routing_active", "Routing requests currently running", "gauge", activeRequests.sum());
+    writeValue(w, "brouter_routing_slots", "Maximum number of concurrent routing requests", "gauge", maxThreads);
+    AdmissionQueue q = admissionQueue;
+    if (q != null) {
+      writeValue(w, "brouter_queue_waiting", "Routing requests waiting for a free slot", "gauge", q.getWaiting());
+    }
+    writeLabeled(w, "brouter_contention_total", "Requests that met a full server, by the action taken", "counter", contention);
+
+    writeValue(w, "brouter_profile_cache_hits_total", "Profile cache hits", "counter", ProfileCache.getHits());
+    writeValue(w, "brouter_profile_cache_misses_total", "Profile cache misses (profile parsed)", "counter", ProfileCache.getMisses());
+
+    writeValue(w, "brouter_tile_loads_total", "Decoded rd5 sub-tiles", "counter", TileStatistics.getLoads());
+    writeValue(w, "brouter_tile_bytes_read_total", "Bytes read from rd5 files", "counter", TileStatistics.getBytesRead());
+    writeHeader(w, "brouter_tile_decode_seconds_total", "Time spent decoding rd5 sub-tiles", "counter");
+    w.write("brouter_tile_decode_seconds_total " + TileStatistics.getDecodeNanos() / 1e9 + "\n");
+    TileDataCache tileCache = TileDataCache.getInstance();
+    if (tileCache.isEnabled()) {
+      writeValue(w, "brouter_tile_data_cache_hits_total", "Tile data cache hits", "counter", tileCache.getHits());
+      writeValue(w, "brouter_tile_data_cache_misses_total", "Tile data cache misses", "counter", tileCache.getMisses());
+      writeValue(w, "brouter_tile_data_cache_bytes", "Size of the tile data cache", "gauge", tileCache.getCurrentBytes());
+    }
+
+    RouteResultCache resultCache = RouteResultCache.getInstance();
+    if (resultCache.isEnabled()) {
+      writeValue(w, "brouter_route_cache_hits_total", "Route result cache hits", "counter", resultCache.getHits());
+      writeValue(w, "brouter_route_cache_misses_total", "Route result cache misses (request routed)", "counter", resultCache.getMisses());
+      writeValue(w, "brouter_route_cache_coalesced_total", "Requests that waited for an identical running request", "counter", resultCache.getCoalesced());
+      writeValue(w, "brouter_route_cache_invalidations_total", "Route result cache flushes after rd5 changes", "counter", resultCache.getInvalidations());
+      writeValue(w, "brouter_route_cache_entries", "Entries in the route result cache", "gauge", resultCache.getEntries());
+      writeValue(w, "brouter_route_cache_bytes", "Size of the route result cache", "gauge", resultCache.getCurrentBytes());
+    }
+
+    writeValue(w, "brouter_links_processed_total", "Links processed by the searches", "counter", linksProcessed.sum());
+    writeValue(w, "brouter_memory_panics_total", "Searches that switched to memory panic mode", "counter", memoryPanics.sum());
+    writeValue(w, "brouter_timeouts_total", "Routing requests that timed out", "counter", timeouts.sum());
+
+    writeHeader(w, "brouter_phase_seconds_total", "Wall time of the request phases, summed over parallel legs", "counter");
+    for (Map.Entry<String, LongAdder> e : new TreeMap<>(phaseNanos).entrySet()) {
+      w.write("brouter_phase_seconds_total{" + e.getKey() + "} " + e.getValue().sum() / 1e9 + "\n");
+    }
+    writeLabeled(w, "brouter_phase_calls_total", "Number of times the request phases were entered", "counter", phaseCalls);
+  }
+
+  private static void writeHeader(Writer w, String name, String help, String type) throws IOException {
+    w.write("# HELP " + name + " " + help + "\n");
+    w.write("# TYPE " + name + " " + type + "\n");
+  }
+
+  private static void writeValue(Writer w, String name, String help, String type, long value) throws IOException {
+    writeHeader(w, name, help, type);
+    w.write(name + " " + value + "\n");
+  }
+
+  private static void writeLabeled(Writer w, String name, String help, String type, Map<String, LongAdder> values) throws IOException {
+    writeHeader(w, name, help, type);
+    for (Map.Entry<String, LongAdder> e : new TreeMap<>(values).entrySet()) {
+      w.write(name + "{" + e.getKey() + "} " + e.getValue().sum() + "\n");
+    }
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
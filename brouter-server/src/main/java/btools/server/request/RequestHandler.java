@@ -1,5 +1,7 @@
 package btools.server.request;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
 import btools.router.OsmTrack;
@@ -19,6 +21,11 @@ public abstract class RequestHandler {
 
   public abstract String formatTrack(OsmTrack track);
 
+  /**
+   * Write the formatted track, same output as formatTrack(OsmTrack)
+   */
+  public abstract void formatTrack(OsmTrack track, Writer w) throws IOException;
+
   public abstract String getMimeType();
 
   public abstract String getFileName();
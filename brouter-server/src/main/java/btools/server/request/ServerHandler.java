@@ -1,12 +1,15 @@
 package btools.server.request;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
 import btools.router.FormatCsv;
 import btools.router.FormatGpx;
 import btools.router.FormatJson;
 import btools.router.FormatKml;
+import btools.router.Formatter;
 import btools.router.OsmTrack;
 import btools.router.RoutingContext;
 import btools.server.ServiceContext;
@@ -31,6 +34,15 @@ import btools.server.ServiceContext;
  * heading = angle (optional to give a route a start direction)
  * profile:xxx = parameter in profile (optional)
  * straight = idx1,idx2,.. (optional, minimum one value, index of a direct routing point in the waypoint list)
+ * engineMode = 5 for a cost/distance/time matrix in json from each lonlats point to each target (optional)
+ * targets = lon,lat|... (optional, targets of a matrix request, default are the lonlats points)
+ * engineMode = 6 for the isochrone area reachable from the first lonlats point as geojson (optional)
+ * isochroneLimits = limit,... (isochrone limits in seconds, meters or cost)
+ * isochroneType = [time|distance|cost] (optional, default time)
+ * isochroneCellSize = raster size in meters (optional, default 100, minimum 10)
+ * isochroneFormat = grid (optional, the raster values instead of polygons)
+ * engineMode = 7 to snap each lonlats point to the nearest way within the profile's waypointCatchingRange, result in json (optional)
+ * timings = 1 to get the wall time per phase in a Server-Timing response header (optional)
  * <p>
  * Example URLs:
  * {@code http://localhost:17777/brouter?lonlats=8.799297,49.565883|8.811764,49.563606&nogos=&profile=trekking&alternativeidx=0&format=gpx}
@@ -67,7 +79,17 @@ public class ServerHandler extends RequestHandler {
 
   @Override
   public String formatTrack(OsmTrack track) {
-    String result;
+    return getFormatter(track).format(track);
+  }
+
+  @Override
+  public void formatTrack(OsmTrack track, Writer w) throws IOException {
+    getFormatter(track).format(track, w);
+  }
+
+  // applies the track parameters and selects the formatter for the format parameter
+  private Formatter getFormatter(OsmTrack track) {
+    Formatter result;
     // optional, may be null
     String format = params.get("format");
     String trackName = getTrackName();
@@ -84,17 +106,17 @@ public class ServerHandler extends RequestHandler {
     }
 
     if (format == null || "gpx".equals(format)) {
-      result = new FormatGpx(rc).format(track);
+      result = new FormatGpx(rc);
     } else if ("kml".equals(format)) {
-      result = new FormatKml(rc).format(track);
+      result = new FormatKml(rc);
     } else if ("geojson".equals(format)) {
-      result = new FormatJson(rc).format(track);
+      result = new FormatJson(rc);
     } else if ("csv".equals(format)) {
-      result = new FormatCsv(rc).format(track);
+      result = new FormatCsv(rc);
     } else {
       System.out.println("unknown track format '" + format + "', using default");
       //result = track.formatAsGpx();
-      result = new FormatGpx(rc).format(track);
+      result = new FormatGpx(rc);
     }
 
     return result;
@@ -0,0 +1,70 @@
+package btools.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BatchRouterTest {
+  private File segmentDir;
+  private String oldProfileBaseDir;
+
+  @Before
+  public void setup() throws IOException {
+    File workingDir = new File(".").getCanonicalFile();
+    segmentDir = new File(workingDir, "../brouter-map-creator/build/resources/test/tmp/segments");
+    oldProfileBaseDir = System.getProperty("profileBaseDir");
+    System.setProperty("profileBaseDir", new File(workingDir, "../misc/profiles2").getAbsolutePath());
+  }
+
+  @After
+  public void restore() {
+    if (oldProfileBaseDir == null) {
+      System.clearProperty("profileBaseDir");
+    } else {
+      System.setProperty("profileBaseDir", oldProfileBaseDir);
+    }
+  }
+
+  @Test
+  public void resultsInRequestOrder() throws IOException {
+    String input = "# od pairs\n"
+      + "{\"id\": \"a\", \"lonlats\": \"8.723037,50.000491|8.712737,50.002899\"}\n"
+      + "8.712737,50.002899|8.723037,50.000491;id=b\n"
+      + "\n"
+      + "{\"lonlats\": \"1.0,1.0|1.1,1.1\"}\n"
+      + "{\"id\": \"d\", \"lonlats\": \"8.723037,50.000491|8.712737,50.002899\", \"profile\": \"trekking\"}\n";
+
+    Map<String, String> defaultParams = new HashMap<>();
+    defaultParams.put("profile", "trekking");
+    BatchRouter batchRouter = new BatchRouter(segmentDir, defaultParams, true);
+    StringWriter sw = new StringWriter();
+    batchRouter.run(new BufferedReader(new StringReader(input)), sw, 3);
+
+    String[] lines = sw.toString().split("\n");
+    Assert.assertEquals(4, lines.length);
+    Assert.assertTrue(lines[0], lines[0].startsWith("{\"id\":\"a\",\"cost\":"));
+    Assert.assertTrue(lines[1], lines[1].startsWith("{\"id\":\"b\",\"cost\":"));
+    Assert.assertTrue(lines[2], lines[2].startsWith("{\"id\":\"5\",\"error\":"));
+    Assert.assertEquals(lines[0].replace("\"a\"", "\"d\""), lines[3]);
+    Assert.assertEquals(4, batchRouter.getRoutes());
+    Assert.assertEquals(1, batchRouter.getFailures());
+  }
+
+  @Test
+  public void parseJsonLine() {
+    Map<String, String> params = BatchRouter.parseJsonLine("{ \"lonlats\" : \"1,2|3,4\", \"alternativeidx\": 1, \"name\": \"a \\\"b\\\"\", \"x\": null }");
+    Assert.assertEquals("1,2|3,4", params.get("lonlats"));
+    Assert.assertEquals("1", params.get("alternativeidx"));
+    Assert.assertEquals("a \"b\"", params.get("name"));
+    Assert.assertFalse(params.containsKey("x"));
+  }
+}
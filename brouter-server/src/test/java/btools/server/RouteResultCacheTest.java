@@ -0,0 +1,96 @@
+package btools.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import btools.router.OsmNodeNamed;
+import btools.router.RoutingParamCollector;
+
+public class RouteResultCacheTest {
+
+  @Test
+  public void normalizedKey() {
+    RoutingParamCollector collector = new RoutingParamCollector();
+    List<OsmNodeNamed> wplist1 = collector.getWayPointList("8.7230371,50.0004909|8.712737,50.002899");
+    List<OsmNodeNamed> wplist2 = collector.getWayPointList("8.723037,50.000491;8.7127370,50.0028990");
+
+    Map<String, String> params1 = new HashMap<>();
+    params1.put("format", "gpx");
+    params1.put("nogos", "");
+    params1.put("alternativeidx", "0");
+    Map<String, String> params2 = new HashMap<>();
+    params2.put("alternativeidx", "0");
+    params2.put("format", "gpx");
+
+    String key = RouteResultCache.makeKey(wplist1, "trekking", "1/2", params1);
+    Assert.assertEquals(key, RouteResultCache.makeKey(wplist2, "trekking", "1/2", params2));
+    Assert.assertNotEquals(key, RouteResultCache.makeKey(wplist2, "trekking", "1/3", params2));
+    params2.put("alternativeidx", "1");
+    Assert.assertNotEquals(key, RouteResultCache.makeKey(wplist2, "trekking", "1/2", params2));
+  }
+
+  @Test
+  public void coalesceRequests() throws Exception {
+    RouteResultCache cache = new RouteResultCache(1024 * 1024);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    RouteResultCache.Loader loader = () -> {
+      loads.incrementAndGet();
+      release.await(10, TimeUnit.SECONDS);
+      return new RouteResultCache.Response(RouteServer.HTTP_STATUS_OK, "text/plain", null, null, "result");
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<RouteResultCache.Response> first = executor.submit(() -> cache.get("key", loader));
+      while (loads.get() == 0) {
+        Thread.sleep(5);
+      }
+      Future<RouteResultCache.Response> second = executor.submit(() -> cache.get("key", loader));
+      Future<RouteResultCache.Response> third = executor.submit(() -> cache.get("key", loader));
+      while (cache.getCoalesced() < 2) {
+        Thread.sleep(5);
+      }
+      release.countDown();
+      Assert.assertSame(first.get(), second.get());
+      Assert.assertSame(first.get(), third.get());
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertSame(cache.get("key", loader), cache.get("key", loader));
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(2, cache.getHits());
+  }
+
+  @Test
+  public void errorsAndClearNotCached() throws Exception {
+    RouteResultCache cache = new RouteResultCache(1024 * 1024);
+    AtomicInteger loads = new AtomicInteger();
+    RouteResultCache.Loader errorLoader = () -> {
+      loads.incrementAndGet();
+      return new RouteResultCache.Response(RouteServer.HTTP_STATUS_BAD_REQUEST, "text/plain", null, null, "no route");
+    };
+    cache.get("key", errorLoader);
+    cache.get("key", errorLoader);
+    Assert.assertEquals(2, loads.get());
+    Assert.assertEquals(0, cache.getEntries());
+
+    RouteResultCache.Loader loader = () -> new RouteResultCache.Response(RouteServer.HTTP_STATUS_OK, "text/plain", null, null, "result");
+    cache.get("key", loader);
+    Assert.assertEquals(1, cache.getEntries());
+    cache.clear();
+    Assert.assertEquals(0, cache.getEntries());
+    Assert.assertEquals(0, cache.getCurrentBytes());
+  }
+}
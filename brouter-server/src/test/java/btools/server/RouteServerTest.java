@@ -20,6 +20,7 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
 
 public class RouteServerTest {
   private static final String host = "localhost";
@@ -240,6 +241,63 @@ public class RouteServerTest {
     Assert.assertTrue(content.contains("Disallow: /"));
   }
 
+  @Test
+  public void metrics() throws IOException, URISyntaxException {
+    URL routeUrl = new URI(baseUrl + "brouter?lonlats=8.723037,50.000491%7C8.712737,50.002899&nogos=&profile=trekking&alternativeidx=0&format=geojson").toURL();
+    HttpURLConnection routeConnection = (HttpURLConnection) routeUrl.openConnection();
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, routeConnection.getResponseCode());
+    routeConnection.getInputStream().readAllBytes();
+
+    // profiles that are not in the profile directory share a label
+    URL unknownUrl = new URI(baseUrl + "brouter?lonlats=8.723037,50.000491%7C8.712737,50.002899&nogos=&profile=unknown_x1&alternativeidx=0&format=geojson").toURL();
+    HttpURLConnection unknownConnection = (HttpURLConnection) unknownUrl.openConnection();
+    Assert.assertNotEquals(HttpURLConnection.HTTP_OK, unknownConnection.getResponseCode());
+
+    URL requestUrl = new URI(baseUrl + "brouter/metrics").toURL();
+    HttpURLConnection httpConnection = (HttpURLConnection) requestUrl.openConnection();
+    httpConnection.connect();
+
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, httpConnection.getResponseCode());
+
+    String content = new String(httpConnection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    Assert.assertTrue(content, content.contains("brouter_requests_total{engineMode=\"0\",profile=\"trekking\",status=\"200\"} "));
+    Assert.assertTrue(content, content.contains("profile=\"other\""));
+    Assert.assertFalse(content, content.contains("unknown_x1"));
+    Assert.assertTrue(content, content.contains("# TYPE brouter_request_duration_seconds histogram"));
+    Assert.assertFalse(content, content.contains("brouter_tile_loads_total 0\n"));
+  }
+
+  @Test
+  public void gzipResponse() throws IOException, URISyntaxException {
+    String url = baseUrl + "brouter?lonlats=8.723037,50.000491%7C8.712737,50.002899&nogos=&profile=trekking&alternativeidx=0&format=gpx";
+    HttpURLConnection plainConnection = (HttpURLConnection) new URI(url).toURL().openConnection();
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, plainConnection.getResponseCode());
+    byte[] plain = plainConnection.getInputStream().readAllBytes();
+
+    HttpURLConnection gzipConnection = (HttpURLConnection) new URI(url).toURL().openConnection();
+    gzipConnection.setRequestProperty("Accept-Encoding", "gzip");
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, gzipConnection.getResponseCode());
+    Assert.assertEquals("gzip", gzipConnection.getHeaderField("Content-Encoding"));
+    byte[] unzipped = new GZIPInputStream(gzipConnection.getInputStream()).readAllBytes();
+
+    Assert.assertEquals(new String(plain, StandardCharsets.UTF_8), new String(unzipped, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void serverTiming() throws IOException, URISyntaxException {
+    URL requestUrl = new URI(baseUrl + "brouter?lonlats=8.723037,50.000491%7C8.712737,50.002899&nogos=&profile=trekking&alternativeidx=0&format=geojson&timings=1").toURL();
+    HttpURLConnection httpConnection = (HttpURLConnection) requestUrl.openConnection();
+    httpConnection.connect();
+
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, httpConnection.getResponseCode());
+
+    String serverTiming = httpConnection.getHeaderField("Server-Timing");
+    Assert.assertNotNull(serverTiming);
+    Assert.assertTrue(serverTiming, serverTiming.contains("match;dur="));
+    Assert.assertTrue(serverTiming, serverTiming.contains("pass1;dur="));
+    Assert.assertTrue(serverTiming, serverTiming.contains("format;dur="));
+  }
+
   @Test
   public void invalidUrl() throws IOException, URISyntaxException {
     URL requestUrl = new URI(baseUrl + "invalid").toURL();
@@ -0,0 +1,29 @@
+package btools.util;
+
+/**
+ * A set of key-object pairs with int keys to get the lowest-key value from
+ */
+public interface IntPriorityQueue<V> {
+  /**
+   * add a key value pair
+   */
+  void add(int key, V value);
+
+  /**
+   * @return the lowest key value, or null if none
+   */
+  V popLowestKeyValue();
+
+  void clear();
+
+  int getSize();
+
+  int getPeakSize();
+
+  /**
+   * fill the target array with an equally distributed sample of the values
+   *
+   * @return the number of values copied
+   */
+  int getExtract(Object[] targetArray);
+}
@@ -0,0 +1,168 @@
+package btools.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map with primitive long keys and open addressing
+ * <p>
+ * Keys and values are kept in two parallel arrays with linear probing,
+ * so there is no allocation per entry and no boxing of keys.
+ * Removal shifts the following entries back instead of
+ * leaving tombstones, so lookups stay short after many removals.
+ * <p>
+ * Null values are not supported (get returns null for "not found").
+ */
+public final class OpenLongMap<V> {
+  private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  private long[] keys;
+  private Object[] values;
+  private int size;
+  private int shift;
+  private int mask;
+  private int resizeLimit;
+
+  public OpenLongMap() {
+    this(16);
+  }
+
+  public OpenLongMap(int expectedSize) {
+    int capacity = 16;
+    while (capacity * 3 < expectedSize * 4) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    resizeLimit = (capacity * 3) / 4;
+  }
+
+  private int slot(long key) {
+    return (int) ((key * HASH_MULTIPLIER) >>> shift);
+  }
+
+  /**
+   * @return the value for the given key, or null if not contained
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    for (int i = slot(key); ; i = (i + 1) & mask) {
+      Object v = values[i];
+      if (v == null) {
+        return null;
+      }
+      if (keys[i] == key) {
+        return (V) v;
+      }
+    }
+  }
+
+  public boolean contains(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @return the previous value for the key, or null
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    if (value == null) {
+      throw new IllegalArgumentException("null values not supported");
+    }
+    int i = slot(key);
+    for (; ; i = (i + 1) & mask) {
+      Object v = values[i];
+      if (v == null) {
+        break;
+      }
+      if (keys[i] == key) {
+        values[i] = value;
+        return (V) v;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    if (++size > resizeLimit) {
+      resize();
+    }
+    return null;
+  }
+
+  /**
+   * @return the removed value, or null if the key was not contained
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    int i = slot(key);
+    for (; ; i = (i + 1) & mask) {
+      Object v = values[i];
+      if (v == null) {
+        return null;
+      }
+      if (keys[i] == key) {
+        break;
+      }
+    }
+    Object removed = values[i];
+
+    // shift back entries of the same probe sequence
+    int gap = i;
+    for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+      int home = slot(keys[j]);
+      if (((j - home) & mask) >= ((j - gap) & mask)) {
+        keys[gap] = keys[j];
+        values[gap] = values[j];
+        gap = j;
+      }
+    }
+    values[gap] = null;
+    size--;
+    return (V) removed;
+  }
+
+  private void resize() {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object v = oldValues[j];
+      if (v != null) {
+        int i = slot(oldKeys[j]);
+        while (values[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = v;
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * @return the number of slots, for iteration via getValueAt
+   */
+  public int getCapacity() {
+    return values.length;
+  }
+
+  /**
+   * @return the value at the given slot, or null for an empty slot
+   */
+  @SuppressWarnings("unchecked")
+  public V getValueAt(int slot) {
+    return (V) values[slot];
+  }
+}
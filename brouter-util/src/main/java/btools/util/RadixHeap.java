@@ -0,0 +1,207 @@
+package btools.util;
+
+import java.util.Arrays;
+
+/**
+ * Radix heap for non-negative int keys
+ * <p>
+ * Keys are kept in 33 buckets by the highest bit they differ from the
+ * last popped key, so add is O(1) and each entry is moved at most 32
+ * times until it is popped. This is fastest for (mostly) monotone
+ * keys, e.g. the A* costs of the router.
+ * <p>
+ * Keys below the last popped key are allowed: they go to a small
+ * binary heap that is always popped first, so the order is the same
+ * as with any other priority queue (except for equal keys).
+ */
+public final class RadixHeap<V> implements IntPriorityQueue<V> {
+  private static final int NBUCKETS = 33;
+
+  private final int[][] keys = new int[NBUCKETS][];
+  private final Object[][] values = new Object[NBUCKETS][];
+  private final int[] sizes = new int[NBUCKETS];
+
+  // binary heap for keys below the last popped key
+  private int[] lowKeys = new int[16];
+  private Object[] lowValues = new Object[16];
+  private int lowSize;
+
+  private int last;
+  private int size;
+  private int peaksize;
+
+  @Override
+  public void add(int key, V value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("negative key: " + key);
+    }
+    if (++size > peaksize) {
+      peaksize = size;
+    }
+    if (key < last) {
+      addLow(key, value);
+    } else {
+      addToBucket(bucketIndex(key), key, value);
+    }
+  }
+
+  private int bucketIndex(int key) {
+    return 32 - Integer.numberOfLeadingZeros(key ^ last);
+  }
+
+  private void addToBucket(int b, int key, Object value) {
+    int n = sizes[b];
+    if (keys[b] == null) {
+      keys[b] = new int[16];
+      values[b] = new Object[16];
+    } else if (n == keys[b].length) {
+      int[] k = new int[2 * n];
+      Object[] v = new Object[2 * n];
+      System.arraycopy(keys[b], 0, k, 0, n);
+      System.arraycopy(values[b], 0, v, 0, n);
+      keys[b] = k;
+      values[b] = v;
+    }
+    keys[b][n] = key;
+    values[b][n] = value;
+    sizes[b] = n + 1;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V popLowestKeyValue() {
+    if (size == 0) {
+      return null;
+    }
+    size--;
+    if (lowSize > 0) {
+      return (V) popLow();
+    }
+    if (sizes[0] == 0) {
+      redistribute();
+    }
+    int n = --sizes[0];
+    Object v = values[0][n];
+    values[0][n] = null;
+    return (V) v;
+  }
+
+  // move the bucket holding the minimum into the lower buckets
+  private void redistribute() {
+    int b = 1;
+    while (sizes[b] == 0) {
+      b++;
+    }
+    int[] bk = keys[b];
+    Object[] bv = values[b];
+    int n = sizes[b];
+    int min = bk[0];
+    for (int i = 1; i < n; i++) {
+      if (bk[i] < min) {
+        min = bk[i];
+      }
+    }
+    last = min;
+    sizes[b] = 0;
+    for (int i = 0; i < n; i++) {
+      addToBucket(bucketIndex(bk[i]), bk[i], bv[i]);
+      bv[i] = null;
+    }
+  }
+
+  private void addLow(int key, Object value) {
+    if (lowSize == lowKeys.length) {
+      int[] k = new int[2 * lowSize];
+      Object[] v = new Object[2 * lowSize];
+      System.arraycopy(lowKeys, 0, k, 0, lowSize);
+      System.arraycopy(lowValues, 0, v, 0, lowSize);
+      lowKeys = k;
+      lowValues = v;
+    }
+    int i = lowSize++;
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (lowKeys[parent] <= key) {
+        break;
+      }
+      lowKeys[i] = lowKeys[parent];
+      lowValues[i] = lowValues[parent];
+      i = parent;
+    }
+    lowKeys[i] = key;
+    lowValues[i] = value;
+  }
+
+  private Object popLow() {
+    Object result = lowValues[0];
+    int n = --lowSize;
+    int key = lowKeys[n];
+    Object value = lowValues[n];
+    lowValues[n] = null;
+    int i = 0;
+    for (; ; ) {
+      int child = 2 * i + 1;
+      if (child >= n) {
+        break;
+      }
+      if (child + 1 < n && lowKeys[child + 1] < lowKeys[child]) {
+        child++;
+      }
+      if (key <= lowKeys[child]) {
+        break;
+      }
+      lowKeys[i] = lowKeys[child];
+      lowValues[i] = lowValues[child];
+      i = child;
+    }
+    if (n > 0) {
+      lowKeys[i] = key;
+      lowValues[i] = value;
+    }
+    return result;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < NBUCKETS; i++) {
+      if (sizes[i] > 0) {
+        Arrays.fill(values[i], 0, sizes[i], null);
+        sizes[i] = 0;
+      }
+    }
+    Arrays.fill(lowValues, 0, lowSize, null);
+    lowSize = 0;
+    last = 0;
+    size = 0;
+  }
+
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public int getPeakSize() {
+    return peaksize;
+  }
+
+  @Override
+  public int getExtract(Object[] targetArray) {
+    int div = size / targetArray.length + 1;
+    int tp = 0;
+    int cnt = 0;
+    for (int i = 0; i < lowSize; i++) {
+      if (cnt++ % div == 0) {
+        targetArray[tp++] = lowValues[i];
+      }
+    }
+    for (int b = 0; b < NBUCKETS; b++) {
+      for (int i = 0; i < sizes[b]; i++) {
+        if (cnt++ % div == 0) {
+          targetArray[tp++] = values[b][i];
+        }
+      }
+    }
+    return tp;
+  }
+}
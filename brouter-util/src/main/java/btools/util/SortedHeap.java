@@ -5,7 +5,7 @@ package btools.util;
  *
  * @author ab
  */
-public final class SortedHeap<V> {
+public final class SortedHeap<V> implements IntPriorityQueue<V> {
   private int size;
   private int peaksize;
   private SortedBin first;
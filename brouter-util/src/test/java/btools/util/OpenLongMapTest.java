@@ -0,0 +1,49 @@
+package btools.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OpenLongMapTest {
+  @Test
+  public void hashMapComparisonTest() {
+    hashMapComparison(10, 100);
+    hashMapComparison(1000, 100000);
+    hashMapComparison(100000, 300000);
+  }
+
+  private void hashMapComparison(int keyRange, int operations) {
+    Random rand = new Random(12345);
+    Map<Long, String> hmap = new HashMap<>();
+    OpenLongMap<String> omap = new OpenLongMap<>();
+
+    for (int i = 0; i < operations; i++) {
+      // position-like ids: lon in the upper, lat in the lower half
+      long k = ((long) (180000000 + rand.nextInt(keyRange))) << 32 | (90000000 + rand.nextInt(4));
+      int op = rand.nextInt(3);
+      if (op == 0) {
+        String s = "" + i;
+        Assert.assertEquals("put missmatch", hmap.put(k, s), omap.put(k, s));
+      } else if (op == 1) {
+        Assert.assertEquals("remove missmatch", hmap.remove(k), omap.remove(k));
+      } else {
+        Assert.assertEquals("get missmatch", hmap.get(k), omap.get(k));
+      }
+      Assert.assertEquals("size missmatch", hmap.size(), omap.size());
+    }
+
+    int count = 0;
+    for (int i = 0; i < omap.getCapacity(); i++) {
+      if (omap.getValueAt(i) != null) {
+        count++;
+      }
+    }
+    Assert.assertEquals("iteration missmatch", hmap.size(), count);
+    for (Map.Entry<Long, String> e : hmap.entrySet()) {
+      Assert.assertEquals("object missmatch", e.getValue(), omap.get(e.getKey()));
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package btools.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RadixHeapTest {
+  @Test
+  public void monotoneTest() {
+    RadixHeap<Integer> rh = new RadixHeap<>();
+    Random rnd = new Random(4711);
+    int lastval = 0;
+    for (int i = 0; i < 100000; i++) {
+      int val = lastval + rnd.nextInt(1000);
+      rh.add(val, val);
+      val = lastval + rnd.nextInt(1000000);
+      rh.add(val, val);
+      val = rh.popLowestKeyValue();
+      Assert.assertTrue("sorting test", val >= lastval);
+      lastval = val;
+    }
+    Assert.assertEquals("size test", 100000, rh.getSize());
+  }
+
+  @Test
+  public void sortedHeapComparisonTest() {
+    RadixHeap<String> rh = new RadixHeap<>();
+    SortedHeap<String> sh = new SortedHeap<>();
+    Random rnd = new Random(4711);
+    int base = 0;
+    for (int i = 0; i < 100000; i++) {
+      // mostly increasing keys, with some below the last popped
+      base += rnd.nextInt(10);
+      int val = Math.max(0, base + rnd.nextInt(2000) - 100);
+      rh.add(val, "" + val);
+      sh.add(val, "" + val);
+      if (rnd.nextInt(3) > 0) {
+        Assert.assertEquals("pop missmatch", sh.popLowestKeyValue(), rh.popLowestKeyValue());
+      }
+      Assert.assertEquals("size missmatch", sh.getSize(), rh.getSize());
+    }
+    for (; ; ) {
+      String s = sh.popLowestKeyValue();
+      Assert.assertEquals("pop missmatch", s, rh.popLowestKeyValue());
+      if (s == null) break;
+    }
+  }
+}
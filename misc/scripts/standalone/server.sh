@@ -5,7 +5,11 @@ cd "$(dirname "$0")"
 # java -cp brouter.jar btools.brouter.RouteServer <segmentdir> <profile-map> <customprofiledir> <port> <maxthreads> [bindaddress]
 
 # maxRunningTime is the request timeout in seconds, set to 0 to disable timeout
-JAVA_OPTS="-Xmx128M -Xms128M -Xmn8M -DmaxRunningTime=300 -DuseRFCMimeType=false"
+# tileCacheSize is the size (MB) of the raw-tile cache shared by all requests, set to 0 to disable
+# segmentFilePoolSize is the number of rd5 files kept open across requests, set to 0 to disable
+# compileExpressions compiles the profiles to bytecode instead of interpreting them
+# precomputeWayCosts keeps the way costs evaluated at tile decoding for an identity lookup
+JAVA_OPTS="-Xmx128M -Xms128M -Xmn8M -DmaxRunningTime=300 -DuseRFCMimeType=false -DtileCacheSize=16 -DsegmentFilePoolSize=64 -DcompileExpressions=true -DprecomputeWayCosts=true"
 
 # If paths are unset, first search in locations matching the directory structure
 # as found in the official BRouter zip archive